@@ -0,0 +1,302 @@
+package edu.cmu.cs211.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Scratch space that compressors and transformers reuse from one call to the
+ * next, so that compressing many inputs in a row does not allocate fresh
+ * buffers each time.
+ * <p>
+ * A context hands out grow-only arrays by <em>slot</em>. A stage asks for the
+ * slot it works in with a minimum length and gets an array at least that
+ * long; the contents of the array are not preserved between requests and may
+ * be longer than asked for. Once a context has seen the largest input of a
+ * workload, further calls allocate nothing for their buffers.
+ * <p>
+ * A context may also carry a {@link DecodeCache} and a
+ * {@link CompressionListener}, which calls through it share.
+ * <p>
+ * <strong>A context is not thread-safe.</strong> Use one per thread (see
+ * {@link #forCurrentThread()}), or borrow one from a {@link Pool} for the
+ * duration of a call.
+ */
+public class CompressionContext {
+
+	/** Byte slot holding the raw input or the final output of a pipeline */
+	public static final int INPUT = 0;
+	/** Byte slot holding the output of a transformation stage */
+	public static final int TRANSFORMED = 1;
+	/** Byte slot holding the input or output of the entropy coder */
+	public static final int ENTROPY = 2;
+
+	/** Int slot holding suffix-array and inverse-transformation tables */
+	public static final int SORT = 0;
+	/** Int slot holding bucket tables of the rotation sort */
+	public static final int BUCKETS = 1;
+
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private static final ThreadLocal<CompressionContext> CURRENT = new ThreadLocal<CompressionContext>() {
+		@Override
+		protected CompressionContext initialValue() {
+			return new CompressionContext();
+		}
+	};
+
+	private byte[][] bytes = new byte[3][];
+	private int[][] ints = new int[2][];
+	private final OutputBuffer output = new OutputBuffer();
+	private DecodeCache decodeCache;
+	private CompressionListener listener;
+
+	/* Start time and allocation counter of each open stage, two per stage */
+	private long[] stageMarks = new long[8];
+	private int openStages;
+
+	/**
+	 * Returns the context of the calling thread. Its buffers stay allocated for
+	 * the life of the thread; call {@link #release()} to drop them.
+	 */
+	public static CompressionContext forCurrentThread() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Returns the byte array of a slot, growing it if it holds fewer than
+	 * minLength bytes.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if slot or minLength is negative
+	 */
+	public byte[] bytes(int slot, int minLength) {
+		if (slot < 0 || minLength < 0)
+			throw new IllegalArgumentException();
+		if (slot >= bytes.length) {
+			byte[][] grown = new byte[slot + 1][];
+			System.arraycopy(bytes, 0, grown, 0, bytes.length);
+			bytes = grown;
+		}
+		byte[] b = bytes[slot];
+		if (b == null || b.length < minLength) {
+			b = new byte[grow(b == null ? 0 : b.length, minLength)];
+			bytes[slot] = b;
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the int array of a slot, growing it if it holds fewer than
+	 * minLength entries.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if slot or minLength is negative
+	 */
+	public int[] ints(int slot, int minLength) {
+		if (slot < 0 || minLength < 0)
+			throw new IllegalArgumentException();
+		if (slot >= ints.length) {
+			int[][] grown = new int[slot + 1][];
+			System.arraycopy(ints, 0, grown, 0, ints.length);
+			ints = grown;
+		}
+		int[] a = ints[slot];
+		if (a == null || a.length < minLength) {
+			a = new int[grow(a == null ? 0 : a.length, minLength)];
+			ints[slot] = a;
+		}
+		return a;
+	}
+
+	/**
+	 * Returns this context's output stream, emptied. Its backing array is kept
+	 * between calls, so writing to it does not repeat the growth copies of a
+	 * new ByteArrayOutputStream.
+	 */
+	public OutputBuffer output() {
+		output.reset();
+		return output;
+	}
+
+	/**
+	 * Sets the cache that expansions through this context consult, or null
+	 * for none. The cache itself may be shared with other contexts.
+	 */
+	public void setDecodeCache(DecodeCache decodeCache) {
+		this.decodeCache = decodeCache;
+	}
+
+	/** Returns the cache set with {@link #setDecodeCache}, or null */
+	public DecodeCache getDecodeCache() {
+		return decodeCache;
+	}
+
+	/**
+	 * Sets the listener that stages run through this context report to, or
+	 * null for none.
+	 */
+	public void setListener(CompressionListener listener) {
+		this.listener = listener;
+	}
+
+	/** Returns the listener set with {@link #setListener}, or null */
+	public CompressionListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Marks the start of a stage, if there is a listener. The returned mark is
+	 * passed to {@link #endStage} when the stage finishes.
+	 *
+	 * @return a mark for endStage, or -1 if there is no listener
+	 */
+	public int startStage() {
+		if (listener == null)
+			return -1;
+		if (2 * openStages == stageMarks.length)
+			stageMarks = Arrays.copyOf(stageMarks, 2 * stageMarks.length);
+		stageMarks[2 * openStages] = System.nanoTime();
+		stageMarks[2 * openStages + 1] = Allocation.currentThread();
+		return openStages++;
+	}
+
+	/**
+	 * Reports a stage started with {@link #startStage} to the listener. Stages
+	 * started after it and not yet ended, for example because they threw,
+	 * are forgotten. An outermost stage that threw stays open until the
+	 * context goes back to its {@link Pool} or is {@link #release}d.
+	 *
+	 * @param mark
+	 *            what startStage returned; -1 does nothing
+	 * @param bytesIn
+	 *            the bytes the stage consumed, or -1 if not known
+	 * @param bytesOut
+	 *            the bytes the stage produced, or -1 if not known
+	 */
+	public void endStage(CompressionListener.Stage stage, int mark,
+			long bytesIn, long bytesOut) {
+		if (mark < 0 || listener == null || mark >= openStages)
+			return;
+		long nanos = System.nanoTime() - stageMarks[2 * mark];
+		long before = stageMarks[2 * mark + 1];
+		long after = Allocation.currentThread();
+		openStages = mark;
+		listener.stageCompleted(stage, nanos, bytesIn, bytesOut,
+				before < 0 || after < 0 ? -1 : after - before);
+	}
+
+	/**
+	 * Drops every buffer held by this context and forgets any stage still
+	 * open; its decode cache and listener are kept
+	 */
+	public void release() {
+		bytes = new byte[3][];
+		ints = new int[2][];
+		output.trim();
+		closeStages();
+	}
+
+	/* Forgets the stages of an operation that threw before ending them */
+	private void closeStages() {
+		openStages = 0;
+		if (stageMarks.length > 8)
+			stageMarks = new long[8];
+	}
+
+	/* Grows by half again so that slowly increasing inputs do not reallocate every time */
+	private static int grow(int current, int minLength) {
+		long wanted = Math.max(minLength, current + (current >> 1));
+		return (int) Math.min(wanted, Math.max(minLength, MAX_ARRAY_LENGTH));
+	}
+
+	/*
+	 * Reads the bytes allocated by the current thread, where the JVM supports
+	 * it. A holder class, so that contexts without a listener never load the
+	 * management classes.
+	 */
+	private static final class Allocation {
+		private static final com.sun.management.ThreadMXBean THREADS;
+		static {
+			java.lang.management.ThreadMXBean threads = ManagementFactory
+					.getThreadMXBean();
+			com.sun.management.ThreadMXBean supported = null;
+			if (threads instanceof com.sun.management.ThreadMXBean) {
+				supported = (com.sun.management.ThreadMXBean) threads;
+				if (!supported.isThreadAllocatedMemorySupported())
+					supported = null;
+			}
+			THREADS = supported;
+		}
+
+		/* Returns the bytes allocated by this thread so far, or -1 if measuring is off */
+		static long currentThread() {
+			return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+		}
+	}
+
+	/**
+	 * A ByteArrayOutputStream whose backing array can be read without a copy.
+	 */
+	public static class OutputBuffer extends ByteArrayOutputStream {
+
+		/**
+		 * Returns the backing array; the first {@link #size()} bytes are the
+		 * data written so far.
+		 */
+		public byte[] array() {
+			return buf;
+		}
+
+		void trim() {
+			buf = new byte[32];
+			count = 0;
+		}
+	}
+
+	/**
+	 * A bounded pool of contexts. Borrowing from an empty pool creates a new
+	 * context; returning a context to a full pool drops it, so the pool never
+	 * holds more than its capacity.
+	 * <p>
+	 * Unlike contexts themselves, a pool may be shared between threads.
+	 */
+	public static class Pool {
+		private final ArrayBlockingQueue<CompressionContext> idle;
+
+		/**
+		 * Creates a pool keeping at most capacity idle contexts.
+		 *
+		 * @throws IllegalArgumentException
+		 *             if capacity is less than 1
+		 */
+		public Pool(int capacity) {
+			idle = new ArrayBlockingQueue<CompressionContext>(capacity);
+		}
+
+		/**
+		 * Borrows a context with no stage open; return it with
+		 * {@link #release} when done
+		 */
+		public CompressionContext acquire() {
+			CompressionContext context = idle.poll();
+			if (context == null)
+				return new CompressionContext();
+			context.closeStages();
+			return context;
+		}
+
+		/**
+		 * Returns a borrowed context to the pool, forgetting any stage a
+		 * failed job left open. The caller must not use it afterwards.
+		 *
+		 * @throws NullPointerException
+		 *             if context is null
+		 */
+		public void release(CompressionContext context) {
+			context.closeStages();
+			idle.offer(context);
+		}
+	}
+}
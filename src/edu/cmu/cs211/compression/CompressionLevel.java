@@ -0,0 +1,155 @@
+package edu.cmu.cs211.compression;
+
+import java.io.IOException;
+
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+import edu.cmu.cs211.compression.io.BitReader;
+import edu.cmu.cs211.compression.io.BitWriter;
+
+/**
+ * Compression levels from 1 (fastest) to 9 (smallest output), each a
+ * compressor configured for one point on the speed/ratio curve:
+ *
+ * <ul>
+ * <li><b>1</b> - Huffman, code from the first 64 KB</li>
+ * <li><b>2</b> - Huffman, code from the whole input, four interleaved
+ * streams</li>
+ * <li><b>3 - 8</b> - Burrows-Wheeler in blocks of 64 KB, 128 KB, 256 KB,
+ * 512 KB, 1 MB and 4 MB</li>
+ * <li><b>9</b> - Burrows-Wheeler, the whole input as one block</li>
+ * </ul>
+ *
+ * Levels 1 and 2 never sort; they only exploit skewed byte frequencies.
+ * Level 1 is the fastest to compress; level 2 takes about twice as long but
+ * expands about three times as fast, and its code fits the whole input.
+ * Sorting lets the higher levels exploit context as well, and a larger block
+ * gives the sort more context to work with at a higher cost per byte and more
+ * memory. At every level input that would not shrink is stored instead.
+ * <p>
+ * A non-empty stream starts with a byte holding its level, followed by the
+ * output of that level's compressor, so a compressor of any level expands the
+ * output of any other.
+ * {@link edu.cmu.cs211.compression.bench.LevelBenchmark} measures the curve.
+ */
+public final class CompressionLevel {
+
+	/** The fastest level */
+	public static final int MIN_LEVEL = 1;
+
+	/** The level with the smallest output */
+	public static final int MAX_LEVEL = 9;
+
+	/** Block size of each Burrows-Wheeler level from 3, or 0 for one block */
+	private static final int[] BLOCK_SIZES = { 64 << 10, 128 << 10,
+			256 << 10, 512 << 10, 1 << 20, 4 << 20, 0 };
+
+	/** Number of leading bytes level 1 builds its code from */
+	private static final int SAMPLE_SIZE = 64 << 10;
+
+	private CompressionLevel() {
+	}
+
+	/**
+	 * Returns a compressor for a level.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if level is not between {@link #MIN_LEVEL} and
+	 *             {@link #MAX_LEVEL}
+	 */
+	public static Compressor compressor(int level) {
+		if (level < MIN_LEVEL || level > MAX_LEVEL)
+			throw new IllegalArgumentException("level must be between "
+					+ MIN_LEVEL + " and " + MAX_LEVEL);
+		return new LevelCompressor(level);
+	}
+
+	/* The compressor that writes the body of a level's streams */
+	private static Compressor method(int level) {
+		if (level == 1)
+			return new HuffmanCompressor(SAMPLE_SIZE);
+		if (level == 2)
+			return new HuffmanCompressor(0, 0, true);
+		int blockSize = BLOCK_SIZES[level - 3];
+		if (blockSize == 0)
+			return new BurrowsWheelerCompressor();
+		return new BurrowsWheelerCompressor(blockSize);
+	}
+
+	/**
+	 * Writes the level byte and the output of the level's compressor, and
+	 * expands with the compressor of whatever level a stream names.
+	 */
+	private static final class LevelCompressor extends Compressor {
+		private final int level;
+		private final Compressor method;
+
+		LevelCompressor(int level) {
+			this.level = level;
+			this.method = CompressionLevel.method(level);
+		}
+
+		/* The compressor of a stream's level */
+		private Compressor readMethod(BitReader reader) throws IOException {
+			int level = reader.readByte();
+			if (level == this.level)
+				return method;
+			if (level < MIN_LEVEL || level > MAX_LEVEL)
+				throw new IOException("unknown compression level " + level);
+			return CompressionLevel.method(level);
+		}
+
+		@Override
+		public int maxCompressedLength(int length) {
+			int bound = method.maxCompressedLength(length);
+			return length == 0 ? 0 : checkedLength(1L + bound);
+		}
+
+		@Override
+		public void compress(BitReader reader, BitWriter writer)
+				throws IOException {
+			compress(reader, writer, new CompressionContext());
+		}
+
+		@Override
+		public void compress(BitReader reader, BitWriter writer,
+				CompressionContext context) throws IOException {
+			if (context == null)
+				throw new NullPointerException();
+			if (reader.length() == 0)
+				return;
+			writer.writeByte((byte) level);
+			method.compress(reader, writer, context);
+		}
+
+		/* Keeps the array paths of the level's compressor */
+		@Override
+		public int compress(byte[] src, int off, int len, byte[] dst,
+				int dstOff, CompressionContext context) throws IOException {
+			checkRange(src, off, len);
+			checkRange(dst, dstOff, 0);
+			if (len == 0)
+				return 0;
+			if (dstOff == dst.length)
+				throw new IndexOutOfBoundsException();
+			dst[dstOff] = (byte) level;
+			return 1 + method.compress(src, off, len, dst, dstOff + 1, context);
+		}
+
+		@Override
+		public void expand(BitReader reader, BitWriter writer)
+				throws IOException {
+			expand(reader, writer, new CompressionContext());
+		}
+
+		@Override
+		public void expand(BitReader reader, BitWriter writer,
+				CompressionContext context) throws IOException {
+			if (context == null)
+				throw new NullPointerException();
+			if (reader.length() == 0)
+				return;
+			readMethod(reader).expand(reader, writer, context);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package edu.cmu.cs211.compression;
+
+/**
+ * Receives a measurement each time a compressor finishes one stage of its
+ * work on a block of data.
+ * <p>
+ * A listener is attached to a {@link CompressionContext} with
+ * {@link CompressionContext#setListener}; compressions and expansions through
+ * that context then report their stages to it. A context without a listener
+ * does not read the clock at all, so instrumentation costs nothing unless it
+ * is turned on.
+ * <p>
+ * Stages nest: a {@link Stage#BLOCK} of a blocked compressor contains the
+ * transformation and coding stages of that block. Pipelined compressors
+ * report from several threads at once, and one listener may be shared by many
+ * contexts, so implementations must be thread-safe. {@link StageMetrics}
+ * totals the measurements, and {@link JfrCompressionListener} turns them into
+ * Flight Recorder events.
+ */
+public interface CompressionListener {
+
+	/** The stages compressors report */
+	enum Stage {
+		/** Sorting the rotations of a block and taking their last column */
+		BURROWS_WHEELER,
+		/** Rebuilding a block from the last column of its rotations */
+		INVERSE_BURROWS_WHEELER,
+		/** Move-to-front coding */
+		MOVE_TO_FRONT,
+		/** Undoing move-to-front coding */
+		INVERSE_MOVE_TO_FRONT,
+		/** Counting byte frequencies */
+		HISTOGRAM,
+		/** Building a Huffman code from the frequencies */
+		TREE_BUILD,
+		/** Writing a Huffman header and the coded data */
+		ENCODE,
+		/** Reading a Huffman header and decoding the data */
+		DECODE,
+		/**
+		 * Compressing or expanding one block of a blocked format. Pipelined
+		 * compressors time only the last stage of each block, which has a
+		 * thread of its own.
+		 */
+		BLOCK
+	}
+
+	/**
+	 * Called on the thread that ran a stage, right after it finished.
+	 *
+	 * @param stage
+	 *            the stage that finished
+	 * @param nanos
+	 *            the elapsed time of the stage
+	 * @param bytesIn
+	 *            the number of bytes the stage consumed, or -1 if not known
+	 * @param bytesOut
+	 *            the number of bytes the stage produced, or -1 if not known
+	 * @param allocatedBytes
+	 *            an estimate of the bytes the thread allocated during the
+	 *            stage, or -1 if the JVM cannot measure it
+	 */
+	void stageCompleted(Stage stage, long nanos, long bytesIn, long bytesOut,
+			long allocatedBytes);
+}
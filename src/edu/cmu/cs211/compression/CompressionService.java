@@ -0,0 +1,192 @@
+package edu.cmu.cs211.compression;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs compress and expand jobs for one {@link Compressor} on a fixed set of
+ * worker threads.
+ * <p>
+ * At most <tt>threads + queueCapacity</tt> jobs are admitted at a time. Once
+ * that many are running or waiting, submitting another job blocks the caller
+ * until one finishes, so a fast producer is slowed down instead of queueing
+ * unbounded work. Each job borrows a {@link CompressionContext} from a pool
+ * shared by the workers, so steady-state jobs reuse their buffers.
+ * <p>
+ * Workers are created by the given ThreadFactory. On runtimes with virtual
+ * threads, passing a virtual-thread factory runs every worker on one; the pool
+ * of contexts does not depend on thread identity, so it works the same way.
+ * <p>
+ * This class is thread-safe.
+ */
+public class CompressionService implements Closeable {
+
+	private final Compressor compressor;
+	private final ThreadPoolExecutor executor;
+	private final Semaphore admitted;
+	private final CompressionContext.Pool contexts;
+	private volatile CompressionListener listener;
+
+	/**
+	 * Creates a service running on platform threads.
+	 *
+	 * @see #CompressionService(Compressor, int, int, ThreadFactory)
+	 */
+	public CompressionService(Compressor compressor, int threads,
+			int queueCapacity) {
+		this(compressor, threads, queueCapacity, Executors
+				.defaultThreadFactory());
+	}
+
+	/**
+	 * Creates a service.
+	 *
+	 * @param compressor
+	 *            the compressor to run; it is shared by all workers
+	 * @param threads
+	 *            the number of worker threads
+	 * @param queueCapacity
+	 *            how many jobs may wait for a worker before submitting blocks
+	 * @param threadFactory
+	 *            creates the worker threads
+	 * @throws IllegalArgumentException
+	 *             if threads is less than 1 or queueCapacity is negative
+	 * @throws NullPointerException
+	 *             if compressor or threadFactory is null
+	 */
+	public CompressionService(Compressor compressor, int threads,
+			int queueCapacity, ThreadFactory threadFactory) {
+		if (compressor == null || threadFactory == null)
+			throw new NullPointerException();
+		if (threads < 1 || queueCapacity < 0)
+			throw new IllegalArgumentException();
+
+		this.compressor = compressor;
+		this.admitted = new Semaphore(threads + queueCapacity);
+		this.contexts = new CompressionContext.Pool(threads);
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				threadFactory);
+	}
+
+	/**
+	 * Sets the listener that jobs submitted from now on report their stages
+	 * to, or null for none. The listener is called from every worker.
+	 */
+	public void setListener(CompressionListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Compresses a copy of input on a worker, blocking while the service is
+	 * full.
+	 *
+	 * @return a future completed with the compressed bytes, or exceptionally
+	 *         with the exception the compressor threw
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room
+	 * @throws RejectedExecutionException
+	 *             if the service has been closed
+	 */
+	public CompletableFuture<byte[]> compress(byte[] input)
+			throws InterruptedException {
+		return submit(input.clone(), true);
+	}
+
+	/**
+	 * Compresses the bytes remaining in input, which are copied before this
+	 * method returns; the buffer's position is moved to its limit.
+	 *
+	 * @see #compress(byte[])
+	 */
+	public CompletableFuture<byte[]> compress(ByteBuffer input)
+			throws InterruptedException {
+		return submit(drain(input), true);
+	}
+
+	/**
+	 * Expands a copy of input on a worker, blocking while the service is full.
+	 *
+	 * @return a future completed with the expanded bytes, or exceptionally
+	 *         with the exception the compressor threw
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room
+	 * @throws RejectedExecutionException
+	 *             if the service has been closed
+	 */
+	public CompletableFuture<byte[]> expand(byte[] input)
+			throws InterruptedException {
+		return submit(input.clone(), false);
+	}
+
+	/**
+	 * Expands the bytes remaining in input, which are copied before this
+	 * method returns; the buffer's position is moved to its limit.
+	 *
+	 * @see #expand(byte[])
+	 */
+	public CompletableFuture<byte[]> expand(ByteBuffer input)
+			throws InterruptedException {
+		return submit(drain(input), false);
+	}
+
+	/**
+	 * Stops accepting jobs and waits for the admitted ones to finish.
+	 */
+	public void close() {
+		executor.shutdown();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.SECONDS))
+					break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private static byte[] drain(ByteBuffer input) {
+		byte[] bytes = new byte[input.remaining()];
+		input.get(bytes);
+		return bytes;
+	}
+
+	private CompletableFuture<byte[]> submit(final byte[] input,
+			final boolean compress) throws InterruptedException {
+		final CompletableFuture<byte[]> result = new CompletableFuture<byte[]>();
+		final CompressionListener listener = this.listener;
+		admitted.acquire();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					CompressionContext context = contexts.acquire();
+					context.setListener(listener);
+					try {
+						result.complete(compress ? compressor.compress(input,
+								context) : compressor.expand(input, context));
+					} catch (Throwable t) {
+						result.completeExceptionally(t);
+					} finally {
+						contexts.release(context);
+						admitted.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			admitted.release();
+			throw e;
+		}
+		return result;
+	}
+}
@@ -1,13 +1,21 @@
 package edu.cmu.cs211.compression;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import edu.cmu.cs211.compression.io.BitReader;
 import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.ByteArrayBitWriter;
+import edu.cmu.cs211.compression.io.ByteBufferBitReader;
+import edu.cmu.cs211.compression.io.ByteBufferBitWriter;
+import edu.cmu.cs211.compression.io.ChannelBitReader;
+import edu.cmu.cs211.compression.io.ChannelBitWriter;
 import edu.cmu.cs211.compression.io.InputStreamBitReader;
 import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
 
@@ -16,6 +24,12 @@ import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
  * bits. If the stream of bits passed consists of redundant data, then the
  * mapped version, known as the <q>compressed</q> version, will take up less
  * space than the original.
+ * <p>
+ * The compressors in this library keep no state between calls, so one
+ * instance may be used by several threads at once. The
+ * {@link CompressionContext} passed to the context versions of compress and
+ * expand is not thread-safe and must not be shared by concurrent calls.
+ * {@link CompressionService} runs a compressor on a pool of threads.
  */
 public abstract class Compressor {
 
@@ -61,6 +75,41 @@ public abstract class Compressor {
 	public abstract void expand(BitReader reader, BitWriter writer)
 			throws IOException;
 
+	/**
+	 * Compresses like {@link #compress(BitReader, BitWriter)}, taking scratch
+	 * buffers from the given context instead of allocating them. The output is
+	 * the same. Compressors that have no use for a context ignore it, which is
+	 * what this default implementation does.
+	 * 
+	 * @param context
+	 *            scratch space owned by the calling thread
+	 * @throws NullPointerException
+	 *             if reader, writer or context is null
+	 */
+	public void compress(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (context == null)
+			throw new NullPointerException();
+		compress(reader, writer);
+	}
+
+	/**
+	 * Expands like {@link #expand(BitReader, BitWriter)}, taking scratch
+	 * buffers from the given context instead of allocating them. This default
+	 * implementation ignores the context.
+	 * 
+	 * @param context
+	 *            scratch space owned by the calling thread
+	 * @throws NullPointerException
+	 *             if reader, writer or context is null
+	 */
+	public void expand(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (context == null)
+			throw new NullPointerException();
+		expand(reader, writer);
+	}
+
 	/**
 	 * Helper version of compress (converts Input/OutputStream to
 	 * BitReader/Writer)
@@ -77,6 +126,24 @@ public abstract class Compressor {
 		expand(new InputStreamBitReader(in), new OutputStreamBitWriter(out));
 	}
 
+	/**
+	 * Helper version of compress (converts channels to BitReader/Writer). Both
+	 * sides are buffered and lock-free, which suits virtual threads.
+	 */
+	public void compress(ReadableByteChannel in, WritableByteChannel out)
+			throws IOException {
+		compress(new ChannelBitReader(in), new ChannelBitWriter(out));
+	}
+
+	/**
+	 * Helper version of expand (converts channels to BitReader/Writer). Both
+	 * sides are buffered and lock-free, which suits virtual threads.
+	 */
+	public void expand(ReadableByteChannel in, WritableByteChannel out)
+			throws IOException {
+		expand(new ChannelBitReader(in), new ChannelBitWriter(out));
+	}
+
 	/**
 	 * Helper version of compress (converts files whose paths are expressed by
 	 * fileIn and fileOut into InputStream and OutputStream)
@@ -97,32 +164,289 @@ public abstract class Compressor {
 
 	/** Helper version of compress (for raw byte arrays) */
 	public byte[] compress(byte[] in) throws IOException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		compress(new ByteArrayInputStream(in), out);
+		ByteArrayBitWriter out = new ByteArrayBitWriter(in.length / 2);
+		compress(new ByteArrayBitReader(in), out);
 		return out.toByteArray();
 	}
 
 	/** Helper version of expand (for raw byte arrays) */
 	public byte[] expand(byte[] in) throws IOException {
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		expand(new ByteArrayInputStream(in), outputStream);
-		return outputStream.toByteArray();
+		ByteArrayBitWriter out = new ByteArrayBitWriter(in.length);
+		expand(new ByteArrayBitReader(in), out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the largest number of bytes compress can produce for an input
+	 * of the given length, so that a destination array of that size always
+	 * has room. The bound is loose but cheap to compute.
+	 * 
+	 * @param length
+	 *            the number of input bytes
+	 * @throws IllegalArgumentException
+	 *             if length is negative, or if the bound does not fit in an
+	 *             array
+	 */
+	public abstract int maxCompressedLength(int length);
+
+	/**
+	 * Compresses <tt>src[off..off+len)</tt> into dst starting at dstOff,
+	 * reading and writing the arrays directly rather than through streams.
+	 * The bytes written are those {@link #compress(byte[])} returns.
+	 * 
+	 * @return the number of bytes written to dst
+	 * @throws IndexOutOfBoundsException
+	 *             if a range is out of bounds, or if dst runs out of room;
+	 *             {@link #maxCompressedLength(int)} bytes are always enough
+	 */
+	public int compress(byte[] src, int off, int len, byte[] dst, int dstOff)
+			throws IOException {
+		return compress(src, off, len, dst, dstOff, new CompressionContext());
+	}
+
+	/**
+	 * Compresses like {@link #compress(byte[], int, int, byte[], int)},
+	 * taking scratch buffers from the given context.
+	 * 
+	 * @throws NullPointerException
+	 *             if src, dst or context is null
+	 */
+	public int compress(byte[] src, int off, int len, byte[] dst, int dstOff,
+			CompressionContext context) throws IOException {
+		checkRange(dst, dstOff, 0);
+		ByteArrayBitWriter writer = new ByteArrayBitWriter(dst, dstOff,
+				dst.length - dstOff);
+		compress(new ByteArrayBitReader(src, off, len), writer, context);
+		return writer.size();
+	}
+
+	/**
+	 * Expands <tt>src[off..off+len)</tt> into dst starting at dstOff,
+	 * reading and writing the arrays directly rather than through streams.
+	 * 
+	 * @return the number of bytes written to dst
+	 * @throws IndexOutOfBoundsException
+	 *             if a range is out of bounds, or if dst runs out of room
+	 */
+	public int expand(byte[] src, int off, int len, byte[] dst, int dstOff)
+			throws IOException {
+		return expand(src, off, len, dst, dstOff, new CompressionContext());
+	}
+
+	/**
+	 * Expands like {@link #expand(byte[], int, int, byte[], int)}, taking
+	 * scratch buffers from the given context.
+	 * 
+	 * @throws NullPointerException
+	 *             if src, dst or context is null
+	 */
+	public int expand(byte[] src, int off, int len, byte[] dst, int dstOff,
+			CompressionContext context) throws IOException {
+		checkRange(dst, dstOff, 0);
+		ByteArrayBitWriter writer = new ByteArrayBitWriter(dst, dstOff,
+				dst.length - dstOff);
+		expand(new ByteArrayBitReader(src, off, len), writer, context);
+		return writer.size();
+	}
+
+	/**
+	 * Compresses the bytes remaining in src into dst, reading and writing the
+	 * buffers in place, so that direct (off-heap) buffers need not be copied
+	 * to heap arrays first. The bytes written are those
+	 * {@link #compress(byte[])} returns.
+	 * <p>
+	 * On return src's position is at its limit and dst's position has
+	 * advanced past the output.
+	 *
+	 * @return the number of bytes written to dst
+	 * @throws java.nio.BufferOverflowException
+	 *             if dst has too little room, after part of the output may
+	 *             have been written; {@link #maxCompressedLength(int)} bytes
+	 *             are always enough
+	 * @throws NullPointerException
+	 *             if src or dst is null
+	 */
+	public int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+		return compress(src, dst, new CompressionContext());
+	}
+
+	/**
+	 * Compresses like {@link #compress(ByteBuffer, ByteBuffer)}, taking
+	 * scratch buffers from the given context. This default implementation
+	 * reads a heap buffer's backing array directly; compressors that need
+	 * their whole input in an array copy a direct buffer into the context.
+	 *
+	 * @throws NullPointerException
+	 *             if src, dst or context is null
+	 */
+	public int compress(ByteBuffer src, ByteBuffer dst,
+			CompressionContext context) throws IOException {
+		ByteBufferBitWriter writer = new ByteBufferBitWriter(dst);
+		compress(reader(src), writer, context);
+		src.position(src.limit());
+		return writer.size();
+	}
+
+	/**
+	 * Expands the bytes remaining in src into dst, reading and writing the
+	 * buffers in place. Buffer positions are updated as by
+	 * {@link #compress(ByteBuffer, ByteBuffer)}.
+	 *
+	 * @return the number of bytes written to dst
+	 * @throws java.nio.BufferOverflowException
+	 *             if dst has too little room, after part of the output may
+	 *             have been written
+	 * @throws NullPointerException
+	 *             if src or dst is null
+	 */
+	public int expand(ByteBuffer src, ByteBuffer dst) throws IOException {
+		return expand(src, dst, new CompressionContext());
+	}
+
+	/**
+	 * Expands like {@link #expand(ByteBuffer, ByteBuffer)}, taking scratch
+	 * buffers from the given context.
+	 *
+	 * @throws NullPointerException
+	 *             if src, dst or context is null
+	 */
+	public int expand(ByteBuffer src, ByteBuffer dst, CompressionContext context)
+			throws IOException {
+		ByteBufferBitWriter writer = new ByteBufferBitWriter(dst);
+		expand(reader(src), writer, context);
+		src.position(src.limit());
+		return writer.size();
+	}
+
+	/* A reader over the bytes remaining in buf, on its backing array if it has one */
+	private static BitReader reader(ByteBuffer buf) {
+		if (buf.hasArray())
+			return new ByteArrayBitReader(buf.array(), buf.arrayOffset()
+					+ buf.position(), buf.remaining());
+		return new ByteBufferBitReader(buf);
+	}
+
+	/**
+	 * Helper version of compress (for raw byte arrays) that reuses the
+	 * context's buffers, including the one the output is collected in
+	 */
+	public byte[] compress(byte[] in, CompressionContext context)
+			throws IOException {
+		CompressionContext.OutputBuffer out = context.output();
+		compress(new ByteArrayBitReader(in), new OutputStreamBitWriter(out),
+				context);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Helper version of expand (for raw byte arrays) that reuses the context's
+	 * buffers, including the one the output is collected in. If the context
+	 * has a {@link DecodeCache}, a cached expansion of the same bytes by this
+	 * compressor is returned instead, and a new one is cached.
+	 */
+	public byte[] expand(byte[] in, CompressionContext context)
+			throws IOException {
+		DecodeCache cache = context.getDecodeCache();
+		if (cache != null) {
+			byte[] cached = cache.expanded(this, in, 0, in.length);
+			if (cached != null)
+				return cached;
+		}
+		CompressionContext.OutputBuffer out = context.output();
+		expand(new ByteArrayBitReader(in), new OutputStreamBitWriter(out),
+				context);
+		if (cache != null)
+			cache.putExpanded(this, in, 0, in.length, out.array(), out.size());
+		return out.toByteArray();
 	}
 
 	/** Helper version of compress */
 	public void compress(byte[] in, BitWriter writer) throws IOException {
-		compress(new InputStreamBitReader(new ByteArrayInputStream(in)), writer);
+		compress(new ByteArrayBitReader(in), writer);
 	}
 
 	/** Helper version of expand */
 	public void expand(byte[] in, BitWriter writer) throws IOException {
-		expand(new InputStreamBitReader(new ByteArrayInputStream(in)), writer);
+		expand(new ByteArrayBitReader(in), writer);
 	}
 
 	/** Helper version of expand */
 	public byte[] expand(BitReader reader) throws IOException {
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-		expand(reader, new OutputStreamBitWriter(outputStream));
-		return outputStream.toByteArray();
+		ByteArrayBitWriter out = new ByteArrayBitWriter();
+		expand(reader, out);
+		return out.toByteArray();
+	}
+
+	/** Number of bytes BitWriter.writeInt can take for one int */
+	protected static final int MAX_VARINT_BYTES = 5;
+
+	/**
+	 * Returns a bound computed as a long for
+	 * {@link #maxCompressedLength(int)}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the bound does not fit in an array
+	 */
+	protected static int checkedLength(long bound) {
+		if (bound > Integer.MAX_VALUE - 8)
+			throw new IllegalArgumentException("input too long to bound in an array");
+		return (int) bound;
+	}
+
+	/**
+	 * Checks that off and len describe a range of b.
+	 * 
+	 * @throws IndexOutOfBoundsException
+	 *             if they do not
+	 */
+	protected static void checkRange(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IndexOutOfBoundsException();
+	}
+
+	/**
+	 * Reads exactly len bytes from the reader into the start of b.
+	 * 
+	 * @throws EOFException
+	 *             if the reader ends first
+	 */
+	protected static void readFully(BitReader reader, byte[] b, int len)
+			throws IOException {
+		int read = 0;
+		while (read < len) {
+			int n = reader.readBytes(b, read, len - read);
+			if (n < 0)
+				throw new EOFException();
+			read += n;
+		}
+	}
+
+	/**
+	 * Reads up to len bytes from the reader into the start of b, stopping
+	 * early only at the end of the reader.
+	 * 
+	 * @return the number of bytes read, less than len only at the end
+	 */
+	protected static int readBlock(BitReader reader, byte[] b, int len)
+			throws IOException {
+		return readBlock(reader, b, 0, len);
+	}
+
+	/**
+	 * Reads up to len bytes from the reader into b starting at off, stopping
+	 * early only at the end of the reader.
+	 * 
+	 * @return the number of bytes read, less than len only at the end
+	 */
+	protected static int readBlock(BitReader reader, byte[] b, int off,
+			int len) throws IOException {
+		int read = 0;
+		while (read < len) {
+			int n = reader.readBytes(b, off + read, len - read);
+			if (n < 0)
+				break;
+			read += n;
+		}
+		return read;
 	}
 }
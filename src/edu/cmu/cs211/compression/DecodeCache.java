@@ -0,0 +1,155 @@
+package edu.cmu.cs211.compression;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import edu.cmu.cs211.compression.huffman.HuffmanCode;
+import edu.cmu.cs211.compression.util.WeightedCache;
+
+/**
+ * Remembers the results of expanding the same data more than once: parsed
+ * Huffman codes (with their decoding tables) keyed by the bytes of their
+ * header, and whole expanded payloads keyed by the compressor and the SHA-256
+ * digest of the compressed bytes.
+ * <p>
+ * A cache is attached to a {@link CompressionContext} with
+ * {@link CompressionContext#setDecodeCache}; expansions through that context
+ * then look up and fill it. One cache may be shared by many contexts and
+ * threads. Expanded payloads are only shared between expansions by the same
+ * compressor instance.
+ * <p>
+ * Both halves are {@link WeightedCache}s bounded by an estimate of the bytes
+ * they hold, and report their own hit and miss counts.
+ */
+public class DecodeCache {
+
+	/* Rough size of a parsed code: its nodes, its map, and a decoding table */
+	private static final long CODE_WEIGHT = 16 * 1024;
+	/* Rough per-entry overhead of a cached payload beside its bytes */
+	private static final long ENTRY_WEIGHT = 128;
+
+	private final WeightedCache<Key, HuffmanCode> codes;
+	private final WeightedCache<Key, byte[]> payloads;
+
+	/**
+	 * Creates an LRU cache.
+	 *
+	 * @see #DecodeCache(long, WeightedCache.Policy)
+	 */
+	public DecodeCache(long maxBytes) {
+		this(maxBytes, WeightedCache.Policy.LRU);
+	}
+
+	/**
+	 * Creates a cache. A sixteenth of the budget goes to Huffman codes and the
+	 * rest to expanded payloads.
+	 *
+	 * @param maxBytes
+	 *            the approximate number of bytes the cache may hold
+	 * @param policy
+	 *            the admission and eviction policy of both halves
+	 * @throws IllegalArgumentException
+	 *             if maxBytes is negative
+	 */
+	public DecodeCache(long maxBytes, WeightedCache.Policy policy) {
+		if (maxBytes < 0)
+			throw new IllegalArgumentException("size must be >= 0");
+		codes = new WeightedCache<Key, HuffmanCode>(maxBytes / 16, policy,
+				new WeightedCache.Weigher<Key, HuffmanCode>() {
+					public long weigh(Key key, HuffmanCode value) {
+						return CODE_WEIGHT + key.bytes.length;
+					}
+				});
+		payloads = new WeightedCache<Key, byte[]>(maxBytes - maxBytes / 16,
+				policy, new WeightedCache.Weigher<Key, byte[]>() {
+					public long weigh(Key key, byte[] value) {
+						return ENTRY_WEIGHT + key.bytes.length + value.length;
+					}
+				});
+	}
+
+	/** Returns the cache of Huffman codes, for its statistics */
+	public WeightedCache<?, ?> codes() {
+		return codes;
+	}
+
+	/** Returns the cache of expanded payloads, for its statistics */
+	public WeightedCache<?, ?> payloads() {
+		return payloads;
+	}
+
+	/**
+	 * Returns the code cached for a serialized Huffman header, or null.
+	 */
+	public HuffmanCode huffmanCode(byte[] header) {
+		return codes.get(new Key(null, header));
+	}
+
+	/** Caches the code parsed from a serialized Huffman header */
+	public void putHuffmanCode(byte[] header, HuffmanCode code) {
+		codes.put(new Key(null, header.clone()), code);
+	}
+
+	/**
+	 * Returns a copy of what compressor expanded <tt>in[off..off+len)</tt> to,
+	 * or null if it is not cached.
+	 */
+	public byte[] expanded(Compressor compressor, byte[] in, int off, int len) {
+		byte[] out = payloads.get(new Key(compressor, digest(in, off, len)));
+		return out == null ? null : out.clone();
+	}
+
+	/**
+	 * Caches the first outLen bytes of out as the expansion of
+	 * <tt>in[off..off+len)</tt> by compressor.
+	 */
+	public void putExpanded(Compressor compressor, byte[] in, int off,
+			int len, byte[] out, int outLen) {
+		payloads.put(new Key(compressor, digest(in, off, len)), Arrays
+				.copyOf(out, outLen));
+	}
+
+	@Override
+	public String toString() {
+		return "DecodeCache[codes=" + codes + ", payloads=" + payloads + "]";
+	}
+
+	private static byte[] digest(byte[] in, int off, int len) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			sha.update(in, off, len);
+			return sha.digest();
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform is required to provide SHA-256
+			throw new AssertionError(e);
+		}
+	}
+
+	/** Content bytes or their digest, within the scope of a compressor */
+	private static final class Key {
+		final Object scope;
+		final byte[] bytes;
+		final int hash;
+
+		Key(Object scope, byte[] bytes) {
+			this.scope = scope;
+			this.bytes = bytes;
+			this.hash = 31 * System.identityHashCode(scope)
+					+ Arrays.hashCode(bytes);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return scope == k.scope && Arrays.equals(bytes, k.bytes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
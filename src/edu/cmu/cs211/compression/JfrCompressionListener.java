@@ -0,0 +1,69 @@
+package edu.cmu.cs211.compression;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A {@link CompressionListener} that commits a Java Flight Recorder event for
+ * every stage. The events are named <tt>edu.cmu.cs211.compression.Stage</tt>
+ * and appear under the "Compression" category.
+ * <p>
+ * While no recording is running the events are disabled, and reporting a
+ * stage costs little more than the enabled check. A recording can be started
+ * on a running JVM, for example with <tt>jcmd &lt;pid&gt; JFR.start</tt>, so a
+ * process that installs this listener can be profiled without restarting it.
+ * <p>
+ * This class is thread-safe.
+ */
+public class JfrCompressionListener implements CompressionListener {
+
+	public void stageCompleted(Stage stage, long nanos, long bytesIn,
+			long bytesOut, long allocatedBytes) {
+		StageEvent event = new StageEvent();
+		if (!event.shouldCommit())
+			return;
+		event.stage = stage.name();
+		event.stageDuration = nanos;
+		event.bytesIn = bytesIn;
+		event.bytesOut = bytesOut;
+		event.allocated = allocatedBytes;
+		event.commit();
+	}
+
+	/*
+	 * The event is committed after the stage has finished, so its own
+	 * duration is zero and the time the stage took is a field. Stack traces
+	 * are off since every event would have much the same one.
+	 */
+	@Name("edu.cmu.cs211.compression.Stage")
+	@Label("Compression Stage")
+	@Category("Compression")
+	@Description("One stage of compressing or expanding a block")
+	@StackTrace(false)
+	static final class StageEvent extends Event {
+		@Label("Stage")
+		String stage;
+
+		@Label("Stage Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long stageDuration;
+
+		@Label("Bytes In")
+		@DataAmount
+		long bytesIn;
+
+		@Label("Bytes Out")
+		@DataAmount
+		long bytesOut;
+
+		@Label("Allocated")
+		@DataAmount
+		long allocated;
+	}
+}
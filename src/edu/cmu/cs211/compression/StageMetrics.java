@@ -0,0 +1,90 @@
+package edu.cmu.cs211.compression;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link CompressionListener} that totals, for each stage, how many times
+ * it ran, the time it took, the bytes it consumed and produced, and the bytes
+ * it allocated. The number of {@link CompressionListener.Stage#BLOCK} runs is
+ * the number of blocks compressed or expanded.
+ * <p>
+ * Unknown byte counts are left out of the totals. This class is thread-safe.
+ */
+public class StageMetrics implements CompressionListener {
+
+	private static final int STAGES = Stage.values().length;
+
+	/* Which total a counter holds; counter (stage, k) is at stage * FIELDS + k */
+	private static final int COUNT = 0;
+	private static final int NANOS = 1;
+	private static final int BYTES_IN = 2;
+	private static final int BYTES_OUT = 3;
+	private static final int ALLOCATED = 4;
+	private static final int FIELDS = 5;
+
+	private final AtomicLongArray totals = new AtomicLongArray(STAGES * FIELDS);
+
+	public void stageCompleted(Stage stage, long nanos, long bytesIn,
+			long bytesOut, long allocatedBytes) {
+		int base = stage.ordinal() * FIELDS;
+		totals.incrementAndGet(base + COUNT);
+		totals.addAndGet(base + NANOS, nanos);
+		if (bytesIn > 0)
+			totals.addAndGet(base + BYTES_IN, bytesIn);
+		if (bytesOut > 0)
+			totals.addAndGet(base + BYTES_OUT, bytesOut);
+		if (allocatedBytes > 0)
+			totals.addAndGet(base + ALLOCATED, allocatedBytes);
+	}
+
+	/** Returns the number of times the stage ran */
+	public long count(Stage stage) {
+		return get(stage, COUNT);
+	}
+
+	/** Returns the total time spent in the stage, in nanoseconds */
+	public long nanos(Stage stage) {
+		return get(stage, NANOS);
+	}
+
+	/** Returns the total number of bytes the stage consumed */
+	public long bytesIn(Stage stage) {
+		return get(stage, BYTES_IN);
+	}
+
+	/** Returns the total number of bytes the stage produced */
+	public long bytesOut(Stage stage) {
+		return get(stage, BYTES_OUT);
+	}
+
+	/** Returns the estimated number of bytes allocated during the stage */
+	public long allocatedBytes(Stage stage) {
+		return get(stage, ALLOCATED);
+	}
+
+	/** Sets every total back to zero */
+	public void reset() {
+		for (int i = 0; i < totals.length(); i++)
+			totals.set(i, 0);
+	}
+
+	/** Returns a table of the stages that ran, one per line */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(String.format(
+				"%-24s %8s %12s %14s %14s %14s%n", "stage", "count", "ms",
+				"bytes in", "bytes out", "allocated"));
+		for (Stage stage : Stage.values()) {
+			if (count(stage) == 0)
+				continue;
+			sb.append(String.format("%-24s %8d %12.3f %14d %14d %14d%n", stage,
+					count(stage), nanos(stage) / 1e6, bytesIn(stage),
+					bytesOut(stage), allocatedBytes(stage)));
+		}
+		return sb.toString();
+	}
+
+	private long get(Stage stage, int field) {
+		return totals.get(stage.ordinal() * FIELDS + field);
+	}
+}
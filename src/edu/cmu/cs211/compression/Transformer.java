@@ -1,6 +1,8 @@
 package edu.cmu.cs211.compression;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import edu.cmu.cs211.compression.io.BitReader;
 import edu.cmu.cs211.compression.io.BitWriter;
@@ -33,6 +35,129 @@ public abstract class Transformer {
 	 */
 	public abstract byte[] invertTransform(byte[] input);
 
+	/**
+	 * Returns the largest number of bytes transform() can produce for an input
+	 * of the given length. Callers use this to size the destination of
+	 * {@link #transform(ByteBuffer, ByteBuffer)}.
+	 * 
+	 * @param inputLength
+	 *            the length of the input
+	 * @return an upper bound on the length of the transformed output
+	 */
+	public int maxTransformedLength(int inputLength) {
+		return inputLength;
+	}
+
+	/**
+	 * Transforms <tt>input[0..length)</tt> into output, taking scratch space
+	 * from the context. The default implementation copies through
+	 * transform(byte[]); subclasses override it to work in the given arrays.
+	 * 
+	 * @param input
+	 *            an array holding the input in its first length bytes
+	 * @param length
+	 *            the length of the input
+	 * @param output
+	 *            an array of at least maxTransformedLength(length) bytes
+	 * @param context
+	 *            scratch space owned by the calling thread
+	 * @return the number of bytes written to output
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if output is too short
+	 * @throws NullPointerException
+	 *             if input, output or context is null
+	 */
+	public int transform(byte[] input, int length, byte[] output,
+			CompressionContext context) {
+		if (context == null)
+			throw new NullPointerException();
+		byte[] result = transform(Arrays.copyOf(input, length));
+		System.arraycopy(result, 0, output, 0, result.length);
+		return result.length;
+	}
+
+	/**
+	 * Inverts the transformation of <tt>input[0..length)</tt> into output,
+	 * taking scratch space from the context.
+	 * 
+	 * @param input
+	 *            an array holding the output of transform() in its first length
+	 *            bytes
+	 * @param length
+	 *            the length of the input
+	 * @param output
+	 *            an array large enough for the original bytes
+	 * @param context
+	 *            scratch space owned by the calling thread
+	 * @return the number of bytes written to output
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if output is too short
+	 * @throws IllegalArgumentException
+	 *             If the input cannot be inverted
+	 * @throws NullPointerException
+	 *             if input, output or context is null
+	 */
+	public int invertTransform(byte[] input, int length, byte[] output,
+			CompressionContext context) {
+		if (context == null)
+			throw new NullPointerException();
+		byte[] result = invertTransform(Arrays.copyOf(input, length));
+		System.arraycopy(result, 0, output, 0, result.length);
+		return result.length;
+	}
+
+	/**
+	 * Transforms the bytes remaining in src and writes the result to dst.
+	 * <p>
+	 * On return src's position is at its limit and dst's position has
+	 * advanced past the output. The default implementation copies through
+	 * heap arrays; subclasses override it to read and write the buffers
+	 * directly, so that direct (off-heap) buffers are never copied to the
+	 * heap.
+	 * 
+	 * @param src
+	 *            the input
+	 * @param dst
+	 *            where to write the output
+	 * @return the number of bytes written to dst
+	 * @throws java.nio.BufferOverflowException
+	 *             if dst has too little room; src may have been consumed
+	 * @throws NullPointerException
+	 *             if src or dst is null
+	 */
+	public int transform(ByteBuffer src, ByteBuffer dst) {
+		byte[] input = new byte[src.remaining()];
+		src.get(input);
+		byte[] output = transform(input);
+		dst.put(output);
+		return output.length;
+	}
+
+	/**
+	 * Inverts the transformation of the bytes remaining in src and writes the
+	 * result to dst. Buffer positions are updated as by
+	 * {@link #transform(ByteBuffer, ByteBuffer)}.
+	 * 
+	 * @param src
+	 *            the output of transform()
+	 * @param dst
+	 *            where to write the original bytes
+	 * @return the number of bytes written to dst
+	 * @throws java.nio.BufferOverflowException
+	 *             if dst has too little room; src may have been consumed
+	 * @throws IllegalArgumentException
+	 *             If the input cannot be inverted
+	 * @throws NullPointerException
+	 *             if src or dst is null
+	 */
+	public int invertTransform(ByteBuffer src, ByteBuffer dst) {
+		byte[] input = new byte[src.remaining()];
+		src.get(input);
+		byte[] output = invertTransform(input);
+		dst.put(output);
+		return output.length;
+	}
+
 	/**
 	 * Helper method for transform()
 	 * 
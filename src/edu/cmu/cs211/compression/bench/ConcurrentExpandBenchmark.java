@@ -0,0 +1,147 @@
+package edu.cmu.cs211.compression.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+import edu.cmu.cs211.compression.io.ChannelBitReader;
+import edu.cmu.cs211.compression.io.ChannelBitWriter;
+import edu.cmu.cs211.compression.io.InputStreamBitReader;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
+
+/**
+ * Expands one small compressed file many times concurrently, once through the
+ * stream-based reader and writer and once through the channel-based ones.
+ * <p>
+ * <tt>java ConcurrentExpandBenchmark [jobs] [bytes]</tt>
+ * <p>
+ * Jobs run on a virtual thread each when the runtime has them, and on a pool
+ * of 64 platform threads otherwise.
+ */
+public class ConcurrentExpandBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int bytes = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+
+		final Compressor compressor = new HuffmanCompressor();
+		final File compressed = File.createTempFile("expand-bench", ".tez");
+		compressed.deleteOnExit();
+		writeCompressed(compressor, sample(bytes), compressed);
+
+		ExecutorService executor = newExecutor();
+		System.out.println("jobs=" + jobs + " bytes=" + bytes + " executor="
+				+ executor.getClass().getSimpleName());
+		for (int round = 0; round < 3; round++) {
+			run("stream ", executor, jobs, new Callable<Void>() {
+				public Void call() throws IOException {
+					FileInputStream in = new FileInputStream(compressed);
+					try {
+						compressor.expand(new InputStreamBitReader(in),
+								new OutputStreamBitWriter(new DiscardStream()));
+					} finally {
+						in.close();
+					}
+					return null;
+				}
+			});
+			run("channel", executor, jobs, new Callable<Void>() {
+				public Void call() throws IOException {
+					FileChannel in = FileChannel.open(compressed.toPath(),
+							StandardOpenOption.READ);
+					try {
+						compressor.expand(new ChannelBitReader(in),
+								new ChannelBitWriter(new DiscardChannel()));
+					} finally {
+						in.close();
+					}
+					return null;
+				}
+			});
+		}
+		executor.shutdown();
+	}
+
+	private static void run(String name, ExecutorService executor, int jobs,
+			Callable<Void> job) throws Exception {
+		long start = System.nanoTime();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(jobs);
+		for (int i = 0; i < jobs; i++)
+			futures.add(executor.submit(job));
+		for (Future<Void> f : futures)
+			f.get();
+		long nanos = System.nanoTime() - start;
+		System.out.printf("%s %8.1f ms %10.0f expansions/s%n", name,
+				nanos / 1e6, jobs / (nanos / 1e9));
+	}
+
+	/* Uses Executors.newVirtualThreadPerTaskExecutor when it exists */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			return Executors.newFixedThreadPool(64);
+		}
+	}
+
+	private static byte[] sample(int bytes) {
+		String[] words = "the quick brown fox jumps over a lazy dog and then some"
+				.split(" ");
+		Random r = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < bytes)
+			sb.append(words[r.nextInt(words.length)]).append(' ');
+		return sb.substring(0, bytes).getBytes();
+	}
+
+	private static void writeCompressed(Compressor compressor, byte[] input,
+			File file) throws IOException {
+		FileChannel out = FileChannel.open(file.toPath(),
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			out.write(ByteBuffer.wrap(compressor.compress(input)));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static class DiscardStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+	private static class DiscardChannel implements WritableByteChannel {
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package edu.cmu.cs211.compression.bench;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import edu.cmu.cs211.compression.util.LongMinHeap;
+import edu.cmu.cs211.compression.util.MyPriorityQueue;
+
+/**
+ * Compares {@link MyPriorityQueue} of boxed longs with {@link LongMinHeap} at
+ * several arities: adding random elements one at a time and polling them all,
+ * and for LongMinHeap also building the heap with heapify.
+ * <p>
+ * <tt>java HeapBenchmark [elements] [rounds]</tt>
+ */
+public class HeapBenchmark {
+
+	private static final Comparator<Long> ORDER = new Comparator<Long>() {
+		public int compare(Long a, Long b) {
+			return a.compareTo(b);
+		}
+	};
+
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		long[] values = new long[n];
+		Random r = new Random(42);
+		for (int i = 0; i < n; i++)
+			values[i] = LongMinHeap.pack(r.nextInt(1 << 20), i);
+
+		System.out.println("elements=" + n);
+		for (int round = 0; round < rounds; round++) {
+			long sum = 0;
+			long start = System.nanoTime();
+			MyPriorityQueue<Long> generic = new MyPriorityQueue<Long>(ORDER);
+			for (long v : values)
+				generic.offer(v);
+			while (!generic.isEmpty())
+				sum += generic.poll();
+			report("MyPriorityQueue       ", start, sum);
+
+			for (int arity : new int[] { 2, 4, 8 }) {
+				sum = 0;
+				start = System.nanoTime();
+				LongMinHeap heap = new LongMinHeap(0, arity);
+				for (long v : values)
+					heap.add(v);
+				while (!heap.isEmpty())
+					sum += heap.poll();
+				report("LongMinHeap " + arity + "-ary add ", start, sum);
+
+				sum = 0;
+				start = System.nanoTime();
+				heap.heapify(values, 0, n);
+				while (!heap.isEmpty())
+					sum += heap.poll();
+				report("LongMinHeap " + arity + "-ary bulk", start, sum);
+			}
+			System.out.println();
+		}
+	}
+
+	/* Prints the time since start; the sum keeps the work from being optimized away */
+	private static void report(String name, long start, long sum) {
+		System.out.printf("%s %8.1f ms  (%x)%n",
+				name, (System.nanoTime() - start) / 1e6, sum & 0xFFFF);
+	}
+}
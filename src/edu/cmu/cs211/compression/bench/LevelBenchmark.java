@@ -0,0 +1,84 @@
+package edu.cmu.cs211.compression.bench;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionLevel;
+import edu.cmu.cs211.compression.Compressor;
+
+/**
+ * Compresses and expands one input at every {@link CompressionLevel} and
+ * prints the ratio and the throughput of each, which traces the speed/ratio
+ * curve. Each figure is the best of several rounds.
+ * <p>
+ * <tt>java LevelBenchmark [file] [rounds]</tt>
+ * <p>
+ * Without a file the input is 8 MB of generated text.
+ */
+public class LevelBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		byte[] input = args.length > 0 ? Files.readAllBytes(Paths
+				.get(args[0])) : sample(8 << 20);
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		System.out.println("bytes=" + input.length + " rounds=" + rounds);
+		System.out.println("level   ratio   compress MB/s   expand MB/s");
+		CompressionContext context = new CompressionContext();
+		for (int level = CompressionLevel.MIN_LEVEL; level <= CompressionLevel.MAX_LEVEL; level++) {
+			Compressor compressor = CompressionLevel.compressor(level);
+			byte[] dst = new byte[compressor.maxCompressedLength(input.length)];
+			byte[] out = new byte[input.length];
+			long compressNanos = Long.MAX_VALUE;
+			long expandNanos = Long.MAX_VALUE;
+			int compressed = 0;
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				compressed = compressor.compress(input, 0, input.length, dst,
+						0, context);
+				compressNanos = Math.min(compressNanos, System.nanoTime()
+						- start);
+				start = System.nanoTime();
+				compressor.expand(dst, 0, compressed, out, 0, context);
+				expandNanos = Math.min(expandNanos, System.nanoTime() - start);
+			}
+			if (!Arrays.equals(input, out))
+				throw new AssertionError("level " + level
+						+ " did not round trip");
+			System.out.printf("%5d %7.3f %15.1f %13.1f%n", level,
+					(double) compressed / input.length, mbPerSecond(
+							input.length, compressNanos), mbPerSecond(
+							input.length, expandNanos));
+		}
+	}
+
+	private static double mbPerSecond(int bytes, long nanos) {
+		return bytes / (nanos / 1e9) / (1 << 20);
+	}
+
+	/* Words with a skewed distribution, in sentences of varying length */
+	private static byte[] sample(int bytes) {
+		String[] words = ("the of and to in is that it was for on are as with "
+				+ "his they at be this from have or by one had not but what "
+				+ "all were when we there can an your which their said if do "
+				+ "will each about how up out them then she many some so these "
+				+ "would other into has more her two like him see time could "
+				+ "no make than first been its who now people my made over did "
+				+ "down only way find use may water long little very after").split(" ");
+		Random r = new Random(1);
+		StringBuilder sb = new StringBuilder(bytes + 16);
+		while (sb.length() < bytes) {
+			int length = 4 + r.nextInt(12);
+			for (int i = 0; i < length; i++) {
+				// squaring skews the choice towards the front of the list
+				double d = r.nextDouble();
+				sb.append(words[(int) (d * d * words.length)]).append(
+						i == length - 1 ? ".\n" : " ");
+			}
+		}
+		return sb.substring(0, bytes).getBytes();
+	}
+}
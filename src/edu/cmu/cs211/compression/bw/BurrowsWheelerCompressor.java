@@ -1,43 +1,686 @@
 package edu.cmu.cs211.compression.bw;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
 import edu.cmu.cs211.compression.Compressor;
 import edu.cmu.cs211.compression.io.BitReader;
 import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
+import edu.cmu.cs211.compression.util.EntropyEstimator;
+import edu.cmu.cs211.compression.util.SpscQueue;
 
 import edu.cmu.cs211.compression.huffman.*;
 
 /**
  * A compressor implementing Burrows-Wheeler compression.
+ * <p>
+ * By default the whole input is transformed as one block and written as a
+ * single Huffman stream. A compressor created with a block size instead cuts
+ * the input into blocks of at most that many bytes and writes each block as a
+ * frame: the block's length, the length of its payload, and the payload, which
+ * is the Huffman stream of that block alone. A zero length ends the frames.
+ * A stream of frames starts with a three-byte marker shaped like the header
+ * of a stored Huffman stream, a root whose two leaves hold the same value,
+ * with a value naming the format. No Huffman code has such a header, and the
+ * stored header itself holds zero, so a stream without a marker is the plain
+ * Huffman stream of a single block, as it has been from the start. Any
+ * Burrows-Wheeler compressor therefore expands the output of any other,
+ * whatever their block sizes.
+ * <p>
+ * A block that would not shrink is written as a stored frame instead: its
+ * length, a payload length of zero, and the block as it is. Blocks that an
+ * {@link EntropyEstimator} finds to look random are stored without being
+ * sorted at all, and the others are stored if their payload turns out to be
+ * no shorter than the block. Expanding a stored frame is a plain copy. The
+ * single-block format has a marker of its own for input that looks random,
+ * followed by the input's length and the input as it is; other input is
+ * sorted, and its Huffman stage stores the transformed block when that does
+ * not shrink, which still bounds the output to a few bytes more than the
+ * input.
+ * <p>
+ * A blocked compressor created with <tt>pipelined</tt> set overlaps its
+ * stages. While the calling thread reads block N+1, a second thread sorts
+ * block N and a third entropy codes and writes block N-1; expansion overlaps
+ * reading, decoding and inverting in the same way. The stages hand blocks to
+ * each other through bounded {@link SpscQueue}s, so at most a few blocks are
+ * in memory at once, and the buffers of written blocks go back to the stages
+ * that filled them. The stage threads come from a shared pool that keeps idle
+ * threads for a minute. The output is identical to that of the sequential
+ * compressor with the same block size.
+ * <p>
+ * The stages hold no state between calls, so one compressor can be shared by
+ * several threads as long as each passes its own {@link CompressionContext}.
+ * The context versions of compress and expand keep every intermediate array
+ * in the context; the plain versions use a new context for each call.
  */
 public class BurrowsWheelerCompressor extends Compressor {
 
+	/** Marker value of a stream of frames */
+	private static final int FRAMES = 1;
+
+	/** Marker value of a single block stored without being sorted */
+	private static final int STORED = 2;
+
+	/** Length of a format marker */
+	private static final int MARKER_LENGTH = 3;
+
+	/** How many blocks may wait between two pipeline stages */
+	private static final int PIPELINE_DEPTH = 2;
+
+	private final BurrowsWheelerTransformer bwt = new BurrowsWheelerTransformer();
+	private final MoveToFrontTransformer mtf = new MoveToFrontTransformer();
+	private final HuffmanCompressor hc = new HuffmanCompressor();
+
+	/** Largest number of input bytes in a block, or 0 for a single block */
+	private final int blockSize;
+
+	/** Whether blocks go through the stages on separate threads */
+	private final boolean pipelined;
+
+	/** Creates a compressor that transforms the whole input as one block */
+	public BurrowsWheelerCompressor() {
+		this.blockSize = 0;
+		this.pipelined = false;
+	}
+
+	/**
+	 * Creates a compressor that writes framed blocks on the calling thread.
+	 *
+	 * @see #BurrowsWheelerCompressor(int, boolean)
+	 */
+	public BurrowsWheelerCompressor(int blockSize) {
+		this(blockSize, false);
+	}
+
+	/**
+	 * Creates a compressor that writes framed blocks.
+	 *
+	 * @param blockSize
+	 *            the largest number of input bytes in a block
+	 * @param pipelined
+	 *            whether the stages run on separate threads
+	 * @throws IllegalArgumentException
+	 *             if blockSize is less than 1
+	 */
+	public BurrowsWheelerCompressor(int blockSize, boolean pipelined) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("block size must be positive");
+		this.blockSize = blockSize;
+		this.pipelined = pipelined;
+	}
+
+	/**
+	 * Returns a bound on the output for an input of the given length: the
+	 * Huffman bound of the transformed input or the stored length of the
+	 * input, or, with blocks, the stored length of each block plus the frame
+	 * headers.
+	 */
+	@Override
+	public int maxCompressedLength(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("length must be >= 0");
+		if (blockSize == 0) {
+			if (length == 0)
+				return 0;
+			int coded = hc.maxCompressedLength(bwt.maxTransformedLength(length));
+			return checkedLength(Math.max(coded, MARKER_LENGTH
+					+ MAX_VARINT_BYTES + (long) length));
+		}
+
+		int rest = length % blockSize;
+		long bytes = (long) (length / blockSize) * maxFrameLength(blockSize);
+		if (rest > 0)
+			bytes += maxFrameLength(rest);
+		// the marker and the zero length that ends the frames
+		return checkedLength(bytes + MARKER_LENGTH + 1);
+	}
+
+	private static int maxFrameLength(int length) {
+		return checkedLength(2 * MAX_VARINT_BYTES + (long) length);
+	}
+
 	@Override
 	public void compress(BitReader reader, BitWriter writer) throws IOException {
-		// apply the Burrows-Wheeler transformation
-		BurrowsWheelerTransformer bwt = new BurrowsWheelerTransformer();
-		byte[] bwtTransformedResult = bwt.transform(reader);
+		compress(reader, writer, new CompressionContext());
+	}
+
+	@Override
+	public void compress(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (blockSize != 0) {
+			compressBlocks(reader, writer, context);
+			return;
+		}
 
-		// apply the Move-to-Front transformation
-		MoveToFrontTransformer mtf = new MoveToFrontTransformer();
-		byte[] mtfTransformedResult = mtf.transform(bwtTransformedResult);
+		int length = reader.length();
+		if (length == 0)
+			return;
+		byte[] input = context.bytes(CompressionContext.INPUT, length);
+		readFully(reader, input, length);
+		if (EntropyEstimator.looksIncompressible(input, 0, length)) {
+			// sorting would take as long as ever and gain nothing
+			writeMarker(writer, STORED);
+			writer.writeInt(length);
+			writer.writeBytes(input, 0, length);
+			writer.flush();
+			return;
+		}
+
+		// apply the Burrows-Wheeler and Move-to-Front transformations
+		byte[] mtfTransformedResult = context.bytes(CompressionContext.ENTROPY,
+				bwt.maxTransformedLength(length));
+		int bwtLength = sortBlock(input, length, mtfTransformedResult, context);
 
 		// apply Huffman compression
-		HuffmanCompressor hc = new HuffmanCompressor();
-		hc.compress(mtfTransformedResult, writer);
+		hc.compress(mtfTransformedResult, bwtLength, writer, context);
 	}
 
 	@Override
 	public void expand(BitReader reader, BitWriter writer) throws IOException {
-		HuffmanCompressor hc = new HuffmanCompressor();
-		byte[] expandedFromHC = hc.expand(reader);
+		expand(reader, writer, new CompressionContext());
+	}
+
+	@Override
+	public void expand(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		int streamLength = reader.length();
+		if (streamLength == 0)
+			return;
+		byte[] head = new byte[MARKER_LENGTH];
+		int headLength = readBlock(reader, head, MARKER_LENGTH);
+		int format = markerValue(head, headLength);
+		if (format == FRAMES) {
+			expandBlocks(reader, writer, context);
+			return;
+		}
+		if (format == STORED) {
+			int length = reader.readInt();
+			if (length < 0 || length > reader.length())
+				throw new IOException("corrupt Burrows-Wheeler stream");
+			byte[] output = context.bytes(CompressionContext.INPUT, length);
+			readFully(reader, output, length);
+			writer.writeBytes(output, 0, length);
+			writer.flush();
+			return;
+		}
+		if (format > 0)
+			throw new IOException("unknown Burrows-Wheeler format " + format);
+
+		// a single block: the head belongs to the Huffman stream
+		byte[] stream = context.bytes(CompressionContext.INPUT, Math.max(
+				streamLength, headLength));
+		System.arraycopy(head, 0, stream, 0, headLength);
+		int n = headLength
+				+ readBlock(reader, stream, headLength, stream.length - headLength);
+		int expandedLength = hc.expand(new ByteArrayBitReader(stream, 0, n),
+				context, CompressionContext.ENTROPY);
+		// the stream has been decoded before the output overwrites it
+		byte[] output = context.bytes(CompressionContext.INPUT, Math.max(
+				expandedLength - 4, 0));
+		int outputLength = unsortBlock(expandedLength, output, context);
+		writer.writeBytes(output, 0, outputLength);
+		writer.flush();
+	}
+
+	/*
+	 * Writes the marker of a format: a parent bit, then a leaf bit and the
+	 * value twice, padded to three whole bytes like a stored Huffman header.
+	 */
+	private static void writeMarker(BitWriter writer, int format)
+			throws IOException {
+		writer.writeBytes(new byte[] { (byte) (0x80 | format >>> 2),
+				(byte) (format << 6 | format >>> 3),
+				(byte) (format << 5) }, 0, MARKER_LENGTH);
+	}
+
+	/*
+	 * Returns the value of the marker in head[0..length), or -1 if it does
+	 * not hold one and so starts a Huffman code header. The stored Huffman
+	 * header reads as the marker of value 0.
+	 */
+	private static int markerValue(byte[] head, int length) {
+		if (length < MARKER_LENGTH)
+			return -1;
+		int bits = (head[0] & 0xff) << 16 | (head[1] & 0xff) << 8
+				| head[2] & 0xff;
+		int first = bits >>> 14 & 0xff;
+		int second = bits >>> 5 & 0xff;
+		if ((bits & 0xc0201f) != 0x800000 || first != second)
+			return -1;
+		return first;
+	}
+
+	/*
+	 * Applies the Burrows-Wheeler and Move-to-Front transformations to
+	 * input[0..length) and returns the length of the result in out. Uses the
+	 * TRANSFORMED slot of the context.
+	 */
+	private int sortBlock(byte[] input, int length, byte[] out,
+			CompressionContext context) {
+		byte[] bwtTransformedResult = context.bytes(
+				CompressionContext.TRANSFORMED, bwt.maxTransformedLength(length));
+		int mark = context.startStage();
+		int bwtLength = bwt.transform(input, length, bwtTransformedResult,
+				context);
+		context.endStage(Stage.BURROWS_WHEELER, mark, length, bwtLength);
+		mark = context.startStage();
+		mtf.transform(bwtTransformedResult, bwtLength, out, context);
+		context.endStage(Stage.MOVE_TO_FRONT, mark, bwtLength, bwtLength);
+		return bwtLength;
+	}
+
+	/*
+	 * Inverts the Move-to-Front and Burrows-Wheeler transformations of the
+	 * first length bytes of the ENTROPY slot into out and returns the length
+	 * of the result. Uses the TRANSFORMED slot of the context.
+	 */
+	private int unsortBlock(int length, byte[] out, CompressionContext context)
+			throws IOException {
+		byte[] expandedFromHC = context.bytes(CompressionContext.ENTROPY,
+				length);
+		byte[] invertedFromMTF = context.bytes(CompressionContext.TRANSFORMED,
+				length);
+		int mark = context.startStage();
+		mtf.invertTransform(expandedFromHC, length, invertedFromMTF, context);
+		context.endStage(Stage.INVERSE_MOVE_TO_FRONT, mark, length, length);
+
+		mark = context.startStage();
+		int outLength;
+		try {
+			outLength = bwt.invertTransform(invertedFromMTF, length, out, context);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupt Burrows-Wheeler block", e);
+		}
+		context.endStage(Stage.INVERSE_BURROWS_WHEELER, mark, length, outLength);
+		return outLength;
+	}
 
-		MoveToFrontTransformer mtf = new MoveToFrontTransformer();
-		byte[] invertedFromMTF = mtf.invertTransform(expandedFromHC);
+	/*
+	 * Sorts input[0..length) into out, or returns a stored block of the
+	 * input if it looks incompressible. Uses the TRANSFORMED slot of the
+	 * context.
+	 */
+	private Block sortOrStore(byte[] input, int length, byte[] out,
+			CompressionContext context) {
+		if (EntropyEstimator.looksIncompressible(input, 0, length))
+			return Block.stored(input, length);
+		return new Block(out, sortBlock(input, length, out, context), length,
+				input);
+	}
+
+	/*
+	 * Huffman codes a transformed block into payload and writes its frame, or
+	 * writes the block's input as a stored frame if it is a stored block or
+	 * its payload would be no shorter. Returns the number of payload bytes
+	 * written. Only reports to the context's listener; its buffers are not
+	 * used.
+	 */
+	private int writeFrame(Block block, CompressionContext.OutputBuffer payload,
+			BitWriter writer, CompressionContext context) throws IOException {
+		writer.writeInt(block.rawLength);
+		if (!block.stored) {
+			payload.reset();
+			hc.compress(block.data, block.length, new OutputStreamBitWriter(
+					payload), context);
+			if (payload.size() < block.rawLength) {
+				writer.writeInt(payload.size());
+				writer.writeBytes(payload.array(), 0, payload.size());
+				return payload.size();
+			}
+		}
+		writer.writeInt(0);
+		writer.writeBytes(block.input, 0, block.rawLength);
+		return block.rawLength;
+	}
+
+	/*
+	 * Reads the header and payload of the next frame into a block holding the
+	 * payload, or returns null after the last frame. The payload goes in the
+	 * INPUT slot of the context, or if context is null in spare when it is
+	 * long enough and in a new array otherwise. The payload of a stored frame
+	 * is the block itself.
+	 */
+	private static Block readFrame(BitReader reader,
+			CompressionContext context, byte[] spare) throws IOException {
+		int rawLength = reader.readInt();
+		if (rawLength == 0)
+			return null;
+		int payloadLength = reader.readInt();
+		if (rawLength < 0 || payloadLength < 0)
+			throw new IOException("corrupt Burrows-Wheeler frame");
+		boolean stored = payloadLength == 0;
+		if (stored)
+			payloadLength = rawLength;
+		// the payload has to be in the stream
+		if (payloadLength > reader.length())
+			throw new IOException("corrupt Burrows-Wheeler frame");
+		byte[] payload;
+		if (context != null)
+			payload = context.bytes(CompressionContext.INPUT, payloadLength);
+		else if (spare != null && spare.length >= payloadLength)
+			payload = spare;
+		else
+			payload = new byte[payloadLength];
+		readFully(reader, payload, payloadLength);
+		if (stored)
+			return Block.stored(payload, rawLength);
+		return new Block(payload, payloadLength, rawLength);
+	}
+
+	/*
+	 * Huffman decodes the payload of a compressed frame into the ENTROPY slot
+	 * of the context and returns its length. The frame's length is only
+	 * trusted once the payload has decoded to it, so the output of the frame
+	 * is allocated after this.
+	 */
+	private int decodePayload(Block frame, CompressionContext context)
+			throws IOException {
+		int expandedLength = hc.expand(new ByteArrayBitReader(frame.data, 0,
+				frame.length), context, CompressionContext.ENTROPY);
+		if (expandedLength != frame.rawLength + 4)
+			throw new IOException("corrupt Burrows-Wheeler frame");
+		return expandedLength;
+	}
+
+	private void compressBlocks(final BitReader reader, final BitWriter writer,
+			CompressionContext context) throws IOException {
+		writeMarker(writer, FRAMES);
+		final CompressionContext.OutputBuffer payload = new CompressionContext.OutputBuffer();
+		if (pipelined) {
+			// the writing thread reports to the same listener from a context of its own
+			final CompressionContext writing = new CompressionContext();
+			writing.setListener(context.getListener());
+			new Pipeline(context) {
+				@Override
+				Block produce() throws IOException {
+					byte[] data = produced(blockSize);
+					int n = readBlock(reader, data, blockSize);
+					return n == 0 ? null : new Block(data, n, n);
+				}
+
+				@Override
+				Block process(Block block, CompressionContext context) {
+					byte[] out = processed(bwt.maxTransformedLength(block.length));
+					return sortOrStore(block.data, block.length, out, context);
+				}
+
+				@Override
+				void consume(Block block) throws IOException {
+					int mark = writing.startStage();
+					int written = writeFrame(block, payload, writer, writing);
+					writing.endStage(Stage.BLOCK, mark, block.rawLength,
+							written);
+				}
+			}.run();
+		} else {
+			byte[] input = context.bytes(CompressionContext.INPUT, blockSize);
+			int n;
+			while ((n = readBlock(reader, input, blockSize)) > 0) {
+				int mark = context.startStage();
+				byte[] out = context.bytes(CompressionContext.ENTROPY, bwt
+						.maxTransformedLength(n));
+				int written = writeFrame(sortOrStore(input, n, out, context),
+						payload, writer, context);
+				context.endStage(Stage.BLOCK, mark, n, written);
+			}
+		}
+		writer.writeInt(0);
+		writer.flush();
+	}
+
+	private void expandBlocks(final BitReader reader, final BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (pipelined) {
+			new Pipeline(context) {
+				@Override
+				Block produce() throws IOException {
+					return readFrame(reader, null, produced(0));
+				}
+
+				@Override
+				Block process(Block frame, CompressionContext context)
+						throws IOException {
+					if (frame.stored)
+						return frame;
+					int mark = context.startStage();
+					int expandedLength = decodePayload(frame, context);
+					byte[] out = processed(frame.rawLength);
+					int length = unsortBlock(expandedLength, out, context);
+					context.endStage(Stage.BLOCK, mark, frame.length, length);
+					return new Block(out, length, frame.rawLength, frame.data);
+				}
+
+				@Override
+				void consume(Block block) throws IOException {
+					writer.writeBytes(block.data, 0, block.length);
+				}
+			}.run();
+		} else {
+			Block frame;
+			while ((frame = readFrame(reader, context, null)) != null) {
+				int mark = context.startStage();
+				byte[] out = frame.data;
+				int length = frame.length;
+				if (!frame.stored) {
+					int expandedLength = decodePayload(frame, context);
+					// the payload has been decoded before the output
+					// overwrites it
+					out = context.bytes(CompressionContext.INPUT,
+							frame.rawLength);
+					length = unsortBlock(expandedLength, out, context);
+				}
+				context.endStage(Stage.BLOCK, mark, frame.length, length);
+				writer.writeBytes(out, 0, length);
+			}
+		}
+		writer.flush();
+	}
+
+	/** A block of bytes in flight between two stages */
+	private static final class Block {
+		final byte[] data;
+		final int length;
+		/** Length of the block before compression */
+		final int rawLength;
+		/**
+		 * The block before it was sorted or the frame before it was decoded,
+		 * or null if it is not kept
+		 */
+		final byte[] input;
+		/** Whether data holds the block itself, to be written as it is */
+		final boolean stored;
+
+		Block(byte[] data, int length, int rawLength) {
+			this(data, length, rawLength, null, false);
+		}
+
+		Block(byte[] data, int length, int rawLength, byte[] input) {
+			this(data, length, rawLength, input, false);
+		}
+
+		private Block(byte[] data, int length, int rawLength, byte[] input,
+				boolean stored) {
+			this.data = data;
+			this.length = length;
+			this.rawLength = rawLength;
+			this.input = input;
+			this.stored = stored;
+		}
 
-		BurrowsWheelerTransformer bwt = new BurrowsWheelerTransformer();
-		bwt.invertTransform(invertedFromMTF, writer);
+		/** Returns a block of the first length bytes of data, as they are */
+		static Block stored(byte[] data, int length) {
+			return new Block(data, length, length, data, true);
+		}
 	}
 
+	/**
+	 * Runs three stages over a sequence of blocks: produce on the calling
+	 * thread, then process and consume on a pooled thread each. The
+	 * processing thread has the caller's context to itself while the
+	 * pipeline runs. If any stage throws, the queues are cancelled so the
+	 * other stages stop, and the first exception is rethrown from
+	 * {@link #run()}.
+	 * <p>
+	 * Once a block has been consumed, its input array goes back to the
+	 * producer and its data array, if it is another one, to the processor,
+	 * each through a queue of its own; {@link #produced} and
+	 * {@link #processed} take arrays from there before allocating new ones.
+	 */
+	private abstract static class Pipeline {
+		private static final Block END = new Block(new byte[0], 0, 0);
+
+		/** Most blocks in flight: one in each stage and the queues full */
+		private static final int BUFFERS = 2 * PIPELINE_DEPTH + 3;
+
+		private static final ExecutorService STAGES = Executors
+				.newCachedThreadPool(new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "bw-stage-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		private final SpscQueue<Block> toProcess = new SpscQueue<Block>(
+				PIPELINE_DEPTH);
+		private final SpscQueue<Block> toConsume = new SpscQueue<Block>(
+				PIPELINE_DEPTH);
+		private final SpscQueue<byte[]> freeInputs = new SpscQueue<byte[]>(
+				BUFFERS);
+		private final SpscQueue<byte[]> freeOutputs = new SpscQueue<byte[]>(
+				BUFFERS);
+		private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		private final CountDownLatch finished = new CountDownLatch(2);
+		private final CompressionContext context;
+
+		Pipeline(CompressionContext context) {
+			this.context = context;
+		}
+
+		/** Returns the next block, or null when there are no more */
+		abstract Block produce() throws IOException;
+
+		abstract Block process(Block block, CompressionContext context)
+				throws IOException;
+
+		abstract void consume(Block block) throws IOException;
+
+		/** Returns an array of at least length bytes for produce to fill */
+		byte[] produced(int length) {
+			return reuse(freeInputs, length);
+		}
+
+		/** Returns an array of at least length bytes for process to fill */
+		byte[] processed(int length) {
+			return reuse(freeOutputs, length);
+		}
+
+		/* A returned array long enough, or else a new one */
+		private static byte[] reuse(SpscQueue<byte[]> free, int length) {
+			byte[] b = free.poll();
+			return b != null && b.length >= length ? b : new byte[length];
+		}
+
+		/* Hands the arrays of a consumed block back to the stages that filled them */
+		private void recycle(Block block) {
+			if (block.input != null)
+				freeInputs.offer(block.input);
+			if (block.data != block.input)
+				freeOutputs.offer(block.data);
+		}
+
+		void run() throws IOException {
+			STAGES.execute(new Runnable() {
+				public void run() {
+					try {
+						Block block;
+						while ((block = toProcess.take()) != END)
+							toConsume.put(process(block, context));
+						toConsume.put(END);
+					} catch (Throwable t) {
+						fail(t);
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+			STAGES.execute(new Runnable() {
+				public void run() {
+					try {
+						Block block;
+						while ((block = toConsume.take()) != END) {
+							consume(block);
+							recycle(block);
+						}
+					} catch (Throwable t) {
+						fail(t);
+					} finally {
+						finished.countDown();
+					}
+				}
+			});
+
+			try {
+				Block block;
+				while ((block = produce()) != null)
+					toProcess.put(block);
+				toProcess.put(END);
+			} catch (Throwable t) {
+				fail(t);
+			}
+			awaitStages();
+
+			Throwable t = failure.get();
+			if (t == null)
+				return;
+			if (t instanceof IOException)
+				throw (IOException) t;
+			if (t instanceof RuntimeException)
+				throw (RuntimeException) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			if (t instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+				InterruptedIOException e = new InterruptedIOException();
+				e.initCause(t);
+				throw e;
+			}
+			throw new IOException(t);
+		}
+
+		/* Keeps the first failure; later ones are usually cancellations it caused */
+		private void fail(Throwable t) {
+			failure.compareAndSet(null, t);
+			toProcess.cancel();
+			toConsume.cancel();
+		}
+
+		/* Waits for both stages to finish even if interrupted, then restores the interrupt */
+		private void awaitStages() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					finished.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
 }
@@ -1,13 +1,69 @@
 package edu.cmu.cs211.compression.bw;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.ArrayList;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
+import edu.cmu.cs211.compression.CompressionContext;
 import edu.cmu.cs211.compression.Transformer;
 
+/**
+ * A transformer that implements the Burrows-Wheeler transformation.
+ * <p>
+ * Sorting the rotations of the input dominates the cost of the transformation.
+ * A transformer created with <tt>parallel</tt> set sorts large inputs on the
+ * common fork/join pool; its output is identical to that of the sequential
+ * transformer.
+ * <p>
+ * By default the transformer holds the whole sorted order of rotations, four
+ * bytes per input byte. A transformer created with a memory budget instead
+ * sorts a few buckets of rotations at a time in a scratch array of at most
+ * that many bytes, so that beside the input and output it only needs the
+ * budget plus a fixed 256 KB. It reads the input once per group of buckets, and
+ * repetitive input is sorted against a sample of the rotations that has to fit
+ * in the budget too, so the smaller the budget the slower the transformation.
+ */
 public class BurrowsWheelerTransformer extends Transformer {
 
+	/** Whether rotations are sorted on several threads */
+	private final boolean parallel;
+
+	/** Bytes of scratch space for sorting, or 0 for no limit */
+	private final long memoryBudget;
+
+	/** Creates a transformer that sorts on the calling thread */
+	public BurrowsWheelerTransformer() {
+		this(false);
+	}
+
+	/**
+	 * Creates a transformer.
+	 * 
+	 * @param parallel
+	 *            whether large inputs are sorted on the common fork/join pool
+	 */
+	public BurrowsWheelerTransformer(boolean parallel) {
+		this(parallel, 0);
+	}
+
+	/**
+	 * Creates a transformer with bounded sorting memory.
+	 * 
+	 * @param parallel
+	 *            whether large inputs are sorted on the common fork/join pool
+	 * @param memoryBudget
+	 *            the number of bytes of scratch space the rotation sort may
+	 *            use, or 0 for no limit
+	 * @throws IllegalArgumentException
+	 *             if memoryBudget is negative
+	 */
+	public BurrowsWheelerTransformer(boolean parallel, long memoryBudget) {
+		if (memoryBudget < 0)
+			throw new IllegalArgumentException("memory budget must be >= 0");
+		this.parallel = parallel;
+		this.memoryBudget = memoryBudget;
+	}
+
 	/**
 	 * Transform a byte sequence using the Burrows-Wheeler transformation
 	 * 
@@ -27,71 +83,63 @@ public class BurrowsWheelerTransformer extends Transformer {
 		if(input == null){
 			throw new NullPointerException();
 		}
-		if(input.length == 0){
-			return new byte[0];
+		byte[] finalResult = new byte[maxTransformedLength(input.length)];
+		transform(input, input.length, finalResult, new CompressionContext());
+		return finalResult;
+	}
+
+	/**
+	 * Transforms <tt>input[0..length)</tt>, keeping the sorted order of
+	 * rotations in the context's {@link CompressionContext#SORT} slot.
+	 * 
+	 * @see Transformer#transform(byte[], int, byte[], CompressionContext)
+	 */
+	@Override
+	public int transform(byte[] input, int length, byte[] finalResult,
+			CompressionContext context) {
+		if(input == null || finalResult == null || context == null){
+			throw new NullPointerException();
+		}
+		if(length == 0){
+			return 0;
 		}
 		
-		int length = input.length;
 		int i, c;
-		byte[] finalResult = new byte[length+4];
-		ArrayList<Integer> indices = new ArrayList<Integer>();
-		for(i = 0; i < length; i++){
-			indices.add(i);
+		if(memoryBudget > 0 && memoryBudget < 4L * length){
+			writeHeader(finalResult, RotationSorter.lastColumn(input, length,
+					memoryBudget, parallel, finalResult, 4));
+			return length + 4;
 		}
+		int[] indices = context.ints(CompressionContext.SORT, length);
+		RotationSorter.sort(input, length, indices, context.ints(
+				CompressionContext.BUCKETS, RotationSorter.BUCKETS + 1), parallel);
 		
-		BWComparator comparator = new BWComparator( input );
-		
-		Collections.sort(indices, comparator);
-		
-		for(c = 0; c < indices.size(); c++ ){
-				if(indices.get(c) == 0 ){
+		for(c = 0; c < length; c++ ){
+				if(indices[c] == 0 ){
 					break;
 				}
 			}
 		//c now holds the index where the original input resides within the BW matrix.
 		
-		//Write the header to represent the integer in a 4-byte format.
-        for (i = 0; i < 4; i++) {
-            int offset = (3 - i) * 8;
-            finalResult[i] = (byte) ((c >>> offset) & 0xFF);
-        }
+		writeHeader(finalResult, c);
 	
 		i = 0;
 		c = 4;
 		for( ; i < length; i++, c++){
-			finalResult[c] = input[((indices.get(i) + (length - 1)) % length)];
-		}
-		
-		return finalResult;
-	}
-	
-	final class BWComparator implements Comparator<Integer>{
-		byte[] bytes;
-		
-		public BWComparator( byte[] bytes ){
-			this.bytes = bytes;
+			int last = indices[i] - 1;
+			finalResult[c] = input[last < 0 ? length - 1 : last];
 		}
 		
-		public int compare( Integer i1, Integer i2 ){
-			int first = i1;
-			int second = i2;
-			
-			while(bytes[first] == bytes[second]){
-				first = increment(first, bytes.length);
-				second = increment(second, bytes.length);
-			}
-			
-			return (bytes[first] - bytes[second]);
+		return length + 4;
 	}
+
+	//Private helper method.  Writes the position of the original input as a 4-byte header.
+	private static void writeHeader(byte[] result, int c){
+        for (int i = 0; i < 4; i++) {
+            int offset = (3 - i) * 8;
+            result[i] = (byte) ((c >>> offset) & 0xFF);
+        }
 	}
-		
-		//Private helper method.  Returns incremented i based on len to preserve wraparound.
-		private int increment(int i, int len){
-			if(++i >= len){
-				i = 0;
-			}
-			return i;
-		}
 
 	/**
 	 * Invert the Burrows-Wheeler transformation
@@ -108,57 +156,156 @@ public class BurrowsWheelerTransformer extends Transformer {
 		if( input == null ){
 			throw new NullPointerException();
 		}
-		if(input.length == 4){
-			return new byte[0];
+		byte[] finalResult = new byte[Math.max(input.length - 4, 0)];
+		invertTransform(input, input.length, finalResult, new CompressionContext());
+		return finalResult;
+	}
+
+	/**
+	 * Inverts the transformation of <tt>input[0..length)</tt>, keeping its
+	 * table in the context's {@link CompressionContext#SORT} slot.
+	 * 
+	 * @see Transformer#invertTransform(byte[], int, byte[], CompressionContext)
+	 */
+	@Override
+	public int invertTransform(byte[] input, int length, byte[] finalResult,
+			CompressionContext context) {
+		if( input == null || finalResult == null || context == null ){
+			throw new NullPointerException();
+		}
+		if(length == 0 || length == 4){
+			return 0;
+		}
+		if(length < 4){
+			throw new IllegalArgumentException("missing header");
 		}
-		
-		   /*int indexOfOrig2 = 0;
-	        for (int i = 0; i < 4; i++) {
-	            int shift = (4 - 1 - i) * 8;
-	            indexOfOrig += (input[i] & 0x000000FF) << shift;
-	        }*/
 		
 		int indexOfOrig = ( input[0]<<24 | (input[1]&0xff)<<16 | (input[2]&0xff)<<8 | (input[3]&0xff));
-		int lengthWithoutHeader = (input.length)-4;
-		int i,c;
-		byte[] finalResult = new byte[lengthWithoutHeader];
-		byte[] inputWithoutHeader = new byte[lengthWithoutHeader];
-		ArrayList<Integer> indices = new ArrayList<Integer>(lengthWithoutHeader+1);
-		
-		i = 0;
-		c = 4;
-		//Fill arrayList with indices and fill inputWithoutHeader.
-		for( ; i < lengthWithoutHeader; i++, c++){
-			indices.add(i);
-			inputWithoutHeader[i] = input[c];
+		int lengthWithoutHeader = length-4;
+		if(indexOfOrig < 0 || indexOfOrig >= lengthWithoutHeader){
+			throw new IllegalArgumentException("invalid header");
 		}
+		int i;
+		int[] indices = context.ints(CompressionContext.SORT, lengthWithoutHeader);
 		
-		BWComparatorInverse comparator = new BWComparatorInverse( inputWithoutHeader );
-		//Sort the Bytes by their natural ordering.
-		Collections.sort(indices, comparator);
+		/*Stable counting sort of the positions by their byte (signed order), which is
+		 * what sorting the positions with a comparator on the bytes used to produce.*/
+		int[] next = new int[257];
+		for(i = 0; i < lengthWithoutHeader; i++){
+			next[input[4 + i] + 129]++;
+		}
+		for(i = 0; i < 256; i++){
+			next[i + 1] += next[i];
+		}
+		for(i = 0; i < lengthWithoutHeader; i++){
+			indices[next[input[4 + i] + 128]++] = i;
+		}
 		
-		int currentIndex = indices.get(indexOfOrig);
+		int currentIndex = indices[indexOfOrig];
 		for(i = 0; i < lengthWithoutHeader; i++){
-			finalResult[i] = inputWithoutHeader[currentIndex];
-			currentIndex = indices.get(currentIndex);
+			finalResult[i] = input[4 + currentIndex];
+			currentIndex = indices[currentIndex];
 		}
 		
-		return finalResult;
+		return lengthWithoutHeader;
 		
 	}
 	
-	final class BWComparatorInverse implements Comparator<Integer>{
-		byte[] bytes;
+	/** The output is the input plus a four byte header */
+	@Override
+	public int maxTransformedLength(int inputLength) {
+		return inputLength == 0 ? 0 : inputLength + 4;
+	}
+
+	/**
+	 * Inverts the transformation of src into dst, with its table in a new
+	 * context.
+	 * 
+	 * @see #invertTransform(ByteBuffer, ByteBuffer, CompressionContext)
+	 */
+	@Override
+	public int invertTransform(ByteBuffer src, ByteBuffer dst) {
+		return invertTransform(src, dst, new CompressionContext());
+	}
+
+	/**
+	 * Inverts the transformation of src into dst, keeping its table in the
+	 * context's {@link CompressionContext#SORT} slot, so that repeated calls
+	 * with one context allocate nothing.
+	 * 
+	 * @see #invertTransform(ByteBuffer, ByteBuffer, IntBuffer)
+	 */
+	public int invertTransform(ByteBuffer src, ByteBuffer dst,
+			CompressionContext context) {
+		int length = Math.max(src.remaining() - 4, 0);
+		return invertTransform(src, dst, IntBuffer.wrap(context.ints(
+				CompressionContext.SORT, length)));
+	}
+
+	/**
+	 * Inverts the transformation of the bytes remaining in src into dst
+	 * without copying either buffer to the heap.
+	 * 
+	 * @param src
+	 *            the output of transform()
+	 * @param dst
+	 *            where to write the original bytes
+	 * @param scratch
+	 *            a table of at least <tt>src.remaining() - 4</tt> ints,
+	 *            starting at its position; its contents are overwritten
+	 * @return the number of bytes written to dst
+	 * @throws BufferOverflowException
+	 *             if dst or scratch has too little room
+	 * @throws IllegalArgumentException
+	 *             if src does not start with a valid header
+	 * @throws NullPointerException
+	 *             if any argument is null
+	 */
+	public int invertTransform(ByteBuffer src, ByteBuffer dst, IntBuffer scratch) {
+		int remaining = src.remaining();
+		if(remaining == 0 || remaining == 4){
+			src.position(src.limit());
+			return 0;
+		}
+		if(remaining < 4){
+			throw new IllegalArgumentException("missing header");
+		}
 		
-		public BWComparatorInverse( byte[] bytes ){
-			this.bytes = bytes;
+		int base = src.position();
+		int length = remaining - 4;
+		int indexOfOrig = ( src.get(base)<<24 | (src.get(base+1)&0xff)<<16 | (src.get(base+2)&0xff)<<8 | (src.get(base+3)&0xff));
+		if(indexOfOrig < 0 || indexOfOrig >= length){
+			throw new IllegalArgumentException("invalid header");
+		}
+		if(dst.remaining() < length || scratch.remaining() < length){
+			throw new BufferOverflowException();
 		}
+		int i;
+		int first = base + 4;
+		int out = dst.position();
+		int table = scratch.position();
 		
-		public int compare( Integer i1, Integer i2 ){
-			Byte b1 = bytes[i1];
-			Byte b2 = bytes[i2];
-			return b1.compareTo(b2);
+		//Same counting sort as invertTransform(byte[]), with the table in scratch.
+		int[] next = new int[257];
+		for(i = 0; i < length; i++){
+			next[src.get(first + i) + 129]++;
+		}
+		for(i = 0; i < 256; i++){
+			next[i + 1] += next[i];
 		}
+		for(i = 0; i < length; i++){
+			scratch.put(table + next[src.get(first + i) + 128]++, i);
+		}
+		
+		int currentIndex = scratch.get(table + indexOfOrig);
+		for(i = 0; i < length; i++){
+			dst.put(out + i, src.get(first + currentIndex));
+			currentIndex = scratch.get(table + currentIndex);
+		}
+		
+		src.position(src.limit());
+		dst.position(out + length);
+		return length;
 	}
 	
 }
@@ -0,0 +1,355 @@
+package edu.cmu.cs211.compression.bw;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Ranks of a sample of the rotations of a byte sequence, from which any two
+ * rotations can be compared after reading fewer than {@link #period()} of
+ * their bytes. The sequence must not be a repetition of a shorter one, so
+ * that no two of its rotations are equal.
+ * <p>
+ * The sample is a <em>difference cover</em> modulo a period v = r<sup>2</sup>:
+ * the positions whose residue is below r or a multiple of r. For any two
+ * positions i and j there is an offset l &lt; v at which both i + l and j + l
+ * are sampled, so two rotations that agree on their first l bytes are ordered
+ * by the ranks of the sampled positions l bytes further on. The sample holds
+ * about 4n / r positions, so a larger period takes less memory and longer
+ * comparisons.
+ * <p>
+ * Positions are sampled in the input written out twice, whose suffixes from
+ * the first n + v positions order like the rotations they start. The sample is
+ * ranked by sorting it on its first v bytes and then doubling: sampled
+ * positions v, 2v, 4v, ... bytes apart are sampled too, so the doubling never
+ * needs the rank of a position outside the sample.
+ */
+final class DifferenceCover {
+
+	/** Below every byte value: the end of the doubled input */
+	private static final int END = Byte.MIN_VALUE - 1;
+
+	/** Marks the first entry of a new group while ranks are refined */
+	private static final int HEAD = Integer.MIN_VALUE;
+
+	private final byte[] input;
+	/** The input read eight bytes at a time, big-endian */
+	private final ByteBuffer words;
+	private final int n;
+	/** r is 2<sup>bits</sup> and the period v is r<sup>2</sup> */
+	private final int bits;
+	private final int r;
+	private final int mask;
+	/** Number of sampled residues, 2r - 1 */
+	private final int size;
+	/** Rank of each sampled position by its slot, from rankOff on */
+	private final int[] rank;
+	private final int rankOff;
+	/** Number of leading scratch entries left free */
+	private final int free;
+
+	/**
+	 * Ranks a cover for the rotations of <tt>input[0..n)</tt>, choosing the
+	 * smallest period whose ranks take at most half of the scratch array.
+	 * The ranks are kept at the end of the scratch array, whose other entries
+	 * are overwritten; if even the largest period does not fit, the cover
+	 * allocates its own arrays instead.
+	 */
+	static DifferenceCover create(byte[] input, int n, int[] scratch) {
+		int bits = 0;
+		while (slots(n, bits) > scratch.length / 2 && 1L << 2 * bits + 2 <= n)
+			bits++;
+		return new DifferenceCover(input, n, bits, scratch);
+	}
+
+	/* Number of ranks of a cover with period 2^(2 bits) */
+	private static long slots(int n, int bits) {
+		long blocks = (2L * n + (1L << 2 * bits) - 1) >> 2 * bits;
+		return blocks * ((2 << bits) - 1);
+	}
+
+	private DifferenceCover(byte[] input, int n, int bits, int[] scratch) {
+		this.input = input;
+		words = ByteBuffer.wrap(input);
+		this.n = n;
+		this.bits = bits;
+		r = 1 << bits;
+		mask = (1 << 2 * bits) - 1;
+		size = 2 * r - 1;
+
+		int slots = (int) slots(n, bits);
+		int[] sa;
+		if (2L * slots <= scratch.length) {
+			rank = sa = scratch;
+			rankOff = scratch.length - slots;
+			free = rankOff;
+		} else {
+			rank = new int[slots];
+			sa = new int[slots];
+			rankOff = 0;
+			free = scratch.length;
+		}
+
+		// the slots in order are the sampled positions in order
+		int m = 0;
+		while (m < slots && position(m) < 2L * n) {
+			sa[m] = m;
+			m++;
+		}
+		sortPrefixes(sa, m);
+		refine(sa, m);
+	}
+
+	/** Returns the period v; rotations sharing v bytes compare at once */
+	int period() {
+		return mask + 1;
+	}
+
+	/**
+	 * Returns the number of entries at the start of the scratch array that
+	 * the cover leaves free.
+	 */
+	int free() {
+		return free;
+	}
+
+	/* Position of the sample in a slot; slots run through the residues */
+	private long position(int slot) {
+		int index = slot % size;
+		long residue = index < r ? index : (long) (index - r + 1) << bits;
+		return (long) (slot / size) << 2 * bits | residue;
+	}
+
+	/* Slot of a sampled position */
+	private int slot(long position) {
+		int residue = (int) position & mask;
+		int index = residue < r ? residue : (residue >>> bits) + r - 1;
+		return (int) (position >>> 2 * bits) * size + index;
+	}
+
+	/* Byte at offset d of the doubled input's suffix in a slot */
+	private int byteAt(int slot, int d) {
+		long p = position(slot) + d;
+		if (p >= 2L * n)
+			return END;
+		return input[(int) (p < n ? p : p - n)];
+	}
+
+	/**
+	 * Sorts the samples by their first v bytes with a multikey quicksort and
+	 * gives each the position in sa of the first sample sharing those bytes.
+	 */
+	private void sortPrefixes(int[] sa, int m) {
+		int[] stack = new int[3 * 64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = m;
+		stack[top++] = 0;
+		while (top > 0) {
+			int d = stack[--top];
+			int hi = stack[--top];
+			int lo = stack[--top];
+			if (hi - lo < 2 || d > mask) {
+				for (int i = lo; i < hi; i++)
+					rank[rankOff + sa[i]] = lo;
+				continue;
+			}
+
+			int a = byteAt(sa[lo], d);
+			int b = byteAt(sa[(lo + hi) >>> 1], d);
+			int c = byteAt(sa[hi - 1], d);
+			int v = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+			int lt = lo, gt = hi, i = lo;
+			while (i < gt) {
+				int x = byteAt(sa[i], d);
+				if (x < v)
+					swap(sa, lt++, i++);
+				else if (x > v)
+					swap(sa, i, --gt);
+				else
+					i++;
+			}
+
+			if (top + 9 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[top++] = lo;
+			stack[top++] = lt;
+			stack[top++] = d;
+			stack[top++] = gt;
+			stack[top++] = hi;
+			stack[top++] = d;
+			// a suffix that has ended is the only one of its length
+			stack[top++] = lt;
+			stack[top++] = gt;
+			stack[top++] = v == END ? mask + 1 : d + 1;
+		}
+	}
+
+	/**
+	 * Refines the ranks by prefix doubling until every sample has its own.
+	 * Each round sorts every group of equal ranks by the rank h bytes on,
+	 * marking where the new groups start, and then renumbers all groups at
+	 * once, so that no rank changes while a round reads it.
+	 */
+	private void refine(int[] sa, int m) {
+		for (long h = period(); h < 2L * n; h <<= 1) {
+			boolean unsorted = false;
+			int i = 0;
+			while (i < m) {
+				int j = i + 1;
+				while (j < m && rank[rankOff + sa[j]] == i)
+					j++;
+				if (j - i > 1) {
+					sortByKey(sa, i, j, h);
+					int heads = 1;
+					for (int x = i + 1; x < j; x++) {
+						if (key(sa[x], h) != key(sa[x - 1] & ~HEAD, h)) {
+							sa[x] |= HEAD;
+							heads++;
+						}
+					}
+					if (heads < j - i)
+						unsorted = true;
+				}
+				i = j;
+			}
+
+			int head = 0;
+			for (int x = 0; x < m; x++) {
+				int s = sa[x];
+				if (s < 0) {
+					s &= ~HEAD;
+					sa[x] = s;
+					head = x;
+				} else if (rank[rankOff + s] == x) {
+					head = x;
+				}
+				rank[rankOff + s] = head;
+			}
+			if (!unsorted)
+				return;
+		}
+	}
+
+	/* Rank of the sample h bytes after a slot's, or -1 past the end */
+	private int key(int slot, long h) {
+		long p = position(slot) + h;
+		return p >= 2L * n ? -1 : rank[rankOff + slot(p)];
+	}
+
+	/* Sorts sa[lo..hi) by key with a three-way quicksort */
+	private void sortByKey(int[] sa, int lo, int hi, long h) {
+		while (hi - lo > 16) {
+			int a = key(sa[lo], h);
+			int b = key(sa[(lo + hi) >>> 1], h);
+			int c = key(sa[hi - 1], h);
+			int v = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+			int lt = lo, gt = hi, i = lo;
+			while (i < gt) {
+				int x = key(sa[i], h);
+				if (x < v)
+					swap(sa, lt++, i++);
+				else if (x > v)
+					swap(sa, i, --gt);
+				else
+					i++;
+			}
+			// recurse into the smaller side only
+			if (lt - lo < hi - gt) {
+				sortByKey(sa, lo, lt, h);
+				lo = gt;
+			} else {
+				sortByKey(sa, gt, hi, h);
+				hi = lt;
+			}
+		}
+		for (int i = lo + 1; i < hi; i++) {
+			int s = sa[i];
+			int k = key(s, h);
+			int j = i - 1;
+			while (j >= lo && key(sa[j], h) > k) {
+				sa[j + 1] = sa[j];
+				j--;
+			}
+			sa[j + 1] = s;
+		}
+	}
+
+	/**
+	 * Compares the rotations starting at a and b, which are known to agree on
+	 * their first d bytes. Reads fewer than v bytes.
+	 */
+	int compare(int a, int b, int d) {
+		// a residue x in the cover with x + (b - a) in it as well
+		int t = (b - a) & mask;
+		int low = t & (r - 1);
+		int l = ((low == 0 ? 0 : r - low) - a) & mask;
+		int pa = a + d, pb = b + d;
+		if (pa >= n)
+			pa -= n;
+		if (pb >= n)
+			pb -= n;
+		for (int k = d; k < l;) {
+			// eight bytes at a time where neither rotation wraps around
+			if (l - k >= 8 && pa <= n - 8 && pb <= n - 8) {
+				long x = words.getLong(pa), y = words.getLong(pb);
+				if (x != y) {
+					int skip = Long.numberOfLeadingZeros(x ^ y) >>> 3;
+					return input[pa + skip] - input[pb + skip];
+				}
+				pa += 8;
+				pb += 8;
+				k += 8;
+			} else {
+				int diff = input[pa] - input[pb];
+				if (diff != 0)
+					return diff;
+				pa++;
+				pb++;
+				k++;
+			}
+			if (pa == n)
+				pa = 0;
+			if (pb == n)
+				pb = 0;
+		}
+		return rank[rankOff + slot((long) a + l)]
+				- rank[rankOff + slot((long) b + l)];
+	}
+
+	/** Sorts the rotations in a[lo..hi), which share d bytes, by heapsort */
+	void sort(int[] a, int lo, int hi, int d) {
+		heapify(a, lo, hi - lo, d);
+		for (int end = hi - lo - 1; end > 0; end--) {
+			swap(a, lo, lo + end);
+			siftDown(a, lo, 0, end, d);
+		}
+	}
+
+	/** Makes a[off..off+count) a heap with the greatest rotation first */
+	void heapify(int[] a, int off, int count, int d) {
+		for (int i = count / 2 - 1; i >= 0; i--)
+			siftDown(a, off, i, count, d);
+	}
+
+	/** Moves entry i of the heap a[off..off+count) down to its place */
+	void siftDown(int[] a, int off, int i, int count, int d) {
+		int v = a[off + i];
+		while (i <= (count - 2) >> 1) {
+			int child = 2 * i + 1;
+			if (child + 1 < count
+					&& compare(a[off + child + 1], a[off + child], d) > 0)
+				child++;
+			if (compare(a[off + child], v, d) <= 0)
+				break;
+			a[off + i] = a[off + child];
+			i = child;
+		}
+		a[off + i] = v;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
@@ -1,8 +1,9 @@
 package edu.cmu.cs211.compression.bw;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
+import edu.cmu.cs211.compression.CompressionContext;
 import edu.cmu.cs211.compression.Transformer;
 
 /**
@@ -24,21 +25,8 @@ public class MoveToFrontTransformer extends Transformer {
 	 */
 	@Override
 	public byte[] transform(byte[] input) {
-		ArrayList<Byte> symbolList = new ArrayList<Byte>(256);
 		byte[] result = new byte[input.length];
-		int i = 0;
-		for( ; i <= 255; i++){
-			byte b = (byte)i;
-			Byte b2 = new Byte(b);
-			symbolList.add(b2);
-		}
-		for(i = 0; i < input.length; i++){
-			Byte current = input[i];
-			int output = symbolList.indexOf(current);
-			result[i] = (byte)output;
-			symbolList.remove(current);
-			symbolList.add(0,current);
-		}
+		transform(input, input.length, result, null);
 		return result;
 	}
 
@@ -54,23 +42,106 @@ public class MoveToFrontTransformer extends Transformer {
 	 */
 	@Override
 	public byte[] invertTransform(byte[] input){
-		ArrayList<Byte> symbolList = new ArrayList<Byte>(256);
 		byte[] result = new byte[input.length];
-		int i = 0;
-		for( ; i <= 255; i++){
-			byte b = (byte)i;
-			Byte b2 = new Byte(b);
-			symbolList.add(b2);
+		invertTransform(input, input.length, result, null);
+		return result;
+	}
+
+	/**
+	 * Transforms <tt>input[0..length)</tt> into output. No scratch space is
+	 * needed, so context may be null.
+	 * 
+	 * @see Transformer#transform(byte[], int, byte[], CompressionContext)
+	 */
+	@Override
+	public int transform(byte[] input, int length, byte[] output,
+			CompressionContext context) {
+		byte[] symbolList = newSymbolList();
+		for(int i = 0; i < length; i++){
+			output[i] = (byte)moveToFront(symbolList, input[i]);
 		}
-		for(i = 0; i < input.length; i++){
-			byte current = input[i];
-			int index = current & 0xFF;
-			Byte val = symbolList.get(index);
-			result[i] = val;
-			symbolList.remove(index);
-			symbolList.add(0, val);
+		return length;
+	}
+
+	/**
+	 * Inverts the transformation of <tt>input[0..length)</tt> into output. No
+	 * scratch space is needed, so context may be null.
+	 * 
+	 * @see Transformer#invertTransform(byte[], int, byte[], CompressionContext)
+	 */
+	@Override
+	public int invertTransform(byte[] input, int length, byte[] output,
+			CompressionContext context) {
+		byte[] symbolList = newSymbolList();
+		for(int i = 0; i < length; i++){
+			output[i] = moveIndexToFront(symbolList, input[i] & 0xFF);
 		}
-		return result;
+		return length;
+	}
+
+	/**
+	 * Transforms src into dst without copying either buffer.
+	 * 
+	 * @see Transformer#transform(ByteBuffer, ByteBuffer)
+	 */
+	@Override
+	public int transform(ByteBuffer src, ByteBuffer dst) {
+		int length = src.remaining();
+		if(dst.remaining() < length){
+			throw new BufferOverflowException();
+		}
+		byte[] symbolList = newSymbolList();
+		for(int i = 0; i < length; i++){
+			dst.put((byte)moveToFront(symbolList, src.get()));
+		}
+		return length;
+	}
+
+	/**
+	 * Inverts the transformation of src into dst without copying either
+	 * buffer.
+	 * 
+	 * @see Transformer#invertTransform(ByteBuffer, ByteBuffer)
+	 */
+	@Override
+	public int invertTransform(ByteBuffer src, ByteBuffer dst) {
+		int length = src.remaining();
+		if(dst.remaining() < length){
+			throw new BufferOverflowException();
+		}
+		byte[] symbolList = newSymbolList();
+		for(int i = 0; i < length; i++){
+			dst.put(moveIndexToFront(symbolList, src.get() & 0xFF));
+		}
+		return length;
+	}
+
+	//Private helper method.  Returns the initial list 0x00 .. 0xFF.
+	private static byte[] newSymbolList(){
+		byte[] symbolList = new byte[256];
+		for(int i = 0; i <= 255; i++){
+			symbolList[i] = (byte)i;
+		}
+		return symbolList;
+	}
+
+	//Private helper method.  Returns the position of b and moves it to the front.
+	private static int moveToFront(byte[] symbolList, byte b){
+		int index = 0;
+		while(symbolList[index] != b){
+			index++;
+		}
+		System.arraycopy(symbolList, 0, symbolList, 1, index);
+		symbolList[0] = b;
+		return index;
+	}
+
+	//Private helper method.  Returns the byte at index and moves it to the front.
+	private static byte moveIndexToFront(byte[] symbolList, int index){
+		byte b = symbolList[index];
+		System.arraycopy(symbolList, 0, symbolList, 1, index);
+		symbolList[0] = b;
+		return b;
 	}
 
 }
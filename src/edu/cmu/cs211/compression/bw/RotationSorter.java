@@ -0,0 +1,666 @@
+package edu.cmu.cs211.compression.bw;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorts the cyclic rotations of a byte sequence, which is the expensive part of
+ * the Burrows-Wheeler transformation.
+ * <p>
+ * Rotations are ordered by comparing their bytes as signed values (the order
+ * the transformation has always used); identical rotations, which only occur
+ * in periodic input, are ordered by their starting index. Because that order
+ * is total, the sequential and parallel sorts produce exactly the same result.
+ * <p>
+ * The rotations are first bucketed by their leading two bytes with a counting
+ * sort. Each bucket holding more than one rotation is then finished by a
+ * multikey quicksort that starts comparing at the third byte. Buckets are
+ * independent, so in parallel mode they are sorted concurrently on the common
+ * fork/join pool. The bucket table costs the same for any input, so short
+ * inputs skip it and are sorted by multikey quicksort from the first byte.
+ * <p>
+ * Multikey quicksort degrades badly on very repetitive input (long runs of one
+ * byte, for example). The sort therefore keeps a work budget proportional to
+ * the input length; once it is used up, the whole input is re-sorted with
+ * prefix doubling, which is slower on typical data but O(n log n) in the worst
+ * case.
+ * <p>
+ * {@link #lastColumn} computes the transformation without ever holding the
+ * whole sorted order: it fills a bounded scratch array with a few buckets at a
+ * time, sorts them and writes out their part of the last column before moving
+ * on. That costs one pass over the input per group of buckets. The doubling
+ * fallback needs several full-size arrays, so there it is replaced by a
+ * {@link DifferenceCover}, doubling over a sample of the rotations that fits
+ * in part of the scratch array; the smaller the budget, the sparser the
+ * sample and the more bytes repetitive input costs per rotation.
+ */
+final class RotationSorter {
+
+	/** Inputs shorter than this are always sorted on the calling thread */
+	private static final int PARALLEL_THRESHOLD = 1 << 17;
+
+	/** Inputs shorter than this are sorted without the bucket table */
+	private static final int BUCKET_THRESHOLD = 1 << 12;
+
+	/** Ranges shorter than this are finished with an insertion sort */
+	private static final int INSERTION_THRESHOLD = 16;
+
+	/** Bytes of comparison work allowed per input byte before falling back */
+	private static final int WORK_PER_BYTE = 100;
+
+	/** How much local work is done between checks of the shared budget */
+	private static final int WORK_CHUNK = 1 << 16;
+
+	/** Number of buckets for the leading two bytes */
+	static final int BUCKETS = 1 << 16;
+
+	private RotationSorter() {
+	}
+
+	/**
+	 * Returns the bucket of the rotation starting at i, which orders the
+	 * rotations by their first two (signed) bytes.
+	 */
+	static int bucket(byte[] input, int n, int i) {
+		int next = i + 1 == n ? 0 : i + 1;
+		return ((input[i] + 128) << 8) | (input[next] + 128);
+	}
+
+	/**
+	 * Returns where each bucket starts in the sorted order; entry
+	 * <tt>BUCKETS</tt> is n.
+	 */
+	private static int[] bucketStarts(byte[] input, int n, int[] bucketStart) {
+		Arrays.fill(bucketStart, 0, BUCKETS + 1, 0);
+		for (int i = 0; i < n; i++)
+			bucketStart[bucket(input, n, i) + 1]++;
+		for (int b = 0; b < BUCKETS; b++)
+			bucketStart[b + 1] += bucketStart[b];
+		return bucketStart;
+	}
+
+	/**
+	 * Writes the last column of the sorted rotations of <tt>input[0..n)</tt>
+	 * to <tt>out[outOff..outOff+n)</tt>, using at most about
+	 * <tt>scratchBytes</tt> bytes for sorting (plus a fixed 256 KB bucket
+	 * table).
+	 * 
+	 * @return the position of the unrotated input in the sorted order
+	 */
+	static int lastColumn(byte[] input, int n, long scratchBytes,
+			boolean parallel, byte[] out, int outOff) {
+		// repetitions of a shorter sequence have its last column, with every
+		// byte repeated: each of its rotations occurs once per repetition
+		int p = primitivePeriod(input, n);
+		int[] scratch = new int[(int) Math.max(1, Math.min(p, scratchBytes / 4))];
+		int primary = new BoundedSort(input, p, scratch, parallel, out, outOff)
+				.run();
+		if (p < n) {
+			int repeats = n / p;
+			for (int k = n - 1; k > 0; k--)
+				out[outOff + k] = out[outOff + k / repeats];
+			primary *= repeats;
+		}
+		return primary;
+	}
+
+	/**
+	 * Returns the length of the shortest sequence that <tt>input[0..n)</tt>
+	 * is a repetition of, n if there is none.
+	 */
+	static int primitivePeriod(byte[] input, int n) {
+		// the periods dividing n are the multiples of the shortest one, so
+		// divide out prime factors for as long as a period remains
+		int p = n;
+		int rest = n;
+		for (int f = 2; rest > 1; f++) {
+			if ((long) f * f > rest)
+				f = rest;
+			boolean periodic = true;
+			while (rest % f == 0) {
+				rest /= f;
+				if (periodic && hasPeriod(input, n, p / f))
+					p /= f;
+				else
+					periodic = false;
+			}
+		}
+		return p;
+	}
+
+	/* Whether input[0..n) repeats with period d */
+	private static boolean hasPeriod(byte[] input, int n, int d) {
+		for (int i = d; i < n; i++) {
+			if (input[i] != input[i - d])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A sort that holds at most a scratch array of rotations at a time, for
+	 * input that is not a repetition of a shorter sequence. Buckets are sorted
+	 * in groups that fit the scratch array, each with a work budget as in
+	 * {@link RotationSorter#sort}. When a group runs out of budget the input
+	 * is repetitive: a {@link DifferenceCover} is then ranked in part of the
+	 * scratch array, and from then on ranges sharing v bytes are ordered by
+	 * it at once. A single bucket larger than the scratch array is written out
+	 * a scratch array at a time, each pass selecting the smallest rotations
+	 * after the last one written with a heap ordered by the cover.
+	 */
+	private static final class BoundedSort {
+		private final byte[] input;
+		private final int n;
+		private final int[] scratch;
+		private final int[] bucketStart = new int[BUCKETS + 1];
+		private final boolean parallel;
+		private final byte[] out;
+		private final int outOff;
+		/** Number of rotations the scratch array holds */
+		private int capacity;
+		private DifferenceCover cover;
+		private int primary = -1;
+
+		BoundedSort(byte[] input, int n, int[] scratch, boolean parallel,
+				byte[] out, int outOff) {
+			this.input = input;
+			this.n = n;
+			this.scratch = scratch;
+			this.parallel = parallel;
+			this.out = out;
+			this.outOff = outOff;
+			capacity = scratch.length;
+		}
+
+		/** Writes the last column; returns the position of the input */
+		int run() {
+			bucketStarts(input, n, bucketStart);
+			int b = 0;
+			while (b < BUCKETS) {
+				int size = bucketStart[b + 1] - bucketStart[b];
+				if (size == 0) {
+					b++;
+					continue;
+				}
+				if (size > capacity) {
+					rankCover();
+					if (size > capacity) {
+						select(b);
+						b++;
+					}
+					continue;
+				}
+
+				// take as many whole buckets as fit
+				int base = bucketStart[b];
+				int end = b + 1;
+				while (end < BUCKETS && bucketStart[end + 1] - base <= capacity)
+					end++;
+				collect(b, end, base);
+				if (!sort(b, end, base)) {
+					// the group is left in some order; sort it again
+					rankCover();
+					continue;
+				}
+				primary(emit(input, n, scratch, bucketStart[end] - base, base,
+						out, outOff));
+				b = end;
+			}
+			return primary;
+		}
+
+		private void primary(int p) {
+			if (p >= 0)
+				primary = p;
+		}
+
+		private void rankCover() {
+			if (cover == null) {
+				cover = DifferenceCover.create(input, n, scratch);
+				capacity = Math.max(1, Math.min(capacity, cover.free()));
+			}
+		}
+
+		/*
+		 * Places the rotations of buckets [from, to) in the scratch array,
+		 * each bucket's in index order. Every group costs a pass over the
+		 * input, so this loop is kept as tight as it goes.
+		 */
+		private void collect(int from, int to, int base) {
+			byte[] in = input;
+			int[] sa = scratch;
+			int[] starts = bucketStart;
+			int span = to - from;
+			int last = n - 1;
+			// one unsigned comparison: a signed pair of them mispredicts
+			for (int i = 0; i < last; i++) {
+				int k = ((in[i] + 128) << 8 | (in[i + 1] + 128)) - from;
+				if (Integer.compareUnsigned(k, span) < 0)
+					sa[starts[from + k]++ - base] = i;
+			}
+			int k = bucket(in, n, last) - from;
+			if (Integer.compareUnsigned(k, span) < 0)
+				sa[starts[from + k]++ - base] = last;
+			// placing advanced each start to the next one's; shift them back
+			System.arraycopy(starts, from, starts, from + 1, span - 1);
+			starts[from] = base;
+		}
+
+		/* Sorts the collected group; false if its budget ran out */
+		private boolean sort(int from, int to, int base) {
+			int size = bucketStart[to] - base;
+			Budget budget = new Budget(cover != null ? Long.MAX_VALUE
+					: (long) WORK_PER_BYTE * size + WORK_CHUNK);
+			BucketTask task = new BucketTask(input, n, scratch, bucketStart,
+					from, to, budget, cover);
+			task.base = base;
+			if (parallel && size >= PARALLEL_THRESHOLD) {
+				task.grain = Math.max(n
+						/ (ForkJoinPool.getCommonPoolParallelism() * 8), 1 << 14);
+				ForkJoinPool.commonPool().invoke(task);
+			} else {
+				task.compute();
+			}
+			return !budget.exceeded();
+		}
+
+		/* Writes out bucket b, too large for the scratch array, in passes */
+		private void select(int b) {
+			int base = bucketStart[b];
+			int size = bucketStart[b + 1] - base;
+			int[] heap = scratch;
+			int last = -1;
+			for (int done = 0; done < size;) {
+				int count = 0;
+				for (int i = 0; i < n; i++) {
+					if (bucket(input, n, i) != b
+							|| last >= 0 && cover.compare(i, last, 2) <= 0)
+						continue;
+					if (count < capacity) {
+						heap[count++] = i;
+						if (count == capacity)
+							cover.heapify(heap, 0, count, 2);
+					} else if (cover.compare(i, heap[0], 2) < 0) {
+						heap[0] = i;
+						cover.siftDown(heap, 0, 0, count, 2);
+					}
+				}
+				new RangeSorter(input, n, heap, new Budget(Long.MAX_VALUE), cover)
+						.sort(0, count, 2);
+				primary(emit(input, n, heap, count, base + done, out, outOff));
+				last = heap[count - 1];
+				done += count;
+			}
+		}
+	}
+
+	/**
+	 * Writes the last column for the sorted rotations sa[0..count), which sit
+	 * at position <tt>base</tt> of the full sorted order.
+	 * 
+	 * @return the position of the unrotated input if it is among them,
+	 *         otherwise -1
+	 */
+	private static int emit(byte[] input, int n, int[] sa, int count,
+			int base, byte[] out, int outOff) {
+		int primary = -1;
+		for (int j = 0; j < count; j++) {
+			int i = sa[j];
+			if (i == 0) {
+				primary = base + j;
+				out[outOff + base + j] = input[n - 1];
+			} else {
+				out[outOff + base + j] = input[i - 1];
+			}
+		}
+		return primary;
+	}
+
+	/**
+	 * Sorts the rotations of <tt>input[0..n)</tt>.
+	 *
+	 * @param sa
+	 *            receives the start index of each rotation in sorted order;
+	 *            must hold at least n entries
+	 * @param bucketStart
+	 *            scratch space for at least <tt>BUCKETS + 1</tt> entries
+	 * @param parallel
+	 *            whether buckets may be sorted on several threads
+	 */
+	static void sort(byte[] input, int n, int[] sa, int[] bucketStart,
+			boolean parallel) {
+		if (n == 0)
+			return;
+
+		if (n < BUCKET_THRESHOLD) {
+			for (int i = 0; i < n; i++)
+				sa[i] = i;
+			RangeSorter sorter = new RangeSorter(input, n, sa, new Budget(
+					(long) WORK_PER_BYTE * n + WORK_CHUNK), null);
+			if (!sorter.sort(0, n, 0))
+				doublingSort(input, n, sa);
+			return;
+		}
+
+		// counting sort by the leading two bytes; stable, so every bucket
+		// starts out in index order. Placing the rotations advances each
+		// bucket's start to the next bucket's, so shift the table back after.
+		bucketStarts(input, n, bucketStart);
+		for (int i = 0; i < n; i++)
+			sa[bucketStart[bucket(input, n, i)]++] = i;
+		System.arraycopy(bucketStart, 0, bucketStart, 1, BUCKETS);
+		bucketStart[0] = 0;
+
+		Budget budget = new Budget((long) WORK_PER_BYTE * n + WORK_CHUNK);
+		BucketTask task = new BucketTask(input, n, sa, bucketStart, 0,
+				BUCKETS, budget, null);
+		if (parallel && n >= PARALLEL_THRESHOLD) {
+			task.grain = Math.max(n
+					/ (ForkJoinPool.getCommonPoolParallelism() * 8), 1 << 14);
+			ForkJoinPool.commonPool().invoke(task);
+		} else {
+			task.compute();
+		}
+
+		if (budget.exceeded())
+			doublingSort(input, n, sa);
+	}
+
+	/** The shared comparison budget for one sort */
+	static final class Budget {
+		private final AtomicLong remaining;
+
+		Budget(long work) {
+			remaining = new AtomicLong(work);
+		}
+
+		/** Charges work; returns false once the budget is used up */
+		boolean charge(long work) {
+			return remaining.addAndGet(-work) > 0;
+		}
+
+		boolean exceeded() {
+			return remaining.get() <= 0;
+		}
+	}
+
+	/** Sorts the buckets in [from, to), splitting the range if it is large */
+	private static final class BucketTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] input;
+		private final int n;
+		private final int[] sa;
+		private final int[] bucketStart;
+		private final int from, to;
+		private final Budget budget;
+		private final DifferenceCover cover;
+		int grain = Integer.MAX_VALUE;
+		/** Position in sa of the first rotation of bucket 0 */
+		int base;
+
+		BucketTask(byte[] input, int n, int[] sa, int[] bucketStart, int from,
+				int to, Budget budget, DifferenceCover cover) {
+			this.input = input;
+			this.n = n;
+			this.sa = sa;
+			this.bucketStart = bucketStart;
+			this.from = from;
+			this.to = to;
+			this.budget = budget;
+			this.cover = cover;
+		}
+
+		@Override
+		protected void compute() {
+			int size = bucketStart[to] - bucketStart[from];
+			if (size > grain && to - from > 1) {
+				// split where the element count is halved
+				int target = bucketStart[from] + size / 2;
+				int mid = Arrays.binarySearch(bucketStart, from, to, target);
+				if (mid < 0)
+					mid = -mid - 1;
+				mid = Math.max(from + 1, Math.min(to - 1, mid));
+
+				BucketTask left = new BucketTask(input, n, sa, bucketStart,
+						from, mid, budget, cover);
+				BucketTask right = new BucketTask(input, n, sa, bucketStart,
+						mid, to, budget, cover);
+				left.grain = right.grain = grain;
+				left.base = right.base = base;
+				invokeAll(left, right);
+				return;
+			}
+
+			// most buckets hold one rotation or none; the budget is checked
+			// once per chunk of work, when the sorter charges it
+			RangeSorter sorter = new RangeSorter(input, n, sa, budget, cover);
+			for (int b = from; b < to; b++) {
+				int lo = bucketStart[b], hi = bucketStart[b + 1];
+				if (hi - lo > 1 && !sorter.sort(lo - base, hi - base, 2))
+					return;
+			}
+			sorter.flush();
+		}
+	}
+
+	/**
+	 * Multikey quicksort of ranges of rotations that are already known to
+	 * share a prefix. Uses an explicit stack, since repetitive input would
+	 * otherwise recurse once per shared byte. Given a difference cover, it
+	 * stops at the cover's period and lets the cover order what is left.
+	 */
+	static final class RangeSorter {
+		private final byte[] input;
+		private final int n;
+		private final int[] sa;
+		private final Budget budget;
+		private final DifferenceCover cover;
+		private long work;
+		private int[] stack = new int[3 * 64];
+
+		RangeSorter(byte[] input, int n, int[] sa, Budget budget,
+				DifferenceCover cover) {
+			this.input = input;
+			this.n = n;
+			this.sa = sa;
+			this.budget = budget;
+			this.cover = cover;
+		}
+
+		/**
+		 * Sorts sa[lo..hi), whose rotations all share their first <tt>depth</tt>
+		 * bytes. Returns false if the budget ran out before the range was
+		 * sorted, in which case the range is left in an unspecified order.
+		 */
+		boolean sort(int lo, int hi, int depth) {
+			int top = 0;
+			top = push(top, lo, hi, depth);
+			while (top > 0) {
+				int d = stack[--top];
+				hi = stack[--top];
+				lo = stack[--top];
+
+				if (hi - lo < 2)
+					continue;
+				if (cover != null && d >= cover.period()) {
+					work += hi - lo;
+					cover.sort(sa, lo, hi, d);
+					continue;
+				}
+				if (d >= n) {
+					// every byte matched: identical rotations sort by index
+					Arrays.sort(sa, lo, hi);
+					continue;
+				}
+				if (hi - lo < INSERTION_THRESHOLD) {
+					insertionSort(lo, hi, d);
+				} else {
+					work += hi - lo;
+
+					int v = pivot(lo, hi, d);
+					int lt = lo, gt = hi, i = lo;
+					while (i < gt) {
+						int c = at(sa[i], d);
+						if (c < v)
+							swap(lt++, i++);
+						else if (c > v)
+							swap(i, --gt);
+						else
+							i++;
+					}
+					top = push(top, lo, lt, d);
+					top = push(top, gt, hi, d);
+					top = push(top, lt, gt, d + 1);
+				}
+
+				if (work >= WORK_CHUNK && !flush())
+					return false;
+			}
+			return true;
+		}
+
+		/** Charges local work to the shared budget */
+		boolean flush() {
+			boolean ok = budget.charge(work);
+			work = 0;
+			return ok;
+		}
+
+		private int push(int top, int lo, int hi, int d) {
+			if (top + 3 > stack.length)
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			stack[top++] = lo;
+			stack[top++] = hi;
+			stack[top++] = d;
+			return top;
+		}
+
+		/** The byte at offset d of the rotation starting at i */
+		private int at(int i, int d) {
+			int p = i + d;
+			if (p >= n)
+				p -= n;
+			return input[p];
+		}
+
+		private int pivot(int lo, int hi, int d) {
+			int a = at(sa[lo], d);
+			int b = at(sa[(lo + hi) >>> 1], d);
+			int c = at(sa[hi - 1], d);
+			if (a > b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			if (b > c)
+				b = Math.max(a, c);
+			return b;
+		}
+
+		private void insertionSort(int lo, int hi, int d) {
+			for (int i = lo + 1; i < hi; i++) {
+				int v = sa[i];
+				int j = i - 1;
+				while (j >= lo && compare(sa[j], v, d) > 0) {
+					sa[j + 1] = sa[j];
+					j--;
+				}
+				sa[j + 1] = v;
+			}
+		}
+
+		/** Compares two rotations that agree on their first d bytes */
+		private int compare(int a, int b, int d) {
+			if (cover != null)
+				return cover.compare(a, b, d);
+			int pa = a + d, pb = b + d;
+			if (pa >= n)
+				pa -= n;
+			if (pb >= n)
+				pb -= n;
+			for (int k = d; k < n; k++) {
+				int diff = input[pa] - input[pb];
+				if (diff != 0) {
+					work += k - d;
+					return diff;
+				}
+				if (++pa == n)
+					pa = 0;
+				if (++pb == n)
+					pb = 0;
+			}
+			work += n - d;
+			return a - b;
+		}
+
+		private void swap(int i, int j) {
+			int t = sa[i];
+			sa[i] = sa[j];
+			sa[j] = t;
+		}
+	}
+
+	/**
+	 * Sorts the rotations by prefix doubling: after the pass for length k,
+	 * rotations are ordered by their first 2k bytes. Each pass is two stable
+	 * counting sorts over the index order, so rotations that never separate
+	 * stay ordered by index.
+	 */
+	static void doublingSort(byte[] input, int n, int[] sa) {
+		int[] rank = new int[n];
+		int[] tmp = new int[n];
+		int[] count = new int[Math.max(n, 256) + 1];
+
+		for (int i = 0; i < n; i++)
+			rank[i] = input[i] + 128;
+		int classes = 256;
+
+		for (int k = 1;; k <<= 1) {
+			// stable sort by the rank of the second half...
+			Arrays.fill(count, 0, classes + 1, 0);
+			for (int i = 0; i < n; i++)
+				count[rank[shift(i, k, n)] + 1]++;
+			for (int r = 0; r < classes; r++)
+				count[r + 1] += count[r];
+			for (int i = 0; i < n; i++)
+				tmp[count[rank[shift(i, k, n)]]++] = i;
+
+			// ...then by the rank of the first half
+			Arrays.fill(count, 0, classes + 1, 0);
+			for (int i = 0; i < n; i++)
+				count[rank[i] + 1]++;
+			for (int r = 0; r < classes; r++)
+				count[r + 1] += count[r];
+			for (int j = 0; j < n; j++) {
+				int i = tmp[j];
+				sa[count[rank[i]]++] = i;
+			}
+
+			// renumber the classes by the (first, second) pairs
+			tmp[sa[0]] = 0;
+			int c = 0;
+			for (int j = 1; j < n; j++) {
+				int a = sa[j - 1], b = sa[j];
+				if (rank[a] != rank[b] || rank[shift(a, k, n)] != rank[shift(b, k, n)])
+					c++;
+				tmp[b] = c;
+			}
+			classes = c + 1;
+			int[] t = rank;
+			rank = tmp;
+			tmp = t;
+
+			if (classes == n || 2L * k >= n)
+				return;
+		}
+	}
+
+	/** Returns (i + k) mod n for 0 <= i, k < n without overflowing */
+	private static int shift(int i, int k, int n) {
+		int j = i - (n - k);
+		return j < 0 ? j + n : j;
+	}
+}
@@ -0,0 +1,297 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32C;
+
+import edu.cmu.cs211.compression.CompressionService;
+import edu.cmu.cs211.compression.Compressor;
+
+/**
+ * Lists and extracts the files of an archive written by {@link ArchiveWriter}.
+ * <p>
+ * Opening an archive reads only its footer and central index. An entry is
+ * then read straight from its offset, so extracting one file costs the same
+ * however large the archive is. Extracting several files expands them in
+ * parallel on the workers of a {@link CompressionService}. Every file is
+ * checked against its CRC32C.
+ * <p>
+ * The compressor must be of the same kind as the one that wrote the archive.
+ * Reads use positional channel reads, so {@link #read(Entry)} may be called by
+ * several threads at once.
+ */
+public class ArchiveReader implements Closeable {
+
+	/** A file in the archive */
+	public static final class Entry {
+		private final String name;
+		private final long offset;
+		private final int compressedLength;
+		private final int length;
+		private final int checksum;
+
+		Entry(String name, long offset, int compressedLength, int length,
+				int checksum) {
+			this.name = name;
+			this.offset = offset;
+			this.compressedLength = compressedLength;
+			this.length = length;
+			this.checksum = checksum;
+		}
+
+		/** Returns the path of the file below the archived directory */
+		public String getName() {
+			return name;
+		}
+
+		/** Returns the length of the file */
+		public int getLength() {
+			return length;
+		}
+
+		/** Returns the number of bytes the file takes in the archive */
+		public int getCompressedLength() {
+			return compressedLength;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private final Compressor compressor;
+	private final FileChannel channel;
+	private final List<Entry> entries;
+	private final Map<String, Entry> byName;
+
+	/**
+	 * Opens an archive and reads its index.
+	 *
+	 * @throws IOException
+	 *             if the archive cannot be read or is not valid
+	 * @throws NullPointerException
+	 *             if compressor or archive is null
+	 */
+	public ArchiveReader(Compressor compressor, Path archive)
+			throws IOException {
+		if (compressor == null)
+			throw new NullPointerException();
+		this.compressor = compressor;
+		this.channel = FileChannel.open(archive, StandardOpenOption.READ);
+		try {
+			this.entries = readIndex();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.byName = new HashMap<String, Entry>();
+		for (Entry entry : entries)
+			byName.put(entry.name, entry);
+	}
+
+	private List<Entry> readIndex() throws IOException {
+		long size = channel.size();
+		if (size < ArchiveWriter.FOOTER_SIZE)
+			throw new IOException("not an archive");
+		ByteBuffer footer = read(size - ArchiveWriter.FOOTER_SIZE,
+				ArchiveWriter.FOOTER_SIZE);
+		long indexOffset = footer.getLong();
+		int count = footer.getInt();
+		if (footer.getInt() != ArchiveWriter.MAGIC)
+			throw new IOException("not an archive");
+		long indexLength = size - ArchiveWriter.FOOTER_SIZE - indexOffset;
+		if (indexOffset < 0 || indexLength < 0
+				|| indexLength > Integer.MAX_VALUE || count < 0)
+			throw new IOException("corrupt archive footer");
+
+		ByteBuffer index = read(indexOffset, (int) indexLength);
+		List<Entry> list = new ArrayList<Entry>(Math.min(count, 1 << 16));
+		try {
+			for (int i = 0; i < count; i++) {
+				int nameLength = index.getInt();
+				if (nameLength < 0 || nameLength > index.remaining())
+					throw new IOException("corrupt archive index");
+				byte[] name = new byte[nameLength];
+				index.get(name);
+				long offset = index.getLong();
+				int compressedLength = index.getInt();
+				int length = index.getInt();
+				int checksum = index.getInt();
+				if (offset < 0 || compressedLength < 0 || length < 0
+						|| offset + compressedLength > indexOffset)
+					throw new IOException("corrupt archive index");
+				list.add(new Entry(new String(name, StandardCharsets.UTF_8),
+						offset, compressedLength, length, checksum));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("corrupt archive index", e);
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/* Reads length bytes from position into a new buffer, flipped for reading */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, position + buf.position()) < 0)
+				throw new EOFException();
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/** Returns the entries, sorted by name */
+	public List<Entry> entries() {
+		return entries;
+	}
+
+	/** Returns the entry with the given name, or null if there is none */
+	public Entry entry(String name) {
+		return byName.get(name);
+	}
+
+	/**
+	 * Reads and expands one file.
+	 *
+	 * @throws IOException
+	 *             if the entry cannot be read or does not match its checksum
+	 */
+	public byte[] read(Entry entry) throws IOException {
+		byte[] data;
+		try {
+			data = compressor.expand(readCompressed(entry));
+		} catch (RuntimeException e) {
+			// a damaged entry can trip up a decoder in many ways
+			throw new IOException("corrupt entry " + entry.name, e);
+		}
+		return verify(entry, data);
+	}
+
+	private byte[] readCompressed(Entry entry) throws IOException {
+		return read(entry.offset, entry.compressedLength).array();
+	}
+
+	private static byte[] verify(Entry entry, byte[] data) throws IOException {
+		CRC32C crc = new CRC32C();
+		crc.update(data, 0, data.length);
+		if (data.length != entry.length || (int) crc.getValue() != entry.checksum)
+			throw new IOException("checksum mismatch in " + entry.name);
+		return data;
+	}
+
+	/**
+	 * Extracts every file into dir.
+	 *
+	 * @see #extract(Path, Collection, int)
+	 */
+	public void extract(Path dir, int threads) throws IOException {
+		List<String> names = new ArrayList<String>(entries.size());
+		for (Entry entry : entries)
+			names.add(entry.name);
+		extract(dir, names, threads);
+	}
+
+	/**
+	 * Extracts the named files into dir, creating directories as needed and
+	 * replacing files that exist.
+	 *
+	 * @param names
+	 *            names of entries
+	 * @param threads
+	 *            the number of files expanded at once
+	 * @throws NoSuchFileException
+	 *             if a name is not in the archive; nothing is extracted
+	 * @throws IOException
+	 *             if an entry would be written outside dir, or cannot be
+	 *             read, expanded or written
+	 */
+	public void extract(Path dir, Collection<String> names, int threads)
+			throws IOException {
+		final Path root = dir.toAbsolutePath().normalize();
+		List<Entry> selected = new ArrayList<Entry>(names.size());
+		for (String name : names) {
+			Entry entry = byName.get(name);
+			if (entry == null)
+				throw new NoSuchFileException(name);
+			selected.add(entry);
+		}
+
+		CompressionService service = new CompressionService(compressor,
+				threads, threads);
+		List<CompletableFuture<Void>> written = new ArrayList<CompletableFuture<Void>>();
+		try {
+			for (final Entry entry : selected) {
+				final Path target = root.resolve(entry.name).normalize();
+				if (!target.startsWith(root) || target.equals(root))
+					throw new IOException("entry " + entry.name
+							+ " is outside the target directory");
+				CompletableFuture<byte[]> expanded;
+				try {
+					expanded = service.expand(readCompressed(entry));
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				// verified and written by the worker that expanded it
+				written.add(expanded.handle(new BiFunction<byte[], Throwable, Void>() {
+					public Void apply(byte[] data, Throwable failure) {
+						try {
+							if (failure instanceof RuntimeException)
+								// reported as read(Entry) reports it
+								throw new IOException("corrupt entry "
+										+ entry.name, failure);
+							if (failure instanceof IOException)
+								throw (IOException) failure;
+							if (failure != null)
+								throw new CompletionException(failure);
+							verify(entry, data);
+							Files.createDirectories(target.getParent());
+							Files.write(target, data);
+						} catch (IOException e) {
+							throw new UncheckedIOException(e);
+						}
+						return null;
+					}
+				}));
+			}
+			for (CompletableFuture<Void> future : written)
+				future.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		} finally {
+			service.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,210 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import edu.cmu.cs211.compression.CompressionService;
+import edu.cmu.cs211.compression.Compressor;
+
+/**
+ * Writes every regular file under a directory into one archive, compressing
+ * the files in parallel. {@link ArchiveReader} lists and extracts it.
+ * <p>
+ * Each file is compressed on its own by the wrapped compressor, on the
+ * workers of a {@link CompressionService}, while the calling thread reads the
+ * next files and writes finished entries in order. Only a few files per
+ * worker are in memory at once. After the entries comes a central index, so a
+ * reader can find any entry without reading the others, and a fixed-size
+ * footer. Everything is big-endian:
+ *
+ * <pre>
+ * entry 0 .. entry n-1, each a file compressed on its own
+ * index:  n entries of
+ *         int    length of the name in bytes
+ *         byte[] name, the path below the directory in UTF-8 with / separators
+ *         long   offset of the entry from the start of the archive
+ *         int    compressed length
+ *         int    uncompressed length
+ *         int    CRC32C of the uncompressed file
+ * footer: long   offset of the index
+ *         int    n
+ *         int    MAGIC
+ * </pre>
+ *
+ * Entries are sorted by name, so the same directory always gives the same
+ * archive. Files must be shorter than 2 GB.
+ */
+public class ArchiveWriter {
+
+	/** Marks the end of an archive */
+	public static final int MAGIC = 0x545a4131; // "TZA1"
+
+	/** Size of the footer in bytes */
+	static final int FOOTER_SIZE = 8 + 4 + 4;
+
+	private final Compressor compressor;
+	private final int threads;
+
+	/**
+	 * Creates a writer.
+	 *
+	 * @param compressor
+	 *            compresses each file
+	 * @param threads
+	 *            the number of files compressed at once
+	 * @throws IllegalArgumentException
+	 *             if threads is less than 1
+	 * @throws NullPointerException
+	 *             if compressor is null
+	 */
+	public ArchiveWriter(Compressor compressor, int threads) {
+		if (compressor == null)
+			throw new NullPointerException();
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be positive");
+		this.compressor = compressor;
+		this.threads = threads;
+	}
+
+	/**
+	 * Archives every regular file under dir.
+	 *
+	 * @return the number of files archived
+	 * @throws IOException
+	 *             if a file cannot be read or compressed, or the archive
+	 *             cannot be written
+	 */
+	public int write(Path dir, Path archive) throws IOException {
+		List<Path> files = listFiles(dir);
+		CompressionService service = new CompressionService(compressor,
+				threads, threads);
+		OutputStream out = new BufferedOutputStream(Files
+				.newOutputStream(archive));
+		try {
+			ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+			DataOutputStream index = new DataOutputStream(indexBytes);
+			ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+			long offset = 0;
+			for (Path file : files) {
+				byte[] data = Files.readAllBytes(file);
+				CRC32C crc = new CRC32C();
+				crc.update(data, 0, data.length);
+				CompletableFuture<byte[]> compressed;
+				try {
+					compressed = service.compress(data);
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				pending.add(new Pending(name(dir, file), data.length,
+						(int) crc.getValue(), compressed));
+				// write what is done, and wait for the oldest if too much is held
+				while (!pending.isEmpty()
+						&& (pending.peek().compressed.isDone() || pending.size() > 4 * threads))
+					offset = writeEntry(pending.poll(), out, index, offset);
+			}
+			while (!pending.isEmpty())
+				offset = writeEntry(pending.poll(), out, index, offset);
+
+			index.flush();
+			indexBytes.writeTo(out);
+			DataOutputStream footer = new DataOutputStream(out);
+			footer.writeLong(offset);
+			footer.writeInt(files.size());
+			footer.writeInt(MAGIC);
+			footer.flush();
+		} finally {
+			service.close();
+			out.close();
+		}
+		return files.size();
+	}
+
+	/* Every regular file under dir, sorted by path */
+	private static List<Path> listFiles(Path dir) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		Stream<Path> walk = Files.walk(dir);
+		try {
+			Iterator<Path> it = walk.iterator();
+			while (it.hasNext()) {
+				Path p = it.next();
+				if (Files.isRegularFile(p))
+					files.add(p);
+			}
+		} finally {
+			walk.close();
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/* The path of file below dir, with / between the parts */
+	private static String name(Path dir, Path file) {
+		StringBuilder name = new StringBuilder();
+		for (Path part : dir.relativize(file)) {
+			if (name.length() > 0)
+				name.append('/');
+			name.append(part.toString());
+		}
+		return name.toString();
+	}
+
+	/* Waits for an entry, writes it and adds it to the index; returns the next offset */
+	private static long writeEntry(Pending entry, OutputStream out,
+			DataOutputStream index, long offset) throws IOException {
+		byte[] compressed;
+		try {
+			compressed = entry.compressed.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException("cannot compress " + entry.name, cause);
+		}
+		out.write(compressed);
+
+		byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+		index.writeInt(name.length);
+		index.write(name);
+		index.writeLong(offset);
+		index.writeInt(compressed.length);
+		index.writeInt(entry.length);
+		index.writeInt(entry.checksum);
+		return offset + compressed.length;
+	}
+
+	/** A file being compressed */
+	private static final class Pending {
+		final String name;
+		final int length;
+		final int checksum;
+		final CompletableFuture<byte[]> compressed;
+
+		Pending(String name, int length, int checksum,
+				CompletableFuture<byte[]> compressed) {
+			this.name = name;
+			this.length = length;
+			this.checksum = checksum;
+			this.compressed = compressed;
+		}
+	}
+}
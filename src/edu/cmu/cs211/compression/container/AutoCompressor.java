@@ -0,0 +1,232 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.IOException;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+import edu.cmu.cs211.compression.io.BitReader;
+import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
+import edu.cmu.cs211.compression.util.EntropyEstimator;
+
+/**
+ * A compressor that picks a method for every block of its input by sampling
+ * the block, so that no one has to know in advance what the data is like.
+ * <p>
+ * Each block is sampled with an {@link EntropyEstimator}. A block whose bytes
+ * look uniformly random and unrelated to their context, as compressed media
+ * do, is stored as it is, which costs no CPU on either side. A block whose
+ * bytes are often predicted by the bytes before them, as in text and source
+ * code, goes to a {@link BurrowsWheelerCompressor}. Any other block is
+ * Huffman coded, which captures skewed byte frequencies at a fraction of the
+ * cost of sorting. A block that its method fails to shrink after all is
+ * stored too, so the output is never more than a few bytes a block longer
+ * than the input. The method is recorded in each block's header:
+ *
+ * <pre>
+ * int    block size
+ * blocks: int    uncompressed length, at least 1 and at most the block size
+ *         byte   method: STORED, HUFFMAN or BURROWS_WHEELER
+ *         int    compressed length, less than the uncompressed one, unless
+ *                STORED
+ *         the block, stored or compressed on its own
+ * int    0
+ * </pre>
+ *
+ * The lengths are written with {@link BitWriter#writeInt(int)}. Since the
+ * block size is in the stream, any AutoCompressor expands the output of any
+ * other. Block lengths are checked against the block size and against the
+ * bytes left in the stream before anything is allocated for them.
+ */
+public class AutoCompressor extends Compressor {
+
+	/** Method of a block copied as it is */
+	public static final int STORED = 0;
+
+	/** Method of a block compressed by a {@link HuffmanCompressor} */
+	public static final int HUFFMAN = 1;
+
+	/** Method of a block compressed by a {@link BurrowsWheelerCompressor} */
+	public static final int BURROWS_WHEELER = 2;
+
+	/** Default number of uncompressed bytes per block */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	/** Repeat ratio from which a block is worth sorting */
+	private static final double SORTED_REPEAT_RATIO = 0.25;
+
+	private final HuffmanCompressor huffman = new HuffmanCompressor();
+	private final BurrowsWheelerCompressor burrowsWheeler = new BurrowsWheelerCompressor();
+	private final int blockSize;
+
+	/** Creates a compressor with the default block size */
+	public AutoCompressor() {
+		this(DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a compressor.
+	 *
+	 * @param blockSize
+	 *            the largest number of input bytes in a block
+	 * @throws IllegalArgumentException
+	 *             if blockSize is less than 1
+	 */
+	public AutoCompressor(int blockSize) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("block size must be positive");
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Returns the method a block would be compressed with.
+	 *
+	 * @return {@link #STORED}, {@link #HUFFMAN} or {@link #BURROWS_WHEELER}
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range within b
+	 */
+	public static int chooseMethod(byte[] b, int off, int len) {
+		if (EntropyEstimator.looksIncompressible(b, off, len))
+			return STORED;
+		if (EntropyEstimator.repeatRatio(b, off, len) >= SORTED_REPEAT_RATIO)
+			return BURROWS_WHEELER;
+		return HUFFMAN;
+	}
+
+	/* The compressor of a method, or null if the method stores its blocks */
+	private Compressor compressor(int method) throws IOException {
+		switch (method) {
+		case STORED:
+			return null;
+		case HUFFMAN:
+			return huffman;
+		case BURROWS_WHEELER:
+			return burrowsWheeler;
+		default:
+			throw new IOException("unknown block method " + method);
+		}
+	}
+
+	/**
+	 * Returns a bound on the output for an input of the given length: every
+	 * block at its stored length, plus the stream and block headers.
+	 */
+	@Override
+	public int maxCompressedLength(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("length must be >= 0");
+		int rest = length % blockSize;
+		long bytes = (long) (length / blockSize) * maxBlockLength(blockSize);
+		if (rest > 0)
+			bytes += maxBlockLength(rest);
+		// the block size and the zero length that ends the blocks
+		return checkedLength(bytes + MAX_VARINT_BYTES + 1);
+	}
+
+	private static int maxBlockLength(int length) {
+		return checkedLength(MAX_VARINT_BYTES + 1 + (long) length);
+	}
+
+	@Override
+	public void compress(BitReader reader, BitWriter writer) throws IOException {
+		compress(reader, writer, new CompressionContext());
+	}
+
+	@Override
+	public void compress(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		byte[] block = new byte[Math.min(blockSize, Math.max(reader.length(),
+				1))];
+		CompressionContext.OutputBuffer payload = new CompressionContext.OutputBuffer();
+		writer.writeInt(blockSize);
+		int n;
+		while ((n = readBlock(reader, block, block.length)) > 0) {
+			int mark = context.startStage();
+			int method = chooseMethod(block, 0, n);
+			Compressor compressor = compressor(method);
+			if (compressor != null) {
+				payload.reset();
+				compressor.compress(new ByteArrayBitReader(block, 0, n),
+						new OutputStreamBitWriter(payload), context);
+				// the payload length would make it no shorter than storing
+				if (payload.size() + MAX_VARINT_BYTES > n)
+					compressor = null;
+			}
+			writer.writeInt(n);
+			if (compressor == null) {
+				writer.writeByte((byte) STORED);
+				writer.writeBytes(block, 0, n);
+				context.endStage(Stage.BLOCK, mark, n, n);
+				continue;
+			}
+			writer.writeByte((byte) method);
+			writer.writeInt(payload.size());
+			writer.writeBytes(payload.array(), 0, payload.size());
+			context.endStage(Stage.BLOCK, mark, n, payload.size());
+		}
+		writer.writeInt(0);
+		writer.flush();
+	}
+
+	@Override
+	public void expand(BitReader reader, BitWriter writer) throws IOException {
+		expand(reader, writer, new CompressionContext());
+	}
+
+	@Override
+	public void expand(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (reader.length() == 0)
+			return;
+
+		int maxLength = reader.readInt();
+		if (maxLength < 1)
+			throw new IOException("corrupt stream header");
+		byte[] block = new byte[0];
+		byte[] payload = new byte[0];
+		CompressionContext.OutputBuffer expanded = new CompressionContext.OutputBuffer();
+		int rawLength;
+		while ((rawLength = reader.readInt()) != 0) {
+			int method = reader.readByte();
+			if (rawLength < 0 || rawLength > maxLength || method < 0)
+				throw new IOException("corrupt block header");
+			Compressor compressor = compressor(method);
+			if (compressor == null) {
+				// the lengths are as untrusted as the block size, but the
+				// bytes of a stored block have to be in the stream
+				if (rawLength > reader.length())
+					throw new IOException("corrupt block header");
+				if (block.length < rawLength)
+					block = new byte[rawLength];
+				readFully(reader, block, rawLength);
+				writer.writeBytes(block, 0, rawLength);
+				continue;
+			}
+
+			int mark = context.startStage();
+			int payloadLength = reader.readInt();
+			// a payload no shorter than the block would have been stored
+			if (payloadLength < 0 || payloadLength >= rawLength
+					|| payloadLength > reader.length())
+				throw new IOException("corrupt block header");
+			if (payload.length < payloadLength)
+				payload = new byte[payloadLength];
+			readFully(reader, payload, payloadLength);
+			// grows with what the payload expands to, not with rawLength
+			expanded.reset();
+			compressor.expand(new ByteArrayBitReader(payload, 0, payloadLength),
+					new OutputStreamBitWriter(expanded), context);
+			int n = expanded.size();
+			if (n != rawLength)
+				throw new IOException("block expanded to " + n
+						+ " bytes instead of " + rawLength);
+			writer.writeBytes(expanded.array(), 0, n);
+			context.endStage(Stage.BLOCK, mark, payloadLength, n);
+		}
+		writer.flush();
+	}
+}
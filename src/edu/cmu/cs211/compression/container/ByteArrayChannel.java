@@ -0,0 +1,57 @@
+package edu.cmu.cs211.compression.container;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * A read-only SeekableByteChannel over a byte array.
+ */
+final class ByteArrayChannel implements SeekableByteChannel {
+
+	private final byte[] bytes;
+	private int position;
+
+	ByteArrayChannel(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	public int read(ByteBuffer dst) {
+		if (position >= bytes.length)
+			return -1;
+		int n = Math.min(dst.remaining(), bytes.length - position);
+		dst.put(bytes, position, n);
+		position += n;
+		return n;
+	}
+
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	public long position() {
+		return position;
+	}
+
+	public SeekableByteChannel position(long newPosition) {
+		if (newPosition < 0)
+			throw new IllegalArgumentException();
+		position = (int) Math.min(newPosition, bytes.length);
+		return this;
+	}
+
+	public long size() {
+		return bytes.length;
+	}
+
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	public boolean isOpen() {
+		return true;
+	}
+
+	public void close() {
+	}
+}
@@ -0,0 +1,203 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.ByteArrayBitWriter;
+
+/**
+ * An output stream that compresses what is written to it a block at a time
+ * with any {@link Compressor}, for code that wants to stream data rather than
+ * hold all of it in memory. {@link ExpandingInputStream} reads it back.
+ * <p>
+ * Bytes are collected until a block is full, and each full block is
+ * compressed on its own and written as a frame. At most one block of input
+ * and one of output are held at a time, and both arrays, like the
+ * compressor's scratch space, are reused from block to block. The stream is
+ * big-endian:
+ *
+ * <pre>
+ * int    MAGIC
+ * int    block size
+ * frames: int    uncompressed length, at least 1 and at most the block size
+ *         int    compressed length
+ *         int    CRC32C of the uncompressed block
+ *         the block compressed on its own
+ * int    0
+ * </pre>
+ *
+ * {@link #flush()} writes the block collected so far as a short frame, so a
+ * reader can expand everything written up to that point. {@link #finish()}
+ * and {@link #close()} write the final block and the end marker.
+ * <p>
+ * The stream is not thread-safe.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+	/** Starts a stream of frames */
+	public static final int MAGIC = 0x545a4632; // "TZF2"
+
+	/** Block size used by the constructor that does not take one */
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	/** Size of a frame header in bytes */
+	static final int HEADER_SIZE = 4 + 4 + 4;
+
+	private final OutputStream out;
+	private final Compressor compressor;
+	private final byte[] block;
+	private int count;
+	private final ByteArrayBitWriter compressed;
+	private final byte[] header = new byte[HEADER_SIZE];
+	private final CRC32C crc = new CRC32C();
+	private final CompressionContext context = new CompressionContext();
+	private boolean finished;
+
+	/**
+	 * Creates a stream with blocks of {@link #DEFAULT_BLOCK_SIZE} bytes.
+	 *
+	 * @see #CompressingOutputStream(OutputStream, Compressor, int)
+	 */
+	public CompressingOutputStream(OutputStream out, Compressor compressor)
+			throws IOException {
+		this(out, compressor, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Creates a stream and writes the magic number and block size to out.
+	 *
+	 * @param out
+	 *            where the frames are written
+	 * @param compressor
+	 *            compresses each block
+	 * @param blockSize
+	 *            the number of bytes collected before a block is compressed
+	 * @throws IOException
+	 *             if the stream header cannot be written
+	 * @throws IllegalArgumentException
+	 *             if blockSize is less than 1, or if the compressor's bound
+	 *             for a block of that size does not fit in an array
+	 * @throws NullPointerException
+	 *             if out or compressor is null
+	 */
+	public CompressingOutputStream(OutputStream out, Compressor compressor,
+			int blockSize) throws IOException {
+		if (out == null || compressor == null)
+			throw new NullPointerException();
+		if (blockSize < 1)
+			throw new IllegalArgumentException("block size must be positive");
+		// the reader bounds every frame by this
+		compressor.maxCompressedLength(blockSize);
+		this.out = out;
+		this.compressor = compressor;
+		this.block = new byte[blockSize];
+		this.compressed = new ByteArrayBitWriter(blockSize / 2);
+		putInt(header, 0, MAGIC);
+		putInt(header, 4, blockSize);
+		out.write(header, 0, 8);
+	}
+
+	/**
+	 * Sets the listener told how long each block takes, or null for none.
+	 * Each frame is reported as a {@link Stage#BLOCK} stage.
+	 */
+	public void setListener(CompressionListener listener) {
+		context.setListener(listener);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == block.length)
+			writeBlock();
+		block[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IndexOutOfBoundsException();
+		ensureOpen();
+		while (len > 0) {
+			if (count == block.length)
+				writeBlock();
+			int n = Math.min(len, block.length - count);
+			System.arraycopy(b, off, block, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Writes the bytes collected so far as a frame, then flushes the
+	 * underlying stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (!finished && count > 0)
+			writeBlock();
+		out.flush();
+	}
+
+	/**
+	 * Writes the last frame and the end marker without closing the
+	 * underlying stream. Nothing more may be written afterwards.
+	 */
+	public void finish() throws IOException {
+		if (finished)
+			return;
+		if (count > 0)
+			writeBlock();
+		putInt(header, 0, 0);
+		out.write(header, 0, 4);
+		finished = true;
+	}
+
+	/** Finishes the stream and closes the underlying stream */
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (finished)
+			throw new IOException("stream finished");
+	}
+
+	/* Compresses the collected bytes and writes them as one frame */
+	private void writeBlock() throws IOException {
+		int mark = context.startStage();
+		compressed.reset();
+		compressor.compress(new ByteArrayBitReader(block, 0, count),
+				compressed, context);
+		crc.reset();
+		crc.update(block, 0, count);
+
+		putInt(header, 0, count);
+		putInt(header, 4, compressed.size());
+		putInt(header, 8, (int) crc.getValue());
+		out.write(header);
+		out.write(compressed.array(), 0, compressed.size());
+		context.endStage(Stage.BLOCK, mark, count, HEADER_SIZE
+				+ compressed.size());
+		count = 0;
+	}
+
+	static void putInt(byte[] b, int off, int v) {
+		b[off] = (byte) (v >>> 24);
+		b[off + 1] = (byte) (v >>> 16);
+		b[off + 2] = (byte) (v >>> 8);
+		b[off + 3] = (byte) v;
+	}
+}
@@ -0,0 +1,178 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32C;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.Compressor;
+
+/**
+ * An input stream that expands what a {@link CompressingOutputStream} wrote,
+ * one frame at a time. The underlying stream is only read forward, so it
+ * needs no mark, skip or known length, and at most one compressed and one
+ * expanded block are held at a time. Both arrays are reused from frame to
+ * frame and only grow when a frame is larger than any before it.
+ * <p>
+ * Every block is checked against its CRC32C. The compressor must be of the
+ * same kind as the one that wrote the stream. Frame lengths are checked
+ * against the block size in the stream header before anything is allocated,
+ * so a damaged header cannot make the stream allocate more than one block
+ * and the compressor's bound for it.
+ * <p>
+ * The stream is not thread-safe.
+ */
+public class ExpandingInputStream extends InputStream {
+
+	private final InputStream in;
+	private final Compressor compressor;
+	private final byte[] header = new byte[CompressingOutputStream.HEADER_SIZE];
+	private final CRC32C crc = new CRC32C();
+	private final CompressionContext context = new CompressionContext();
+	private final int blockSize;
+	private final int maxCompressed;
+
+	private byte[] compressed = new byte[0];
+	private byte[] block = new byte[0];
+	private int count;
+	private int pos;
+	private boolean eof;
+
+	/**
+	 * Creates a stream and reads the magic number and block size from in.
+	 *
+	 * @param in
+	 *            the frames written by a CompressingOutputStream
+	 * @param compressor
+	 *            expands each block
+	 * @throws IOException
+	 *             if in does not start with the magic number and a block
+	 *             size the compressor can bound
+	 * @throws NullPointerException
+	 *             if in or compressor is null
+	 */
+	public ExpandingInputStream(InputStream in, Compressor compressor)
+			throws IOException {
+		if (in == null || compressor == null)
+			throw new NullPointerException();
+		this.in = in;
+		this.compressor = compressor;
+		readFully(header, 8);
+		if (getInt(header, 0) != CompressingOutputStream.MAGIC)
+			throw new IOException("not a compressed stream");
+		blockSize = getInt(header, 4);
+		if (blockSize < 1)
+			throw new IOException("corrupt stream header");
+		try {
+			maxCompressed = compressor.maxCompressedLength(blockSize);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupt stream header", e);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos == count && !nextBlock())
+			return -1;
+		return block[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+		if (pos == count && !nextBlock())
+			return -1;
+		int n = Math.min(len, count - pos);
+		System.arraycopy(block, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && (pos < count || nextBlock())) {
+			int step = (int) Math.min(n - skipped, count - pos);
+			pos += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	/** Returns the number of expanded bytes left in the current block */
+	@Override
+	public int available() {
+		return count - pos;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/* Reads and expands the next frame; returns false after the end marker */
+	private boolean nextBlock() throws IOException {
+		if (eof)
+			return false;
+		readFully(header, 4);
+		int rawLength = getInt(header, 0);
+		if (rawLength == 0) {
+			eof = true;
+			return false;
+		}
+		readFully(header, 8);
+		int compressedLength = getInt(header, 0);
+		int checksum = getInt(header, 4);
+		if (rawLength < 0 || rawLength > blockSize || compressedLength < 0
+				|| compressedLength > maxCompressed)
+			throw new IOException("corrupt frame header");
+
+		if (block.length < rawLength)
+			block = new byte[rawLength];
+		if (compressed.length < compressedLength)
+			compressed = new byte[compressedLength];
+		readFully(compressed, compressedLength);
+
+		int n;
+		try {
+			n = compressor.expand(compressed, 0, compressedLength, block, 0,
+					context);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("frame expands to more than " + rawLength
+					+ " bytes", e);
+		} catch (RuntimeException e) {
+			// a damaged frame can trip up a decoder in many ways
+			throw new IOException("corrupt frame", e);
+		}
+		if (n != rawLength)
+			throw new IOException("frame expanded to " + n
+					+ " bytes instead of " + rawLength);
+		crc.reset();
+		crc.update(block, 0, n);
+		if ((int) crc.getValue() != checksum)
+			throw new IOException("checksum mismatch");
+		count = n;
+		pos = 0;
+		return true;
+	}
+
+	/* Reads len bytes into the start of b */
+	private void readFully(byte[] b, int len) throws IOException {
+		int read = 0;
+		while (read < len) {
+			int n = in.read(b, read, len - read);
+			if (n < 0)
+				throw new EOFException();
+			read += n;
+		}
+	}
+
+	private static int getInt(byte[] b, int off) {
+		return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16
+				| (b[off + 2] & 0xff) << 8 | b[off + 3] & 0xff;
+	}
+}
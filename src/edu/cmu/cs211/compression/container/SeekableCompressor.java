@@ -0,0 +1,203 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.io.BitReader;
+import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
+
+/**
+ * A compressor that writes a seekable container around another compressor.
+ * <p>
+ * The input is cut into blocks of a fixed size (the last may be shorter) and
+ * each block is compressed on its own by the wrapped compressor. After the
+ * blocks comes an index holding the offset of every compressed block, and
+ * after the index a fixed-size footer, so that a {@link SeekableExpander} can
+ * find the footer from the end of a file, read the index, and expand only the
+ * blocks covering the bytes it is asked for. The index and footer are
+ * big-endian:
+ *
+ * <pre>
+ * block 0 .. block n-1
+ * index:  n entries of
+ *         long   offset of the block from the start of the container
+ *         int    CRC32C of the uncompressed block
+ * footer: long   uncompressed length
+ *         int    block size
+ *         int    n
+ *         long   offset of the index
+ *         int    CRC32C of all the uncompressed data
+ *         int    MAGIC
+ * </pre>
+ *
+ * Expanding a container with {@link #expand(BitReader, BitWriter)} reads the
+ * whole container into memory and expands every block in order, checking each
+ * block and then the whole stream against their checksums unless the
+ * compressor was created without verification. The wrapped compressor must be
+ * of the same kind on both sides.
+ * <p>
+ * The checksums use {@link CRC32C}, which the JVM computes with the
+ * processor's CRC instructions where it has them, so verifying costs a small
+ * fraction of expanding.
+ */
+public class SeekableCompressor extends Compressor {
+
+	/** Marks the end of a seekable container */
+	public static final int MAGIC = 0x545a5331; // "TZS1"
+
+	/** Size of an index entry in bytes */
+	static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+	/** Size of the footer in bytes */
+	static final int FOOTER_SIZE = 8 + 4 + 4 + 8 + 4 + 4;
+
+	/** Default number of uncompressed bytes per block */
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+	private final Compressor compressor;
+	private final int blockSize;
+	private final boolean verifyChecksums;
+
+	/** Creates a container with the default block size */
+	public SeekableCompressor(Compressor compressor) {
+		this(compressor, DEFAULT_BLOCK_SIZE);
+	}
+
+	/** Creates a container compressor that verifies checksums on expand */
+	public SeekableCompressor(Compressor compressor, int blockSize) {
+		this(compressor, blockSize, true);
+	}
+
+	/**
+	 * Creates a container compressor.
+	 *
+	 * @param compressor
+	 *            the compressor each block is compressed with
+	 * @param blockSize
+	 *            the number of uncompressed bytes per block
+	 * @param verifyChecksums
+	 *            whether expand checks the expanded data against the stored
+	 *            checksums
+	 * @throws IllegalArgumentException
+	 *             if blockSize is less than 1
+	 * @throws NullPointerException
+	 *             if compressor is null
+	 */
+	public SeekableCompressor(Compressor compressor, int blockSize,
+			boolean verifyChecksums) {
+		if (compressor == null)
+			throw new NullPointerException();
+		if (blockSize < 1)
+			throw new IllegalArgumentException("block size must be positive");
+		this.compressor = compressor;
+		this.blockSize = blockSize;
+		this.verifyChecksums = verifyChecksums;
+	}
+
+	/** Returns the compressor blocks are compressed with */
+	public Compressor getCompressor() {
+		return compressor;
+	}
+
+	/**
+	 * Returns a bound on the container for an input of the given length: the
+	 * wrapped compressor's bound for every block, plus the index and footer.
+	 */
+	@Override
+	public int maxCompressedLength(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("length must be >= 0");
+		int rest = length % blockSize;
+		int blocks = length / blockSize + (rest > 0 ? 1 : 0);
+		long bytes = (long) (length / blockSize)
+				* compressor.maxCompressedLength(blockSize);
+		if (rest > 0)
+			bytes += compressor.maxCompressedLength(rest);
+		return checkedLength(bytes + (long) INDEX_ENTRY_SIZE * blocks
+				+ FOOTER_SIZE);
+	}
+
+	@Override
+	public void compress(BitReader reader, BitWriter writer) throws IOException {
+		compress(reader, writer, new CompressionContext());
+	}
+
+	@Override
+	public void compress(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		long total = reader.length();
+		int blocks = (int) ((total + blockSize - 1) / blockSize);
+		long[] offsets = new long[blocks];
+		int[] checksums = new int[blocks];
+		CRC32C blockCrc = new CRC32C();
+		CRC32C streamCrc = new CRC32C();
+		byte[] block = new byte[(int) Math.min(blockSize, total)];
+		CompressionContext.OutputBuffer compressed = new CompressionContext.OutputBuffer();
+
+		long offset = 0;
+		for (int i = 0; i < blocks; i++) {
+			int length = (int) Math.min(blockSize, total - (long) i * blockSize);
+			readFully(reader, block, length);
+			blockCrc.reset();
+			blockCrc.update(block, 0, length);
+			checksums[i] = (int) blockCrc.getValue();
+			streamCrc.update(block, 0, length);
+			compressed.reset();
+			int mark = context.startStage();
+			compressor.compress(new ByteArrayBitReader(block, 0, length),
+					new OutputStreamBitWriter(compressed), context);
+			context.endStage(Stage.BLOCK, mark, length, compressed.size());
+			offsets[i] = offset;
+			writer.writeBytes(compressed.array(), 0, compressed.size());
+			offset += compressed.size();
+		}
+
+		ByteBuffer trailer = ByteBuffer.allocate(INDEX_ENTRY_SIZE * blocks
+				+ FOOTER_SIZE);
+		for (int i = 0; i < blocks; i++)
+			trailer.putLong(offsets[i]).putInt(checksums[i]);
+		trailer.putLong(total).putInt(blockSize).putInt(blocks).putLong(offset)
+				.putInt((int) streamCrc.getValue()).putInt(MAGIC);
+		writer.writeBytes(trailer.array());
+		writer.flush();
+	}
+
+	@Override
+	public void expand(BitReader reader, BitWriter writer) throws IOException {
+		expand(reader, writer, new CompressionContext());
+	}
+
+	@Override
+	public void expand(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (reader.length() == 0)
+			return;
+
+		byte[] container = new byte[reader.length()];
+		readFully(reader, container, container.length);
+		SeekableExpander expander = new SeekableExpander(compressor,
+				new ByteArrayChannel(container), 0);
+		expander.setVerifyChecksums(verifyChecksums);
+		CRC32C streamCrc = new CRC32C();
+		try {
+			for (int i = 0; i < expander.blockCount(); i++) {
+				byte[] block = expander.expandBlock(i, context);
+				if (verifyChecksums)
+					streamCrc.update(block, 0, block.length);
+				writer.writeBytes(block);
+			}
+			if (verifyChecksums
+					&& (int) streamCrc.getValue() != expander.streamChecksum())
+				throw new IOException("checksum mismatch in stream");
+		} finally {
+			expander.close();
+		}
+		writer.flush();
+	}
+}
@@ -0,0 +1,329 @@
+package edu.cmu.cs211.compression.container;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.DecodeCache;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.ByteArrayBitWriter;
+
+/**
+ * Reads arbitrary ranges of the uncompressed data in a container written by
+ * {@link SeekableCompressor}, expanding only the blocks that cover them.
+ * <p>
+ * The footer and index are read once when the expander is created. Recently
+ * expanded blocks are kept in a least-recently-used cache, so reads that stay
+ * near each other expand each block once. Each expanded block is checked
+ * against its CRC32C unless verification is turned off.
+ * <p>
+ * This class is thread-safe; concurrent reads are served one at a time.
+ */
+public class SeekableExpander implements Closeable {
+
+	/** Default number of expanded blocks kept in the cache */
+	public static final int DEFAULT_CACHE_BLOCKS = 8;
+
+	private final Compressor compressor;
+	private final SeekableByteChannel channel;
+
+	/** Position of the start of the container in the channel */
+	private final long base;
+	private final long length;
+	private final int blockSize;
+	/** Offset of each block from base, followed by the offset of the index */
+	private final long[] offsets;
+	/** CRC32C of each uncompressed block */
+	private final int[] checksums;
+	/** CRC32C of all the uncompressed data */
+	private final int streamChecksum;
+	private volatile boolean verifyChecksums = true;
+
+	private final Map<Integer, byte[]> cache;
+	private final CompressionContext context = new CompressionContext();
+
+	/**
+	 * Opens a container file with the default cache size. The file is closed
+	 * by {@link #close()}.
+	 *
+	 * @param compressor
+	 *            the compressor the blocks were compressed with
+	 * @throws IOException
+	 *             if the file cannot be read or is not a valid container
+	 */
+	public SeekableExpander(Compressor compressor, Path file)
+			throws IOException {
+		this(compressor, FileChannel.open(file, StandardOpenOption.READ),
+				DEFAULT_CACHE_BLOCKS);
+	}
+
+	/**
+	 * Reads the container that ends at the end of channel, with the default
+	 * cache size.
+	 *
+	 * @see #SeekableExpander(Compressor, SeekableByteChannel, int)
+	 */
+	public SeekableExpander(Compressor compressor, SeekableByteChannel channel)
+			throws IOException {
+		this(compressor, channel, DEFAULT_CACHE_BLOCKS);
+	}
+
+	/**
+	 * Reads the container that ends at the end of channel. Data before the
+	 * container is ignored. The channel is closed by {@link #close()}, or
+	 * right away if it does not hold a valid container.
+	 *
+	 * @param compressor
+	 *            the compressor the blocks were compressed with
+	 * @param channel
+	 *            the channel holding the container
+	 * @param cacheBlocks
+	 *            the number of expanded blocks to keep, or 0 to keep none
+	 * @throws IOException
+	 *             if the channel cannot be read or does not end with a valid
+	 *             container
+	 * @throws IllegalArgumentException
+	 *             if cacheBlocks is negative
+	 * @throws NullPointerException
+	 *             if compressor or channel is null
+	 */
+	public SeekableExpander(Compressor compressor, SeekableByteChannel channel,
+			int cacheBlocks) throws IOException {
+		this(compressor, channel, cacheBlocks, null);
+	}
+
+	/**
+	 * Reads the container that ends at the end of channel, looking up and
+	 * caching expanded blocks in a decode cache that may be shared with other
+	 * expanders and compressors. Blocks are shared through the decode cache
+	 * only between expanders using the same compressor instance.
+	 *
+	 * @param decodeCache
+	 *            the shared cache, or null for none
+	 * @see #SeekableExpander(Compressor, SeekableByteChannel, int)
+	 */
+	public SeekableExpander(Compressor compressor, SeekableByteChannel channel,
+			final int cacheBlocks, DecodeCache decodeCache) throws IOException {
+		if (compressor == null || channel == null)
+			throw new NullPointerException();
+		if (cacheBlocks < 0)
+			throw new IllegalArgumentException("cache size must be >= 0");
+		this.compressor = compressor;
+		this.channel = channel;
+		this.context.setDecodeCache(decodeCache);
+		this.cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > cacheBlocks;
+			}
+		};
+
+		try {
+			long size = channel.size();
+			if (size < SeekableCompressor.FOOTER_SIZE)
+				throw new IOException("not a seekable container");
+			ByteBuffer footer = readAt(size - SeekableCompressor.FOOTER_SIZE,
+					SeekableCompressor.FOOTER_SIZE);
+			long length = footer.getLong();
+			int blockSize = footer.getInt();
+			int blocks = footer.getInt();
+			long indexOffset = footer.getLong();
+			int streamChecksum = footer.getInt();
+			if (footer.getInt() != SeekableCompressor.MAGIC)
+				throw new IOException("not a seekable container");
+			if (length < 0 || blockSize < 1 || blocks < 0
+					|| (length + blockSize - 1) / blockSize != blocks)
+				throw new IOException("corrupt container footer");
+
+			long base = size - SeekableCompressor.FOOTER_SIZE
+					- (long) SeekableCompressor.INDEX_ENTRY_SIZE * blocks
+					- indexOffset;
+			if (indexOffset < 0 || base < 0)
+				throw new IOException("corrupt container footer");
+			ByteBuffer index = readAt(base + indexOffset,
+					SeekableCompressor.INDEX_ENTRY_SIZE * blocks);
+			long[] offsets = new long[blocks + 1];
+			int[] checksums = new int[blocks];
+			for (int i = 0; i < blocks; i++) {
+				offsets[i] = index.getLong();
+				checksums[i] = index.getInt();
+			}
+			offsets[blocks] = indexOffset;
+			for (int i = 0; i < blocks; i++) {
+				if (offsets[i] < 0 || offsets[i] > offsets[i + 1])
+					throw new IOException("corrupt container index");
+			}
+
+			this.length = length;
+			this.blockSize = blockSize;
+			this.base = base;
+			this.offsets = offsets;
+			this.checksums = checksums;
+			this.streamChecksum = streamChecksum;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets whether every expanded block is checked against the CRC32C stored
+	 * for it in the index. Verification is on by default.
+	 */
+	public void setVerifyChecksums(boolean verifyChecksums) {
+		this.verifyChecksums = verifyChecksums;
+	}
+
+	/** Returns the number of uncompressed bytes in the container */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * Reads up to dst.length bytes starting at an uncompressed offset.
+	 *
+	 * @see #read(long, byte[], int, int)
+	 */
+	public int read(long offset, byte[] dst) throws IOException {
+		return read(offset, dst, 0, dst.length);
+	}
+
+	/**
+	 * Reads up to len uncompressed bytes starting at offset into
+	 * <tt>dst[off..off+len)</tt>. Fewer than len bytes are read only when the
+	 * end of the data is reached.
+	 *
+	 * @return the number of bytes read, or -1 if offset is at or past the end
+	 *         of the data
+	 * @throws IOException
+	 *             if a block cannot be read or expanded, or does not match
+	 *             its checksum
+	 * @throws IllegalArgumentException
+	 *             if offset is negative
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range of dst
+	 */
+	public synchronized int read(long offset, byte[] dst, int off, int len)
+			throws IOException {
+		if (offset < 0)
+			throw new IllegalArgumentException("negative offset");
+		if (off < 0 || len < 0 || off > dst.length - len)
+			throw new IndexOutOfBoundsException();
+		if (offset >= length)
+			return -1;
+
+		int read = 0;
+		while (read < len && offset < length) {
+			int block = (int) (offset / blockSize);
+			int within = (int) (offset - (long) block * blockSize);
+			byte[] data = cachedBlock(block);
+			int n = Math.min(len - read, data.length - within);
+			System.arraycopy(data, within, dst, off + read, n);
+			read += n;
+			offset += n;
+		}
+		return read;
+	}
+
+	/** Closes the underlying channel */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/** Returns the number of blocks in the container */
+	int blockCount() {
+		return offsets.length - 1;
+	}
+
+	/** Expands a block without going through the cache */
+	byte[] expandBlock(int block, CompressionContext context)
+			throws IOException {
+		long start = offsets[block];
+		long end = offsets[block + 1];
+		if (end - start > Integer.MAX_VALUE)
+			throw new IOException("corrupt container index");
+		byte[] compressed = readAt(base + start, (int) (end - start)).array();
+		DecodeCache cache = context.getDecodeCache();
+		if (cache != null) {
+			byte[] cached = cache.expanded(compressor, compressed, 0,
+					compressed.length);
+			if (cached != null) {
+				verify(block, cached);
+				return cached;
+			}
+		}
+
+		int expected = (int) Math.min(blockSize, length - (long) block
+				* blockSize);
+		byte[] result = new byte[expected];
+		ByteArrayBitWriter data = new ByteArrayBitWriter(result, 0, expected);
+		int mark = context.startStage();
+		try {
+			compressor.expand(new ByteArrayBitReader(compressed), data, context);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("block " + block + " expands to more than "
+					+ expected + " bytes", e);
+		} catch (RuntimeException e) {
+			// a damaged block can trip up a decoder in many ways
+			throw new IOException("corrupt block " + block, e);
+		}
+
+		if (data.size() != expected)
+			throw new IOException("block " + block + " expanded to "
+					+ data.size() + " bytes instead of " + expected);
+		verify(block, result);
+		context.endStage(Stage.BLOCK, mark, compressed.length, result.length);
+		if (cache != null)
+			cache.putExpanded(compressor, compressed, 0, compressed.length,
+					result, result.length);
+		return result;
+	}
+
+	/** Returns the checksum of all the uncompressed data */
+	int streamChecksum() {
+		return streamChecksum;
+	}
+
+	/* Checks an expanded block against its checksum, if verification is on */
+	private void verify(int block, byte[] data) throws IOException {
+		if (!verifyChecksums)
+			return;
+		CRC32C crc = new CRC32C();
+		crc.update(data, 0, data.length);
+		if ((int) crc.getValue() != checksums[block])
+			throw new IOException("checksum mismatch in block " + block);
+	}
+
+	private byte[] cachedBlock(int block) throws IOException {
+		byte[] data = cache.get(block);
+		if (data == null) {
+			data = expandBlock(block, context);
+			cache.put(block, data);
+		}
+		return data;
+	}
+
+	private ByteBuffer readAt(long position, int count) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(count);
+		channel.position(position);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0)
+				throw new EOFException();
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
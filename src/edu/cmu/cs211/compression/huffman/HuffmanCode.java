@@ -1,16 +1,15 @@
 package edu.cmu.cs211.compression.huffman;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Stack;
-import java.util.Iterator;
-import edu.cmu.cs211.compression.util.MyPriorityQueue;
 
 import edu.cmu.cs211.compression.io.BitReader;
 import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
 
 /**
  * Represents the Huffman code. The class supports building the Huffman tree
@@ -19,6 +18,11 @@ import edu.cmu.cs211.compression.io.BitWriter;
  * reading a symbol based on the code word. Lastly, it is able to write an
  * on-disk representation of the Huffman tree. For testing purposes, we can also
  * create a Huffman code with a given HuffmanNode as the root.
+ * <p>
+ * The tree is held in flat arrays, along with the length and bits of every
+ * codeword, so a code is a handful of arrays rather than hundreds of objects.
+ * A tree of HuffmanNodes is only built when {@link #getCodeTreeRoot()} asks
+ * for it. A code never changes once built, so it may be shared by threads.
  */
 public class HuffmanCode {
 
@@ -27,20 +31,37 @@ public class HuffmanCode {
 	/** Code bit for a parent node in file-based tree representation */
 	private static final int PARENT = 1;
 
+	/** Size in bytes of the header writeStoredHeader writes */
+	static final int STORED_HEADER_SIZE = 3;
+
+	/** Zero bits that pad the stored header to a whole byte */
+	static final int STORED_HEADER_PADDING = 5;
+
 	/** Code bit for the left child in the file-based tree representation */
 	private static final int LEFT = 0;
 	/** Code bit for the right child in the file-based tree representation */
 	private static final int RIGHT = 1;
-        /* Maps bytes to huffman nodes to easily move up the tree to extract the codeword */
-	private HashMap<Byte, HuffmanNode> nodeMap;
-	/* Root node of the underlying huffman tree structure */
-        private HuffmanNode tree;
+
+	/** Longest codeword kept in the codes table; longer ones are found in the tree */
+	private static final int MAX_TABLE_LENGTH = 64;
+
+	/* The underlying huffman tree structure */
+	private final HuffmanTree shape;
+	/* Codeword length by unsigned byte value, or -1 if the byte has no codeword */
+	private final int[] lengths = new int[256];
+	/* Codeword by unsigned byte value, in its low bits, if at most MAX_TABLE_LENGTH long */
+	private final long[] codes = new long[256];
+	/* Leaf node of each unsigned byte value */
+	private final int[] leafOf = new int[256];
+	/* The tree as HuffmanNodes, built on first use */
+	private volatile HuffmanNode tree;
+	/* Tables for interleaved chunks, built on first use */
+	private volatile InterleavedCoder interleavedCoder;
 
 	/**
 	 * Creates a HuffmanCode by walking through a previously constructed Huffman
-	 * tree. This builds an internal map from each byte value to each
-	 * HuffmanNode so we can later encode data items using the Huffman
-	 * algorithm.
+	 * tree. This builds an internal table from each byte value to its
+	 * codeword so we can later encode data items using the Huffman algorithm.
 	 * 
 	 * @param root
 	 *            the root node of the Huffman tree
@@ -49,18 +70,9 @@ public class HuffmanCode {
 	 *             if root is null
 	 */
 	public HuffmanCode(HuffmanNode root) {
-		if(root == null){
-			throw new NullPointerException();
-		}
+		this(HuffmanTree.of(root));
 		this.tree = root;
-		this.nodeMap = new HashMap<Byte, HuffmanNode>();
-		HuffmanNodeComparator comparator = new HuffmanNodeComparator();
-		
-		//Invoke private recursive method to traverse huffmantree, mapping the leaf nodes.
-		mapNodes(root, comparator);
 	}
-	
-
 
 	/**
 	 * <p>
@@ -83,64 +95,7 @@ public class HuffmanCode {
 	 *             header is not valid.
 	 */
 	public HuffmanCode(BitReader reader) throws IOException {
-		
-                HuffmanNode root;
-		int firstBit = reader.readBit();
-		this.nodeMap = new HashMap<Byte, HuffmanNode>();
-                
-		firstBit = reader.readBit();
-		//firstBit tells us we have one LEAF node.
-		if(firstBit == LEAF){				
-			Integer intData = reader.readByte();
-			Byte byteData = intData.byteValue();
-			root = new HuffmanNode(byteData);
-			this.tree = root;
-			this.nodeMap.put(byteData, root);
-			return;
-		}
-		
-		//Recursively call helper method which returns a new node consisting of the left and right subtrees.
-		this.tree = new HuffmanNode((helper(reader)), (helper(reader)));
-		
-		HuffmanNodeComparator comparator = new HuffmanNodeComparator();
-		//Call helper method to build nodeMap and codewordMap.
-		mapNodes(this.tree, comparator);
-	}
-        
-        	/*
-         * Recursive private method that traverses the tree and finds each leaf node.  At each leaf node, a mapping
-	 * from byte to HuffmanNode is stored.
-         */
-	private void mapNodes(HuffmanNode hn, HuffmanNodeComparator comparator){
-		
-		//Check if hn is a leaf node; we map hn's byte to hn and to a CodeWord.
-		if(hn.isLeaf()){
-				this.nodeMap.put(hn.getValue(), hn);
-			}	
-		//Map left and right nodes recursively. 
-		else{
-			mapNodes(hn.getLeft(), comparator);
-			mapNodes(hn.getRight(), comparator);
-		}
-	}
-	
-	/*Recursive helper method for HuffmanCode( BitReader ) constructor.  Headers are written recursively in 
-	 * preorder ( write(root) -> write(left) -> write(right) ).  It made sense to define the function that 
-	 * needs to read this header recursively.  After a PARENT bit is read, the next two nodes will be its LEFT
-	 * and RIGHT children.*/
-	private HuffmanNode helper(BitReader reader) throws IOException{
-			int nextBit = reader.readBit();
-			
-			//BASE CASE: nextBit tells us we have a LEAF node.
-			if(nextBit == LEAF){
-				Integer intData = reader.readByte();
-				Byte byteData = intData.byteValue();
-				HuffmanNode leftNode = new HuffmanNode(byteData);
-				return leftNode;
-			}
-			else{
-				return new HuffmanNode((helper(reader)),(helper(reader)));
-			}
+		this(HuffmanTree.read(reader));
 	}
 
 	/**
@@ -153,44 +108,58 @@ public class HuffmanCode {
 	 *             if freqs is empty
 	 */
 	public HuffmanCode(Map<Byte, Integer> freqs){
+		this(HuffmanTree.build(pack(freqs)));
+	}
+
+	/*Packs each (frequency, byte) pair into a long so the symbols sort by frequency without boxing.*/
+	private static long[] pack(Map<Byte, Integer> freqs){
 		if(freqs == null){
 			throw new NullPointerException();
 		}
 		if(freqs.isEmpty()){
 			throw new IllegalArgumentException();
 		}
-		this.nodeMap = new HashMap<Byte, HuffmanNode>();
-		Comparator<HuffmanNode> hnComparator = new HuffmanNodeComparator();
-		MyPriorityQueue<HuffmanNode> PQ = new MyPriorityQueue<HuffmanNode>(hnComparator);
-		
-		//Set of all bytes in freqs map.
-		Set<Byte> byteSet = freqs.keySet();
-		Iterator<Byte> itr = byteSet.iterator();
-		
-		/*Iterate through all of the bytes.  For each byte, declare and initialize a new HuffmanNode
-		 * with the corresponding frequency.  Store the mapping from byte to HuffmanNode in our nodeMap.
-		 * Fill the priority queue with these HuffmanNodes (one HuffmanNode for each mapped byte).*/
-		while(itr.hasNext()){
-			byte temp = itr.next();
-			Integer frequency = freqs.get(temp);
-			HuffmanNode node = new HuffmanNode(frequency, temp);
-			this.nodeMap.put(temp, node);
-			PQ.offer(node);
+		long[] packed = new long[freqs.size()];
+		int n = 0;
+		for(Map.Entry<Byte, Integer> entry : freqs.entrySet()){
+			packed[n++] = HuffmanTree.pack(entry.getValue(), entry.getKey());
 		}
-		
-		/*Poll the two minimum HuffmanNodes (comparator based on byte frequencies).  Merge these
-		 * two HuffmanNodes into a newNode with sum of frequencies.  Insert newNode into Priority Queue.
-		 * We repeat this process until our Priority Queue contains 1 single HuffmanNode (the root of our tree).*/
-		while(PQ.size() > 1){
-			HuffmanNode min = PQ.poll();
-			HuffmanNode secondMin = PQ.poll();
-			HuffmanNode newNode = new HuffmanNode(min, secondMin);
-			PQ.offer(newNode);
+		return packed;
+	}
+
+	/**
+	 * Builds a tree for the byte values with a nonzero frequency, like
+	 * {@link #HuffmanCode(Map)} without the map.
+	 * 
+	 * @param freqs
+	 *            256 frequencies indexed by unsigned byte value
+	 * @throws NullPointerException
+	 *             If freqs is null
+	 * @throws IllegalArgumentException
+	 *             if every frequency is zero, or one is negative
+	 */
+	public HuffmanCode(int[] freqs){
+		this(HuffmanTree.build(freqs));
+	}
+
+	/*Fills the codeword tables from a tree held in flat arrays.*/
+	private HuffmanCode(HuffmanTree shape){
+		this.shape = shape;
+		Arrays.fill(this.lengths, -1);
+		assign(shape.root(), 0, 0);
+	}
+
+	/*Recursively records the codeword of every leaf below node, whose own codeword is code.*/
+	private void assign(int node, long code, int length){
+		if(shape.isLeaf(node)){
+			int value = shape.values[node] & 0xFF;
+			this.lengths[value] = length;
+			this.codes[value] = code;
+			this.leafOf[value] = node;
+			return;
 		}
-		
-		this.tree = PQ.peek();	
-		HuffmanNodeComparator comparator = new HuffmanNodeComparator();
-		mapNodes(this.tree, comparator);
+		assign(shape.child(node, LEFT), code << 1 | LEFT, length + 1);
+		assign(shape.child(node, RIGHT), code << 1 | RIGHT, length + 1);
 	}
 
 	/**
@@ -219,23 +188,46 @@ public class HuffmanCode {
 		if(writer == null){
 			throw new NullPointerException();
 		}
-		emit(writer, this.tree);
+		emit(writer, shape.root());
 	}
 	
-	private void emit(BitWriter writer, HuffmanNode node) throws IOException{
+	private void emit(BitWriter writer, int node) throws IOException{
 		//Base Case: We have leaf node; write LEAF bit and write the node's byte.
-		if(node.isLeaf()){
+		if(shape.isLeaf(node)){
 				writer.writeBit(LEAF);
-				writer.writeByte(node.getValue());
+				writer.writeByte(shape.values[node]);
 		}
 		//Write PARENT bit and emit left node and right node.
 		else{
 			writer.writeBit(PARENT);
-			emit(writer, node.getLeft());
-			emit(writer, node.getRight());
+			emit(writer, shape.child(node, LEFT));
+			emit(writer, shape.child(node, RIGHT));
+		}
+	}
+
+	/**
+	 * Writes the header that marks a stream stored without coding: a root
+	 * whose two leaves hold the same value, which no code built from
+	 * frequencies has, followed by five zero bits so the header takes three
+	 * whole bytes. A code read back from it answers true to
+	 * <tt>isStoredMarker</tt>.
+	 */
+	static void writeStoredHeader(BitWriter writer) throws IOException {
+		writer.writeBit(PARENT);
+		writer.writeBit(LEAF);
+		writer.writeByte((byte) 0);
+		writer.writeBit(LEAF);
+		writer.writeByte((byte) 0);
+		for(int i = 0; i < STORED_HEADER_PADDING; i++){
+			writer.writeBit(0);
 		}
 	}
 
+	/*Whether this code was read from the header writeStoredHeader writes.*/
+	boolean isStoredMarker(){
+		return shape.leaves == 2 && shape.values[0] == shape.values[1];
+	}
+
 	/**
 	 * This method reads bits from the reader until a complete codeword (from
 	 * the given BitReader) has been read in. It returns the data item that the
@@ -256,42 +248,16 @@ public class HuffmanCode {
 			throw new NullPointerException();
 		}
 
-		//Check edge case: Huffman Tree is one single node. 
-		if(this.tree.isLeaf()){
-			return this.tree.getValue();
-		}
-		return lookup(reader, this.tree);
-	}
-	
-	
-	/*Private recursive method that reads the given code word in the form of a BitReader.  Each time a bit
-	 * is read, we know whether to go LEFT or RIGHT down the Huffman Tree.  When we reach a leaf node, we know
-	 * that we have reached our destination byte.*/
-	private Byte lookup(BitReader reader, HuffmanNode hn) throws IOException{
-		
-		HuffmanNode temp = hn;
-		int nextBit;
-		nextBit = reader.readBit();
-		if(nextBit == LEFT){
-				temp = temp.getLeft();
-				//Leaf node is reached.
-				if(temp.isLeaf()){
-					return temp.getValue();
-				}
-				else{
-					return lookup( reader, temp );
-				}
-			}
-			else{
-				temp = temp.getRight();
-				//Leaf node is reached.
-				if(temp.isLeaf()){
-					return temp.getValue();
-				}
-				else{
-					return lookup( reader, temp );
-				}
+		//Each bit read tells us whether to go LEFT or RIGHT down the tree, until we reach a leaf.
+		int node = shape.root();
+		while(!shape.isLeaf(node)){
+			int nextBit = reader.readBit();
+			if(nextBit == -1){
+				throw new EOFException();
 			}
+			node = shape.child(node, nextBit);
+		}
+		return shape.values[node];
 	}
 
 
@@ -311,52 +277,208 @@ public class HuffmanCode {
 	 *             if the item doesn't exist in this Huffman coding
 	 */
 	public void encode(Byte item, BitWriter writer) throws IOException {
-		if(writer == null){
+		if(item == null || writer == null){
 			throw new NullPointerException();
 		}
-		if(!(this.nodeMap.containsKey(item))){
+		int value = item & 0xFF;
+		int length = this.lengths[value];
+		if(length < 0){
 			throw new IllegalArgumentException();
 		}
 		
-		Stack<Integer> codewordReversal = new Stack<Integer>();
-		HuffmanNode node = this.nodeMap.get(item);
-		
-		//Walk up the tree and push the appropriate bit onto the stack at each step.
-		while(node.getParent() != null){
-			HuffmanNode parent = node.getParent();
-			HuffmanNode left = parent.getLeft();
-			if(node == left){
-				codewordReversal.push(LEFT);
+		if(length > MAX_TABLE_LENGTH){
+			writeDeepCodeword(value, writer);
+		}
+		else if(length > 32){
+			writer.writeBits((int) (this.codes[value] >>> 32), length - 32);
+			writer.writeBits((int) this.codes[value], 32);
+		}
+		else if(length > 0){
+			writer.writeBits((int) this.codes[value], length);
+		}
+	}
+
+	/**
+	 * Encodes <tt>input[start..end)</tt>. The bits written are the same as
+	 * those of encoding each byte in turn, but codewords are gathered into
+	 * 32-bit writes, so the writer is called a few times per four bytes of
+	 * codewords rather than once per byte.
+	 *
+	 * @throws NullPointerException
+	 *             if input or writer is null
+	 * @throws IllegalArgumentException
+	 *             if a byte doesn't exist in this Huffman coding
+	 */
+	public void encode(byte[] input, int start, int end, BitWriter writer) throws IOException{
+		if(writer == null){
+			throw new NullPointerException();
+		}
+		long pending = 0;
+		int pendingBits = 0;
+		for(int i = start; i < end; i++){
+			int value = input[i] & 0xFF;
+			int length = this.lengths[value];
+			if(length < 0){
+				throw new IllegalArgumentException();
 			}
-			else{
-				codewordReversal.push(RIGHT);
+			if(length > 32){
+				writer.writeBits((int) pending, pendingBits);
+				pendingBits = 0;
+				encode(input[i], writer);
+				continue;
+			}
+			// fewer than 32 pending bits plus at most 32 new ones fit in the long
+			pending = pending << length | this.codes[value];
+			pendingBits += length;
+			if(pendingBits >= 32){
+				pendingBits -= 32;
+				writer.writeBits((int) (pending >>> pendingBits), 32);
 			}
-			node = parent;
 		}
-		
-		//Pop the stack until it is empty, writing each bit to the writer.
-		while(!(codewordReversal.isEmpty())){
-			writer.writeBit(codewordReversal.pop());
+		writer.writeBits((int) pending, pendingBits);
+	}
+
+	/**
+	 * Encodes the bytes remaining in src like {@link #encode(byte[], int, int, BitWriter)},
+	 * reading them from the buffer in place. The buffer's position ends at its limit.
+	 *
+	 * @throws NullPointerException
+	 *             if src or writer is null
+	 * @throws IllegalArgumentException
+	 *             if a byte doesn't exist in this Huffman coding
+	 */
+	public void encode(ByteBuffer src, BitWriter writer) throws IOException{
+		if(writer == null){
+			throw new NullPointerException();
+		}
+		long pending = 0;
+		int pendingBits = 0;
+		int end = src.limit();
+		for(int i = src.position(); i < end; i++){
+			byte b = src.get(i);
+			int value = b & 0xFF;
+			int length = this.lengths[value];
+			if(length < 0){
+				throw new IllegalArgumentException();
+			}
+			if(length > 32){
+				writer.writeBits((int) pending, pendingBits);
+				pendingBits = 0;
+				encode(b, writer);
+				continue;
+			}
+			pending = pending << length | this.codes[value];
+			pendingBits += length;
+			if(pendingBits >= 32){
+				pendingBits -= 32;
+				writer.writeBits((int) (pending >>> pendingBits), 32);
+			}
+		}
+		writer.writeBits((int) pending, pendingBits);
+		src.position(end);
+	}
+
+	/*Writes a codeword too long for the codes table by finding the path to its leaf.*/
+	private void writeDeepCodeword(int value, BitWriter writer) throws IOException{
+		int[] path = new int[this.lengths[value]];
+		findPath(shape.root(), this.leafOf[value], path, 0);
+		for(int bit : path){
+			writer.writeBit(bit);
 		}
 	}
 
+	private boolean findPath(int node, int leaf, int[] path, int depth){
+		if(shape.isLeaf(node)){
+			return node == leaf;
+		}
+		if(depth == path.length){
+			return false;
+		}
+		for(int bit = LEFT; bit <= RIGHT; bit++){
+			path[depth] = bit;
+			if(findPath(shape.child(node, bit), leaf, path, depth + 1)){
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
-	 * Gets the root of the Huffman tree. This is helpful for testing.
+	 * Gets the root of the Huffman tree. This is helpful for testing. The
+	 * tree is built on the first call.
 	 */
 	public HuffmanNode getCodeTreeRoot() {
-		return this.tree;
+		HuffmanNode root = this.tree;
+		if(root == null){
+			root = shape.toNodes();
+			this.tree = root;
+		}
+		return root;
 	}
-	
-	
-	/*Private comparator class that orders HuffmanNodes based on their corresponding FREQUENCIES.
+
+	/** Returns the tree of this code in flat arrays */
+	HuffmanTree shape() {
+		return shape;
+	}
+
+	/** Returns the codeword length of an unsigned byte value, or -1 if it has none */
+	int codeLength(int value) {
+		return lengths[value];
+	}
+
+	/**
+	 * Returns the codeword of an unsigned byte value in the low
+	 * <tt>codeLength(value)</tt> bits, if that is at most 64
 	 */
-	 private static class HuffmanNodeComparator implements Comparator<HuffmanNode>{
-		
-		public int compare(HuffmanNode hn1, HuffmanNode hn2){
-			if((!(hn1 instanceof HuffmanNode)) || (!(hn2 instanceof HuffmanNode))){
-				throw new ClassCastException();
+	long codeword(int value) {
+		return codes[value];
+	}
+
+	/**
+	 * Returns the coder for interleaved chunks of this code, building its
+	 * tables on first use.
+	 */
+	InterleavedCoder interleavedCoder() {
+		InterleavedCoder coder = this.interleavedCoder;
+		if(coder == null){
+			coder = new InterleavedCoder(this);
+			this.interleavedCoder = coder;
+		}
+		return coder;
+	}
+
+	/**
+	 * Copies a header in the format of <tt>writeHeader</tt> from the reader
+	 * without building a tree, padded to a whole byte. The copy can be parsed
+	 * with <tt>HuffmanCode(BitReader)</tt>, or used as a key for the code.
+	 * 
+	 * @throws EOFException
+	 *             if the reader ends inside the header
+	 */
+	static byte[] copyHeader(BitReader reader) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BitWriter writer = new OutputStreamBitWriter(out);
+		//Number of subtrees still to be read; a PARENT bit adds one, a LEAF completes one.
+		int pending = 1;
+		while(pending > 0){
+			int bit = reader.readBit();
+			if(bit == -1){
+				throw new EOFException();
+			}
+			writer.writeBit(bit);
+			if(bit == LEAF){
+				int value = reader.readByte();
+				if(value == -1){
+					throw new EOFException();
+				}
+				writer.writeByte((byte) value);
+				pending--;
+			}
+			else{
+				pending++;
 			}
-			return ((hn1.getFreq()) - (hn2.getFreq()));
 		}
+		writer.flush();
+		return out.toByteArray();
 	}
 }
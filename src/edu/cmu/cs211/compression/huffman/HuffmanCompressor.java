@@ -1,66 +1,679 @@
 package edu.cmu.cs211.compression.huffman;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
 import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.DecodeCache;
 import edu.cmu.cs211.compression.io.BitReader;
 import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.ByteArrayBitWriter;
+import edu.cmu.cs211.compression.io.ByteBufferBitWriter;
+import edu.cmu.cs211.compression.util.Histogram;
 
 /**
  * A compressor that uses Huffman encoding as a mapping.
+ * <p>
+ * By default the code is built from a histogram of the whole input. A
+ * compressor created with a positive sample size instead builds the code from
+ * the first <tt>sampleSize</tt> bytes only, which skips most of the histogram
+ * pass on large inputs whose statistics do not drift. Byte values that do not
+ * occur in the sample are still given a (long) codeword, so any input can be
+ * encoded.
+ * <p>
+ * A compressor created with a chunk size splits the input into chunks of that
+ * many bytes and encodes them concurrently on the common fork/join pool, all
+ * with the same code. Each chunk is padded to a whole byte, and the stream
+ * records the chunk size and an index of the encoded length of every chunk
+ * after the total length, so expansion can also decode the chunks in
+ * parallel.
+ * <p>
+ * A compressor created with <tt>interleaved</tt> set writes each chunk (or the
+ * whole input as one chunk, if there is no chunk size) as four interleaved
+ * streams that are decoded in lockstep through a lookup table; see
+ * {@link InterleavedCoder}. Decoding such a chunk is several times faster on a
+ * single core.
+ * <p>
+ * A chunked stream writes a negative layout marker, {@link #CHUNKED} or
+ * {@link #INTERLEAVED}, where a single stream writes its length, and its
+ * length after that. Expansion reads the layout from the stream, so any
+ * compressor expands the output of any other, whatever their chunk sizes and
+ * settings.
+ * <p>
+ * Input that Huffman coding cannot shrink, such as random or already
+ * compressed data, is stored instead: a three-byte header that no code has,
+ * the length, and the bytes as they are. The size of the coded output is
+ * known from the histogram and the code before anything is encoded, so such
+ * input is never encoded, and expanding it is a plain copy. Unless the code is
+ * built from a sample, the output is therefore never more than
+ * {@link #MAX_STORED_OVERHEAD} bytes longer than the input.
  */
 public class HuffmanCompressor extends Compressor {
 
+	/** Number of bytes read per bulk read while building the histogram */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	/** Largest code header: 256 leaves of 9 bits and 255 parent bits */
+	private static final int MAX_HEADER_BITS = 256 * 9 + 255;
+
+	/**
+	 * Longest codeword of a code built from int frequencies. A codeword of
+	 * length d needs a total frequency of at least the Fibonacci number
+	 * F(d + 2), and F(47) already exceeds any int count plus the escapes.
+	 */
+	private static final int MAX_CODE_LENGTH = 44;
+
+	/**
+	 * Most bytes a stored stream adds to its input: the header and the
+	 * length
+	 */
+	public static final int MAX_STORED_OVERHEAD = HuffmanCode.STORED_HEADER_SIZE
+			+ MAX_VARINT_BYTES;
+
+	/** Layout marker of a stream of plain chunks */
+	public static final int CHUNKED = -1;
+
+	/** Layout marker of a stream of interleaved chunks */
+	public static final int INTERLEAVED = -2;
+
+	/** Number of leading bytes used to estimate frequencies, or 0 for all */
+	private final int sampleSize;
+
+	/** Number of input bytes per encoded chunk, or 0 for a single stream */
+	private final int chunkSize;
+
+	/** Whether each chunk is written as four interleaved streams */
+	private final boolean interleaved;
+
+	/** Creates a compressor that counts every input byte */
+	public HuffmanCompressor() {
+		this(0);
+	}
+
+	/**
+	 * Creates a compressor that estimates frequencies from a prefix of the
+	 * input.
+	 * 
+	 * @param sampleSize
+	 *            the number of leading bytes to count, or 0 to count the whole
+	 *            input
+	 * @throws IllegalArgumentException
+	 *             if sampleSize is negative
+	 */
+	public HuffmanCompressor(int sampleSize) {
+		this(sampleSize, 0);
+	}
+
+	/**
+	 * Creates a compressor that encodes and decodes chunks of the input in
+	 * parallel.
+	 * 
+	 * @param sampleSize
+	 *            the number of leading bytes to count, or 0 to count the whole
+	 *            input
+	 * @param chunkSize
+	 *            the number of input bytes per chunk, or 0 to write a single
+	 *            stream
+	 * @throws IllegalArgumentException
+	 *             if sampleSize or chunkSize is negative
+	 */
+	public HuffmanCompressor(int sampleSize, int chunkSize) {
+		this(sampleSize, chunkSize, false);
+	}
+
+	/**
+	 * Creates a compressor that may split the input into chunks and may
+	 * interleave the codewords of each chunk over four streams.
+	 * 
+	 * @param sampleSize
+	 *            the number of leading bytes to count, or 0 to count the whole
+	 *            input
+	 * @param chunkSize
+	 *            the number of input bytes per chunk, or 0 for one chunk if
+	 *            interleaved and a single plain stream otherwise
+	 * @param interleaved
+	 *            whether each chunk is written as four interleaved streams
+	 * @throws IllegalArgumentException
+	 *             if sampleSize or chunkSize is negative
+	 */
+	public HuffmanCompressor(int sampleSize, int chunkSize, boolean interleaved) {
+		if (sampleSize < 0)
+			throw new IllegalArgumentException("sample size must be >= 0");
+		if (chunkSize < 0)
+			throw new IllegalArgumentException("chunk size must be >= 0");
+		this.sampleSize = sampleSize;
+		this.chunkSize = chunkSize;
+		this.interleaved = interleaved;
+	}
+
+	/* Whether the stream is written in chunks with an index */
+	private boolean chunked() {
+		return chunkSize != 0 || interleaved;
+	}
+
+	/**
+	 * Returns a bound on the output for an input of the given length. A code
+	 * built from the whole input is only used if it beats storing the input,
+	 * so the output is at most {@link #MAX_STORED_OVERHEAD} bytes longer than
+	 * the input. A code built from a sample may give the rest of the input
+	 * codewords of up to {@link #MAX_CODE_LENGTH} bits; the header, lengths
+	 * and the padding of every chunk come on top.
+	 */
+	@Override
+	public int maxCompressedLength(int length) {
+		if (length < 0)
+			throw new IllegalArgumentException("length must be >= 0");
+		if (length == 0)
+			return 0;
+		if (sampleSize == 0 || sampleSize >= length)
+			return checkedLength((long) length + MAX_STORED_OVERHEAD);
+		long bytes = (MAX_HEADER_BITS + (long) MAX_CODE_LENGTH * length + 7)
+				/ 8 + MAX_VARINT_BYTES + chunkOverhead(length);
+		return checkedLength(bytes);
+	}
+
+	/*
+	 * Most bytes the layout marker, chunk size, chunk index and chunk padding
+	 * add to the code
+	 */
+	private long chunkOverhead(int length) {
+		if (!chunked())
+			return 0;
+		long chunks = chunkCount(length, chunkSize != 0 ? chunkSize : length);
+		int perChunk = MAX_VARINT_BYTES
+				+ (interleaved ? InterleavedCoder.STREAMS
+						* (MAX_VARINT_BYTES + 1) : 1);
+		return 2 * MAX_VARINT_BYTES + chunks * perChunk;
+	}
+
+	/*
+	 * Whether coding length bytes with code would take at least as many bytes
+	 * as storing them. The first countBytes of them were counted in
+	 * freqArray, and the rest are taken to code like those.
+	 */
+	private boolean storeInstead(HuffmanCode code, int[] freqArray,
+			int countBytes, int length) {
+		long codeBits = 0;
+		int leaves = 0;
+		for (int i = 0; i < freqArray.length; i++) {
+			if (freqArray[i] != 0) {
+				codeBits += (long) freqArray[i] * code.codeLength(i);
+				leaves++;
+			}
+		}
+		if (countBytes < length)
+			codeBits = (long) ((double) codeBits * length / countBytes);
+		// each leaf takes a bit and a byte of the header, each parent a bit
+		long headerBits = 10L * leaves - 1;
+		long bytes = (headerBits + codeBits + 7) / 8 + chunkOverhead(length);
+		return bytes >= (long) length + HuffmanCode.STORED_HEADER_SIZE;
+	}
+
+	/* Writes input[off..off+length) as a stored stream */
+	private static void writeStored(byte[] input, int off, int length,
+			BitWriter writer) throws IOException {
+		HuffmanCode.writeStoredHeader(writer);
+		writer.writeInt(length);
+		writer.writeBytes(input, off, length);
+		writer.flush();
+	}
+
+	/* Skips the padding of a stored header after the code has been read */
+	private static void skipStoredPadding(BitReader reader) throws IOException {
+		for (int i = 0; i < HuffmanCode.STORED_HEADER_PADDING; i++) {
+			int bit = reader.readBit();
+			if (bit == -1)
+				throw new EOFException();
+			if (bit != 0)
+				throw new IOException("corrupt stored header");
+		}
+	}
+
 	// @see Compressor#compress(io.BitReader, io.BitWriter)
 	@Override
 	public void compress(BitReader reader, BitWriter writer) throws IOException {
+		if (chunked()) {
+			compress(reader, writer, new CompressionContext());
+			return;
+		}
+
 		int fileBytes = reader.length();
 		if (fileBytes == 0)
 			return;
 
-		HuffmanCode code = calcHuffmanCode(reader);
+		int countBytes = sampleSize > 0 && sampleSize < fileBytes ? sampleSize
+				: fileBytes;
+		int[] freqArray = countFrequencies(reader, fileBytes, countBytes);
+		HuffmanCode code = calcHuffmanCode(freqArray);
+		reader.reset();
+
+		if (storeInstead(code, freqArray, countBytes, fileBytes)) {
+			HuffmanCode.writeStoredHeader(writer);
+			writer.writeInt(fileBytes);
+			byte[] buf = new byte[Math.min(fileBytes, CHUNK_SIZE)];
+			for (int copied = 0; copied < fileBytes;) {
+				int n = reader.readBytes(buf, 0, Math.min(buf.length, fileBytes
+						- copied));
+				if (n < 0)
+					throw new EOFException();
+				writer.writeBytes(buf, 0, n);
+				copied += n;
+			}
+			writer.flush();
+			return;
+		}
+
 		code.writeHeader(writer);
 		writer.writeInt(fileBytes);
 
-		reader.reset();
-
 		for (int i = 0; i < fileBytes; i++)
 			code.encode((byte) reader.readByte(), writer);
 
 		writer.flush();
 	}
 
+	/**
+	 * Compresses like {@link #compress(BitReader, BitWriter)}, but reads the
+	 * input once into the context's {@link CompressionContext#INPUT} slot
+	 * instead of reading it twice.
+	 */
+	@Override
+	public void compress(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		int fileBytes = reader.length();
+		byte[] input = context.bytes(CompressionContext.INPUT, fileBytes);
+		readFully(reader, input, fileBytes);
+		compress(input, fileBytes, writer, context);
+	}
+
+	/**
+	 * Compresses <tt>input[0..length)</tt>. The output is the same as that of
+	 * {@link #compress(BitReader, BitWriter)} for a reader over those bytes.
+	 * 
+	 * @throws NullPointerException
+	 *             if input or writer is null
+	 */
+	public void compress(byte[] input, int length, BitWriter writer)
+			throws IOException {
+		compress(input, length, writer, new CompressionContext());
+	}
+
+	/**
+	 * Compresses <tt>input[0..length)</tt>, reporting the histogram, tree
+	 * building and encoding stages to the context's listener.
+	 * 
+	 * @see #compress(byte[], int, BitWriter)
+	 * @throws NullPointerException
+	 *             if input, writer or context is null
+	 */
+	public void compress(byte[] input, int length, BitWriter writer,
+			CompressionContext context) throws IOException {
+		compress(input, 0, length, writer, context);
+	}
+
+	/**
+	 * Compresses <tt>src[off..off+len)</tt> straight from the source array,
+	 * without first copying it into the context.
+	 */
+	@Override
+	public int compress(byte[] src, int off, int len, byte[] dst, int dstOff,
+			CompressionContext context) throws IOException {
+		checkRange(src, off, len);
+		checkRange(dst, dstOff, 0);
+		ByteArrayBitWriter writer = new ByteArrayBitWriter(dst, dstOff,
+				dst.length - dstOff);
+		compress(src, off, len, writer, context);
+		return writer.size();
+	}
+
+	/**
+	 * Compresses the bytes remaining in src. A single stream is encoded from
+	 * a direct buffer in place, without first copying the input to the heap;
+	 * other cases are left to the superclass.
+	 */
+	@Override
+	public int compress(ByteBuffer src, ByteBuffer dst,
+			CompressionContext context) throws IOException {
+		if (src.hasArray() || chunked())
+			return super.compress(src, dst, context);
+
+		ByteBufferBitWriter writer = new ByteBufferBitWriter(dst);
+		int length = src.remaining();
+		if (length == 0)
+			return 0;
+
+		int mark = context.startStage();
+		int countBytes = sampleSize > 0 && sampleSize < length ? sampleSize
+				: length;
+		int[] freqArray = new int[256];
+		ByteBuffer sample = src.duplicate();
+		sample.limit(sample.position() + countBytes);
+		Histogram.count(sample, freqArray);
+		if (countBytes < length)
+			escapeUnseen(freqArray);
+		context.endStage(Stage.HISTOGRAM, mark, countBytes, -1);
+
+		mark = context.startStage();
+		HuffmanCode code = calcHuffmanCode(freqArray);
+		context.endStage(Stage.TREE_BUILD, mark, -1, -1);
+
+		mark = context.startStage();
+		if (storeInstead(code, freqArray, countBytes, length)) {
+			HuffmanCode.writeStoredHeader(writer);
+			writer.writeInt(length);
+			writer.flush();
+			// the header ends on a byte boundary, so the bytes go straight to dst
+			dst.put(src);
+		} else {
+			code.writeHeader(writer);
+			writer.writeInt(length);
+			code.encode(src, writer);
+			writer.flush();
+		}
+		context.endStage(Stage.ENCODE, mark, length, -1);
+		return writer.size();
+	}
+
+	/* Compresses input[off..off+length) */
+	private void compress(byte[] input, int off, int length,
+			BitWriter writer, CompressionContext context) throws IOException {
+		if (length == 0)
+			return;
+
+		int mark = context.startStage();
+		int countBytes = sampleSize > 0 && sampleSize < length ? sampleSize
+				: length;
+		int[] freqArray = Histogram.count(input, off, countBytes);
+		if (countBytes < length)
+			escapeUnseen(freqArray);
+		context.endStage(Stage.HISTOGRAM, mark, countBytes, -1);
+
+		mark = context.startStage();
+		HuffmanCode code = calcHuffmanCode(freqArray);
+		context.endStage(Stage.TREE_BUILD, mark, -1, -1);
+
+		mark = context.startStage();
+		if (storeInstead(code, freqArray, countBytes, length)) {
+			writeStored(input, off, length, writer);
+			context.endStage(Stage.ENCODE, mark, length, -1);
+			return;
+		}
+
+		code.writeHeader(writer);
+		if (!chunked()) {
+			writer.writeInt(length);
+			code.encode(input, off, off + length, writer);
+		} else {
+			writer.writeInt(interleaved ? INTERLEAVED : CHUNKED);
+			writer.writeInt(length);
+			writeChunks(code, input, off, length, writer);
+		}
+
+		writer.flush();
+		context.endStage(Stage.ENCODE, mark, length, -1);
+	}
+
+	/* Encodes the chunks in parallel, then writes the chunk size, the index and the chunks */
+	private void writeChunks(final HuffmanCode code, final byte[] input,
+			final int off, final int length, BitWriter writer)
+			throws IOException {
+		final int size = chunkSize != 0 ? chunkSize : length;
+		final InterleavedCoder coder = interleaved ? code.interleavedCoder()
+				: null;
+		int chunks = chunkCount(length, size);
+		final byte[][] encoded = new byte[chunks][];
+		runChunks(new ChunkJob() {
+			public void run(int chunk) throws IOException {
+				int start = off + chunk * size;
+				int end = off + (int) Math.min((long) chunk * size + size, length);
+				if (coder != null) {
+					encoded[chunk] = coder.encode(input, start, end);
+					return;
+				}
+				ByteArrayBitWriter chunkWriter = new ByteArrayBitWriter(
+						(end - start) / 2);
+				code.encode(input, start, end, chunkWriter);
+				chunkWriter.flush();
+				encoded[chunk] = chunkWriter.toByteArray();
+			}
+		}, chunks);
+
+		writer.writeInt(size);
+		for (byte[] chunk : encoded)
+			writer.writeInt(chunk.length);
+		for (byte[] chunk : encoded)
+			writer.writeBytes(chunk);
+	}
+
+	/* Reads the chunk index and chunks, then decodes the chunks into output in parallel */
+	private static void readChunks(final HuffmanCode code, int layout,
+			BitReader reader, final byte[] output, final int length)
+			throws IOException {
+		final int size = reader.readInt();
+		if (size <= 0)
+			throw new IOException("invalid chunk size " + size);
+		int chunks = chunkCount(length, size);
+		// every chunk length takes a byte, and the chunks are in the stream
+		if (chunks > reader.length())
+			throw new IOException("invalid chunk size " + size);
+		final int[] offsets = new int[chunks + 1];
+		for (int c = 0; c < chunks; c++) {
+			int chunkBytes = reader.readInt();
+			if (chunkBytes < 0 || offsets[c] + (long) chunkBytes > reader.length())
+				throw new IOException("invalid chunk length " + chunkBytes);
+			offsets[c + 1] = offsets[c] + chunkBytes;
+		}
+		final byte[] encoded = new byte[offsets[chunks]];
+		readFully(reader, encoded, encoded.length);
+
+		final InterleavedCoder coder = layout == INTERLEAVED ? code
+				.interleavedCoder() : null;
+		runChunks(new ChunkJob() {
+			public void run(int chunk) throws IOException {
+				int start = chunk * size;
+				int end = (int) Math.min((long) start + size, length);
+				if (coder != null) {
+					coder.decode(encoded, offsets[chunk], offsets[chunk + 1]
+							- offsets[chunk], output, start, end);
+					return;
+				}
+				BitReader chunkReader = new ByteArrayBitReader(encoded,
+						offsets[chunk], offsets[chunk + 1] - offsets[chunk]);
+				for (int i = start; i < end; i++)
+					output[i] = code.decode(chunkReader);
+			}
+		}, chunks);
+	}
+
+	private static int chunkCount(int length, int chunkSize) {
+		return (int) (((long) length + chunkSize - 1) / chunkSize);
+	}
+
+	/* Runs job for every chunk, on the common fork/join pool if there are several */
+	private static void runChunks(ChunkJob job, int chunks) throws IOException {
+		if (chunks == 1) {
+			job.run(0);
+			return;
+		}
+		try {
+			ForkJoinPool.commonPool().invoke(new ChunkTask(job, 0, chunks));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/** Work done on one chunk */
+	private interface ChunkJob {
+		void run(int chunk) throws IOException;
+	}
+
+	/** Runs a job over a range of chunks by splitting the range in halves */
+	private static final class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ChunkJob job;
+		private final int lo;
+		private final int hi;
+
+		ChunkTask(ChunkJob job, int lo, int hi) {
+			this.job = job;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo == 1) {
+				try {
+					job.run(lo);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new ChunkTask(job, lo, mid), new ChunkTask(job, mid, hi));
+		}
+	}
+
 	/**
 	 * Calculates a Huffman code for a given set of bits
 	 */
 	public static HuffmanCode calcHuffmanCode(BitReader reader)
 			throws IOException {
-		int[] freqArray = new int[256];
+		return calcHuffmanCode(reader, 0);
+	}
 
+	/**
+	 * Calculates a Huffman code from at most the first <tt>sampleSize</tt>
+	 * bytes of the reader. If the sample does not cover the whole input, every
+	 * byte value missing from the sample is given a frequency of one so that
+	 * the rest of the input can still be encoded.
+	 * 
+	 * @param reader
+	 *            the input, positioned at its start
+	 * @param sampleSize
+	 *            the number of bytes to count, or 0 to count all of them
+	 */
+	public static HuffmanCode calcHuffmanCode(BitReader reader, int sampleSize)
+			throws IOException {
 		int fileBytes = reader.length();
-		for (int i = 0; i < fileBytes; i++)
-			freqArray[reader.readByte() & 0xff]++;
+		int countBytes = fileBytes;
+		if (sampleSize > 0 && sampleSize < fileBytes)
+			countBytes = sampleSize;
+
+		return calcHuffmanCode(countFrequencies(reader, fileBytes, countBytes));
+	}
+
+	/*
+	 * Counts the first countBytes of the reader's fileBytes, escaping unseen
+	 * values if that is not all of them
+	 */
+	private static int[] countFrequencies(BitReader reader, int fileBytes,
+			int countBytes) throws IOException {
+		int[] freqArray = new int[256];
+		byte[] buf = new byte[Math.min(countBytes, CHUNK_SIZE)];
+		int counted = 0;
+		while (counted < countBytes) {
+			int n = reader.readBytes(buf, 0, Math.min(buf.length, countBytes
+					- counted));
+			if (n < 0)
+				throw new EOFException();
+			Histogram.count(buf, 0, n, freqArray);
+			counted += n;
+		}
+
+		if (countBytes < fileBytes)
+			escapeUnseen(freqArray);
+
+		return freqArray;
+	}
+
+	/**
+	 * Calculates a Huffman code for <tt>input[0..length)</tt>, counting at
+	 * most the first <tt>sampleSize</tt> bytes as
+	 * {@link #calcHuffmanCode(BitReader, int)} does.
+	 */
+	public static HuffmanCode calcHuffmanCode(byte[] input, int length,
+			int sampleSize) {
+		int countBytes = length;
+		if (sampleSize > 0 && sampleSize < length)
+			countBytes = sampleSize;
+
+		int[] freqArray = Histogram.count(input, 0, countBytes);
+		if (countBytes < length)
+			escapeUnseen(freqArray);
+
+		return calcHuffmanCode(freqArray);
+	}
 
-		Map<Byte, Integer> freqMap = new HashMap<Byte, Integer>();
+	/* Gives symbols a sample never saw a frequency of one, so they still get a codeword */
+	private static void escapeUnseen(int[] freqArray) {
 		for (int i = 0; i < freqArray.length; i++) {
-			if (freqArray[i] != 0)
-				freqMap.put((byte) i, freqArray[i]);
+			if (freqArray[i] == 0)
+				freqArray[i] = 1;
 		}
+	}
 
-		return new HuffmanCode(freqMap);
+	/**
+	 * Builds a Huffman code from a histogram indexed by unsigned byte value.
+	 * Byte values with a frequency of zero get no codeword.
+	 * 
+	 * @param freqArray
+	 *            256 frequencies, for example from {@link Histogram}
+	 * @throws IllegalArgumentException
+	 *             if every frequency is zero
+	 */
+	public static HuffmanCode calcHuffmanCode(int[] freqArray) {
+		return new HuffmanCode(freqArray);
 	}
 
 	// @see Compressor#expand(io.BitReader, io.BitWriter)
 	@Override
 	public void expand(BitReader reader, BitWriter writer) throws IOException {
+		if (chunked()) {
+			expand(reader, writer, new CompressionContext());
+			return;
+		}
+
 		if (reader.length() == 0)
 			return;
 
 		HuffmanCode code = new HuffmanCode(reader);
+		if (code.isStoredMarker()) {
+			skipStoredPadding(reader);
+			int fileBytes = reader.readInt();
+			byte[] buf = new byte[Math.max(Math.min(fileBytes, CHUNK_SIZE), 0)];
+			for (int copied = 0; copied < fileBytes;) {
+				int n = reader.readBytes(buf, 0, Math.min(buf.length, fileBytes
+						- copied));
+				if (n < 0)
+					throw new EOFException();
+				writer.writeBytes(buf, 0, n);
+				copied += n;
+			}
+			writer.flush();
+			return;
+		}
 
 		int fileBytes = reader.readInt();
+		if (fileBytes < 0) {
+			// a chunked stream is decoded as a whole before it is written
+			int layout = fileBytes;
+			fileBytes = checkLength(code, reader, reader.readInt());
+			byte[] output = new byte[fileBytes];
+			readBody(code, layout, reader, output, fileBytes);
+			writer.writeBytes(output, 0, fileBytes);
+			writer.flush();
+			return;
+		}
 		for (int i = 0; i < fileBytes; i++) {
 			byte value = code.decode(reader);
 			writer.writeByte(value);
@@ -69,4 +682,115 @@ public class HuffmanCompressor extends Compressor {
 		writer.flush();
 	}
 
+	/**
+	 * Expands like {@link #expand(BitReader, BitWriter)}, decoding into the
+	 * context's {@link CompressionContext#INPUT} slot and writing the result
+	 * in one call.
+	 */
+	@Override
+	public void expand(BitReader reader, BitWriter writer,
+			CompressionContext context) throws IOException {
+		if (reader.length() == 0)
+			return;
+
+		int fileBytes = expand(reader, context, CompressionContext.INPUT);
+		writer.writeBytes(context.bytes(CompressionContext.INPUT, fileBytes),
+				0, fileBytes);
+		writer.flush();
+	}
+
+	/*
+	 * Reads a code header, taking the parsed code from the context's decode
+	 * cache when the same header has been seen before
+	 */
+	private static HuffmanCode readCode(BitReader reader,
+			CompressionContext context) throws IOException {
+		DecodeCache cache = context.getDecodeCache();
+		if (cache == null)
+			return new HuffmanCode(reader);
+
+		byte[] header = HuffmanCode.copyHeader(reader);
+		HuffmanCode code = cache.huffmanCode(header);
+		if (code == null) {
+			code = new HuffmanCode(new ByteArrayBitReader(header));
+			cache.putHuffmanCode(header, code);
+		}
+		return code;
+	}
+
+	/**
+	 * Expands one compressed stream into a byte slot of the context.
+	 * The code header is looked up in the context's {@link DecodeCache}, if
+	 * it has one. A stored stream is copied straight into the slot.
+	 * 
+	 * @param slot
+	 *            the context slot to decode into
+	 * @return the number of bytes decoded into the slot's array
+	 * @throws IOException
+	 *             if the stream is invalid or ends early
+	 */
+	public int expand(BitReader reader, CompressionContext context, int slot)
+			throws IOException {
+		if (reader.length() == 0)
+			return 0;
+
+		int mark = context.startStage();
+		HuffmanCode code = readCode(reader, context);
+
+		boolean stored = code.isStoredMarker();
+		if (stored)
+			skipStoredPadding(reader);
+		int fileBytes = reader.readInt();
+		int layout = 0;
+		if (!stored && fileBytes < 0) {
+			layout = fileBytes;
+			fileBytes = reader.readInt();
+		}
+		checkLength(code, reader, fileBytes);
+		byte[] output = context.bytes(slot, fileBytes);
+		readBody(code, layout, reader, output, fileBytes);
+
+		context.endStage(Stage.DECODE, mark, -1, fileBytes);
+		return fileBytes;
+	}
+
+	/* Checks the length a stream read with a code claims to hold */
+	private static int checkLength(HuffmanCode code, BitReader reader,
+			int fileBytes) throws IOException {
+		if (fileBytes < 0 || fileBytes > maxExpandedLength(code, reader))
+			throw new IOException("invalid length " + fileBytes);
+		return fileBytes;
+	}
+
+	/*
+	 * Reads the body of a stream into output[0..length): stored bytes, the
+	 * chunks of a layout marker, or a single stream of codewords.
+	 */
+	private static void readBody(HuffmanCode code, int layout,
+			BitReader reader, byte[] output, int length) throws IOException {
+		if (code.isStoredMarker()) {
+			readFully(reader, output, length);
+		} else if (layout == CHUNKED || layout == INTERLEAVED) {
+			readChunks(code, layout, reader, output, length);
+		} else if (layout < 0) {
+			throw new IOException("unknown layout " + layout);
+		} else {
+			for (int i = 0; i < length; i++)
+				output[i] = code.decode(reader);
+		}
+	}
+
+	/*
+	 * The most bytes a stream read with a code can hold: a stored byte and a
+	 * codeword take at least a byte and a bit of the reader. A code of one
+	 * symbol has empty codewords, so only the array limit bounds its length.
+	 */
+	private static long maxExpandedLength(HuffmanCode code, BitReader reader) {
+		if (code.isStoredMarker())
+			return reader.length();
+		if (code.shape().leaves > 1)
+			return 8L * reader.length();
+		return Integer.MAX_VALUE - 8;
+	}
+
 }
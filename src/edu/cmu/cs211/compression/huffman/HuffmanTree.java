@@ -0,0 +1,236 @@
+package edu.cmu.cs211.compression.huffman;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import edu.cmu.cs211.compression.io.BitReader;
+
+/**
+ * A Huffman tree held in flat arrays.
+ * <p>
+ * A tree of <tt>n</tt> leaves has <tt>2n - 1</tt> nodes. Node <tt>i</tt> for
+ * <tt>i &lt; n</tt> is a leaf and node <tt>n + k</tt> is an internal node. A
+ * child always has a smaller index than its parent, so the root is the last
+ * node, and a tree of one leaf is just that leaf.
+ * <p>
+ * A tree built from frequencies does not need a priority queue. The symbols
+ * are sorted once by frequency, packed with their byte value into one long
+ * each. After that the two-queue method builds the tree in linear time: the
+ * leaves wait in one queue in sorted order, and merged nodes join a second
+ * queue, which stays sorted because each merge weighs at least as much as the
+ * one before. Each step merges the two lightest fronts. On a tie a leaf is
+ * taken before a merged node.
+ * <p>
+ * Trees are never modified once built.
+ */
+final class HuffmanTree {
+
+	/** Code bit for a parent node in the header */
+	private static final int PARENT = 1;
+	/** Marks an open internal node whose left child is still being read */
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	/** Number of leaves */
+	final int leaves;
+	/** Byte value of each leaf */
+	final byte[] values;
+	/** Frequency of each leaf, or null if the frequencies are not known */
+	final long[] weights;
+	/** Children of internal node <tt>n + k</tt> at index k */
+	final int[] left;
+	final int[] right;
+
+	private HuffmanTree(byte[] values, long[] weights, int[] left, int[] right) {
+		this.leaves = values.length;
+		this.values = values;
+		this.weights = weights;
+		this.left = left;
+		this.right = right;
+	}
+
+	/**
+	 * Builds the tree of the byte values with a nonzero frequency.
+	 *
+	 * @param freqs
+	 *            256 frequencies indexed by unsigned byte value
+	 * @throws IllegalArgumentException
+	 *             if every frequency is zero
+	 */
+	static HuffmanTree build(int[] freqs) {
+		long[] packed = new long[freqs.length];
+		int n = 0;
+		for (int i = 0; i < freqs.length; i++) {
+			if (freqs[i] != 0)
+				packed[n++] = pack(freqs[i], (byte) i);
+		}
+		return build(packed, n);
+	}
+
+	/**
+	 * Builds the tree of symbols each packed by {@link #pack}. The array is
+	 * sorted in place.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if packed is empty
+	 */
+	static HuffmanTree build(long[] packed) {
+		return build(packed, packed.length);
+	}
+
+	private static HuffmanTree build(long[] packed, int n) {
+		if (n == 0)
+			throw new IllegalArgumentException("no symbols");
+		byte[] values = new byte[n];
+		long[] weights = new long[2 * n - 1];
+		int[] left = new int[n - 1];
+		int[] right = new int[n - 1];
+
+		Arrays.sort(packed, 0, n);
+		for (int i = 0; i < n; i++) {
+			values[i] = (byte) packed[i];
+			weights[i] = packed[i] >> 8;
+		}
+
+		int nextLeaf = 0;
+		int nextMerged = n;
+		for (int k = 0; k < n - 1; k++) {
+			int a = nextLeaf < n
+					&& (nextMerged == n + k || weights[nextLeaf] <= weights[nextMerged])
+					? nextLeaf++ : nextMerged++;
+			int b = nextLeaf < n
+					&& (nextMerged == n + k || weights[nextLeaf] <= weights[nextMerged])
+					? nextLeaf++ : nextMerged++;
+			left[k] = a;
+			right[k] = b;
+			weights[n + k] = weights[a] + weights[b];
+		}
+		return new HuffmanTree(values, Arrays.copyOf(weights, n), left, right);
+	}
+
+	/** Packs a frequency and a byte value so that longs order by frequency */
+	static long pack(int freq, byte value) {
+		if (freq < 0)
+			throw new IllegalArgumentException(
+					"frequence needs to be non-negative");
+		return (long) freq << 8 | value & 0xFF;
+	}
+
+	/**
+	 * Reads a header in the format of {@link HuffmanCode#writeHeader} without
+	 * recursion, numbering the nodes as they are completed.
+	 *
+	 * @throws EOFException
+	 *             if the reader ends inside the header
+	 */
+	static HuffmanTree read(BitReader reader) throws IOException {
+		byte[] values = new byte[256];
+		int n = 0;
+		// internal nodes are numbered ~k until the number of leaves is known
+		int[] left = new int[255];
+		int[] right = new int[255];
+		int merged = 0;
+		// the left child of each open internal node, or MISSING while it is read
+		int[] open = new int[16];
+		int depth = 0;
+
+		while (true) {
+			int bit = reader.readBit();
+			if (bit == -1)
+				throw new EOFException();
+			if (bit == PARENT) {
+				if (depth == open.length)
+					open = Arrays.copyOf(open, 2 * depth);
+				open[depth++] = MISSING;
+				continue;
+			}
+
+			int value = reader.readByte();
+			if (value == -1)
+				throw new EOFException();
+			if (n == values.length)
+				values = Arrays.copyOf(values, 2 * n);
+			values[n] = (byte) value;
+			int node = n++;
+			// a completed right child completes its parent, and so on up
+			while (depth > 0 && open[depth - 1] != MISSING) {
+				if (merged == left.length) {
+					left = Arrays.copyOf(left, 2 * merged);
+					right = Arrays.copyOf(right, 2 * merged);
+				}
+				left[merged] = open[--depth];
+				right[merged] = node;
+				node = ~merged++;
+			}
+			if (depth == 0)
+				break;
+			open[depth - 1] = node;
+		}
+
+		for (int k = 0; k < merged; k++) {
+			left[k] = left[k] < 0 ? n + ~left[k] : left[k];
+			right[k] = right[k] < 0 ? n + ~right[k] : right[k];
+		}
+		return new HuffmanTree(Arrays.copyOf(values, n), null, Arrays.copyOf(
+				left, merged), Arrays.copyOf(right, merged));
+	}
+
+	/** Copies the shape, values and frequencies of a linked tree */
+	static HuffmanTree of(HuffmanNode root) {
+		int n = countLeaves(root);
+		HuffmanTree tree = new HuffmanTree(new byte[n], new long[n],
+				new int[n - 1], new int[n - 1]);
+		tree.copy(root, new int[2]);
+		return tree;
+	}
+
+	private static int countLeaves(HuffmanNode node) {
+		if (node.isLeaf())
+			return 1;
+		return countLeaves(node.getLeft()) + countLeaves(node.getRight());
+	}
+
+	/* Numbers the nodes below node in post-order; next holds the next leaf and internal index */
+	private int copy(HuffmanNode node, int[] next) {
+		if (node.isLeaf()) {
+			int leaf = next[0]++;
+			values[leaf] = node.getValue();
+			weights[leaf] = node.getFreq();
+			return leaf;
+		}
+		int l = copy(node.getLeft(), next);
+		int r = copy(node.getRight(), next);
+		int k = next[1]++;
+		left[k] = l;
+		right[k] = r;
+		return leaves + k;
+	}
+
+	/** Returns the index of the root */
+	int root() {
+		return 2 * leaves - 2;
+	}
+
+	/** Returns whether a node is a leaf */
+	boolean isLeaf(int node) {
+		return node < leaves;
+	}
+
+	/** Returns the left child of an internal node for bit 0, or the right */
+	int child(int node, int bit) {
+		return bit == 0 ? left[node - leaves] : right[node - leaves];
+	}
+
+	/** Builds the linked tree of HuffmanNodes with the same shape */
+	HuffmanNode toNodes() {
+		int n = leaves;
+		HuffmanNode[] nodes = new HuffmanNode[2 * n - 1];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = weights == null ? new HuffmanNode(values[i])
+					: new HuffmanNode((int) weights[i], values[i]);
+		}
+		for (int k = 0; k < n - 1; k++)
+			nodes[n + k] = new HuffmanNode(nodes[left[k]], nodes[right[k]]);
+		return nodes[root()];
+	}
+}
@@ -0,0 +1,257 @@
+package edu.cmu.cs211.compression.huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Encodes a run of bytes with a Huffman code as four interleaved bit streams,
+ * and decodes them again with the four streams advancing in lockstep.
+ * <p>
+ * Byte <tt>i</tt> of the run goes to stream <tt>i % 4</tt>. Decoding one
+ * stream is a serial chain, since where a codeword starts depends on the
+ * length of the one before it; four independent streams give the processor
+ * four chains to overlap. Each stream is read through a 64-bit window and a
+ * table indexed by the next {@link #TABLE_BITS} bits, so most codewords are
+ * decoded with one lookup instead of one tree step per bit.
+ * <p>
+ * An encoded run is self-contained: the byte lengths of the four streams as
+ * 7-bit varints (the format of {@link edu.cmu.cs211.compression.io.BitWriter#writeInt(int)}),
+ * followed by the four streams, each padded to a whole byte.
+ * <p>
+ * A coder only reads its tables once built, so it may be shared by threads.
+ */
+final class InterleavedCoder {
+
+	/** Number of interleaved streams */
+	static final int STREAMS = 4;
+
+	/** Number of bits looked up at once while decoding */
+	private static final int TABLE_BITS = 11;
+
+	/*
+	 * Longest codeword the encoder accepts, so that a codeword and the bits
+	 * still pending fit in one long. A code built from at most 2^31 counted
+	 * bytes is never deeper than 45.
+	 */
+	private static final int MAX_CODE_LENGTH = 56;
+
+	private final long[] codes = new long[256];
+	/** Codeword length by unsigned byte value, or -1 if it cannot be encoded */
+	private final int[] lengths = new int[256];
+
+	/*
+	 * Entry by next TABLE_BITS bits: (length << 8 | value) for a codeword of
+	 * at most TABLE_BITS bits, or ~node for a longer one continuing at that
+	 * node of the tree
+	 */
+	private final int[] table = new int[1 << TABLE_BITS];
+	private final HuffmanTree tree;
+
+	InterleavedCoder(HuffmanCode code) {
+		this.tree = code.shape();
+		for (int value = 0; value < 256; value++) {
+			int length = code.codeLength(value);
+			lengths[value] = length <= MAX_CODE_LENGTH ? length : -1;
+			codes[value] = code.codeword(value);
+		}
+		fillTable(tree.root(), 0, 0);
+	}
+
+	/* Walks the top TABLE_BITS levels of the tree, filling the lookup table */
+	private void fillTable(int node, int code, int length) {
+		if (tree.isLeaf(node)) {
+			int shift = TABLE_BITS - length;
+			int first = code << shift;
+			Arrays.fill(table, first, first + (1 << shift), length << 8
+					| tree.values[node] & 0xff);
+			return;
+		}
+		if (length == TABLE_BITS) {
+			table[code] = ~node;
+			return;
+		}
+		fillTable(tree.child(node, 0), code << 1, length + 1);
+		fillTable(tree.child(node, 1), code << 1 | 1, length + 1);
+	}
+
+	/**
+	 * Encodes <tt>input[start..end)</tt>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a byte has no codeword
+	 */
+	byte[] encode(byte[] input, int start, int end) {
+		StreamWriter[] streams = new StreamWriter[STREAMS];
+		for (int s = 0; s < STREAMS; s++)
+			streams[s] = new StreamWriter((end - start) / (2 * STREAMS));
+		for (int i = start; i < end; i++) {
+			int value = input[i] & 0xff;
+			int length = lengths[value];
+			if (length < 0)
+				throw new IllegalArgumentException();
+			streams[(i - start) & (STREAMS - 1)].write(codes[value], length);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (StreamWriter stream : streams) {
+			stream.finish();
+			writeVarint(out, stream.size());
+		}
+		for (StreamWriter stream : streams)
+			stream.writeTo(out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a run written by {@link #encode} from <tt>buf[off..off+len)</tt>
+	 * into <tt>output[start..end)</tt>.
+	 *
+	 * @throws IOException
+	 *             if the run is malformed or too short
+	 */
+	void decode(byte[] buf, int off, int len, byte[] output, int start, int end)
+			throws IOException {
+		int limit = off + len;
+		int[] pos = { off };
+		long[] streamEnd = new long[STREAMS];
+		long next = 0;
+		for (int s = 0; s < STREAMS; s++) {
+			next += readVarint(buf, pos, limit);
+			streamEnd[s] = next;
+		}
+		if (pos[0] + next > limit)
+			throw new IOException("truncated Huffman streams");
+
+		StreamReader s0 = new StreamReader(buf, pos[0], pos[0] + (int) streamEnd[0]);
+		StreamReader s1 = new StreamReader(buf, s0.end, pos[0] + (int) streamEnd[1]);
+		StreamReader s2 = new StreamReader(buf, s1.end, pos[0] + (int) streamEnd[2]);
+		StreamReader s3 = new StreamReader(buf, s2.end, pos[0] + (int) streamEnd[3]);
+
+		int i = start;
+		for (; end - i >= STREAMS; i += STREAMS) {
+			output[i] = s0.decode();
+			output[i + 1] = s1.decode();
+			output[i + 2] = s2.decode();
+			output[i + 3] = s3.decode();
+		}
+		StreamReader[] rest = { s0, s1, s2 };
+		for (int s = 0; i < end; i++, s++)
+			output[i] = rest[s].decode();
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+		do {
+			int high = value >>> 7;
+			out.write(high != 0 ? value & 0x7f | 0x80 : value & 0x7f);
+			value = high;
+		} while (value != 0);
+	}
+
+	private static int readVarint(byte[] buf, int[] pos, int limit)
+			throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (pos[0] >= limit)
+				throw new IOException("truncated Huffman streams");
+			int b = buf[pos[0]++];
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0)
+					break;
+				return value;
+			}
+		}
+		throw new IOException("invalid Huffman stream length");
+	}
+
+	/** Collects one stream, most significant bit first */
+	private static final class StreamWriter {
+		private byte[] buf;
+		private int count;
+		private long pending;
+		private int pendingBits;
+
+		StreamWriter(int size) {
+			buf = new byte[Math.max(size, 32)];
+		}
+
+		void write(long code, int length) {
+			pending = pending << length | code;
+			pendingBits += length;
+			while (pendingBits >= 8) {
+				pendingBits -= 8;
+				if (count == buf.length)
+					buf = Arrays.copyOf(buf, count + (count >> 1));
+				buf[count++] = (byte) (pending >>> pendingBits);
+			}
+		}
+
+		void finish() {
+			if (pendingBits > 0)
+				write(0, 8 - pendingBits);
+		}
+
+		int size() {
+			return count;
+		}
+
+		void writeTo(ByteArrayOutputStream out) {
+			out.write(buf, 0, count);
+		}
+	}
+
+	/** Reads one stream through a 64-bit window */
+	private final class StreamReader {
+		private final byte[] buf;
+		private final int end;
+		private int pos;
+		/** The low windowBits bits are the next unread bits of the stream */
+		private long window;
+		private int windowBits;
+
+		StreamReader(byte[] buf, int start, int end) {
+			this.buf = buf;
+			this.pos = start;
+			this.end = end;
+		}
+
+		private void refill() {
+			while (windowBits <= 56 && pos < end) {
+				window = window << 8 | (buf[pos++] & 0xff);
+				windowBits += 8;
+			}
+		}
+
+		byte decode() throws IOException {
+			if (windowBits < TABLE_BITS)
+				refill();
+			// past the end of the stream the missing bits read as zeros
+			int peek = windowBits >= TABLE_BITS ? (int) (window >>> (windowBits - TABLE_BITS))
+					: (int) (window << (TABLE_BITS - windowBits));
+			int entry = table[peek & ((1 << TABLE_BITS) - 1)];
+			if (entry >= 0) {
+				int length = entry >>> 8;
+				if (length > windowBits)
+					throw new IOException("truncated Huffman stream");
+				windowBits -= length;
+				return (byte) entry;
+			}
+
+			if (windowBits < TABLE_BITS)
+				throw new IOException("truncated Huffman stream");
+			windowBits -= TABLE_BITS;
+			int node = ~entry;
+			while (!tree.isLeaf(node)) {
+				if (windowBits == 0) {
+					refill();
+					if (windowBits == 0)
+						throw new IOException("truncated Huffman stream");
+				}
+				windowBits--;
+				node = tree.child(node, (int) (window >>> windowBits) & 1);
+			}
+			return tree.values[node];
+		}
+	}
+}
@@ -56,6 +56,30 @@ public interface BitWriter {
 	 */
 	public void writeBytes(byte[] nextBytes) throws IOException;
 
+	/**
+	 * Write part of an array of bytes to the stream. This default
+	 * implementation writes the bytes one at a time with
+	 * {@link #writeByte(byte)}; writers with a buffer copy them in bulk.
+	 * 
+	 * @param nextBytes
+	 *            an array of bytes
+	 * @param off
+	 *            the index of the first byte to write
+	 * @param len
+	 *            the number of bytes to write
+	 * @exception IOException
+	 *                thrown if their is an exception in the underlying stream
+	 * @exception IndexOutOfBoundsException
+	 *                thrown if off and len do not describe a range of the array
+	 */
+	public default void writeBytes(byte[] nextBytes, int off, int len)
+			throws IOException {
+		if (off < 0 || len < 0 || off > nextBytes.length - len)
+			throw new IndexOutOfBoundsException();
+		for (int i = off; i < off + len; i++)
+			writeByte(nextBytes[i]);
+	}
+
 	public void writeInt(int v) throws IOException;
 
 	/**
@@ -0,0 +1,144 @@
+package edu.cmu.cs211.compression.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * This implementation of BitReader operates on a range of a byte array.
+ * <p>
+ * The length is known up front and a reset only moves an index, so unlike an
+ * InputStreamBitReader over a ByteArrayInputStream there is no skip to
+ * measure the input and no stream call per byte.
+ * <p>
+ * The reader is not thread-safe.
+ */
+public class ByteArrayBitReader implements BitReader {
+
+	private final byte[] buf;
+	private final int start;
+	private final int end;
+	private int pos;
+
+	// Number of bits left in the byte already read
+	private int bitsLeft = 0;
+	private int currentByte = 0;
+
+	/** Creates a reader over the whole array */
+	public ByteArrayBitReader(byte[] buf) {
+		this(buf, 0, buf.length);
+	}
+
+	/**
+	 * Creates a reader over <tt>buf[off..off+len)</tt>. The array is not
+	 * copied.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range of buf
+	 */
+	public ByteArrayBitReader(byte[] buf, int off, int len) {
+		if (off < 0 || len < 0 || off > buf.length - len)
+			throw new IndexOutOfBoundsException();
+		this.buf = buf;
+		this.start = off;
+		this.end = off + len;
+		this.pos = off;
+	}
+
+	/** Returns the number of whole bytes read since the start of the range */
+	public int position() {
+		return pos - start;
+	}
+
+	public int readBit() {
+		if (bitsLeft == 0) {
+			if (pos == end)
+				return -1;
+			currentByte = buf[pos++] & 0xff;
+			bitsLeft = 8;
+		}
+		bitsLeft--;
+		return (currentByte >>> bitsLeft) & 1;
+	}
+
+	public int readBits(int num) {
+		if ((num < 0) || (num > 31)) {
+			throw new IllegalArgumentException("Number of bits is out of range");
+		}
+
+		int bits = 0;
+		while (num > 0) {
+			if (bitsLeft == 0) {
+				if (pos == end)
+					return -1;
+				currentByte = buf[pos++] & 0xff;
+				bitsLeft = 8;
+			}
+
+			int cbit = Math.min(num, bitsLeft);
+			bits = (bits << cbit)
+					| ((currentByte >>> (bitsLeft - cbit) & ((1 << cbit) - 1)));
+			num -= cbit;
+			bitsLeft -= cbit;
+		}
+
+		return bits;
+	}
+
+	public int readByte() {
+		if (bitsLeft == 0)
+			return pos == end ? -1 : buf[pos++] & 0xff;
+
+		return readBits(8);
+	}
+
+	public int readBytes(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+
+		if (bitsLeft != 0) {
+			for (int i = 0; i < len; i++) {
+				int v = readByte();
+				if (v == -1)
+					return i == 0 ? -1 : i;
+				b[off + i] = (byte) v;
+			}
+			return len;
+		}
+
+		if (pos == end)
+			return -1;
+		int n = Math.min(len, end - pos);
+		System.arraycopy(buf, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	public int readInt() throws IOException {
+		int ret = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = readByte();
+			if (b == -1)
+				throw new EOFException();
+
+			ret |= ((b & 0x7f) << shift);
+			shift += 7;
+		} while ((b & 0x80) == 0x80);
+
+		return ret;
+	}
+
+	public int length() {
+		return end - start;
+	}
+
+	public void reset() {
+		pos = start;
+		bitsLeft = 0;
+		currentByte = 0;
+	}
+}
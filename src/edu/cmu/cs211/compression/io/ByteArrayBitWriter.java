@@ -0,0 +1,193 @@
+package edu.cmu.cs211.compression.io;
+
+import java.util.Arrays;
+
+/**
+ * This implementation of BitWriter writes into a byte array.
+ * <p>
+ * A writer created over a range of an existing array fills that range and
+ * throws an IndexOutOfBoundsException if the output does not fit. A writer
+ * created with only a capacity owns its array and grows it as needed; read
+ * the result with {@link #toByteArray()}, or with {@link #array()} and
+ * {@link #size()} to avoid the copy.
+ * <p>
+ * Bits are collected in an int and stored a byte at a time straight into the
+ * array, so writing a codeword costs no calls beyond writeBits itself. No
+ * method can fail with an IOException.
+ * <p>
+ * The writer is not thread-safe.
+ */
+public class ByteArrayBitWriter implements BitWriter {
+
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private byte[] buf;
+	private final int start;
+	private int limit;
+	private final boolean growable;
+	private int pos;
+
+	private int bitCount = 0;
+	private int currentByte = 0;
+
+	/** Creates a writer into an array of its own */
+	public ByteArrayBitWriter() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a writer into an array of its own that starts with the given
+	 * capacity and grows as needed.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if capacity is negative
+	 */
+	public ByteArrayBitWriter(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity must be >= 0");
+		this.buf = new byte[capacity];
+		this.start = 0;
+		this.limit = capacity;
+		this.growable = true;
+	}
+
+	/**
+	 * Creates a writer into <tt>buf[off..off+len)</tt>. Writing past the end
+	 * of the range throws an IndexOutOfBoundsException.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range of buf
+	 */
+	public ByteArrayBitWriter(byte[] buf, int off, int len) {
+		if (off < 0 || len < 0 || off > buf.length - len)
+			throw new IndexOutOfBoundsException();
+		this.buf = buf;
+		this.start = off;
+		this.limit = off + len;
+		this.growable = false;
+		this.pos = off;
+	}
+
+	/** Returns the number of whole bytes written */
+	public int size() {
+		return pos - start;
+	}
+
+	/**
+	 * Returns the array written to. The output is the {@link #size()} bytes
+	 * from the start of the range; a growable writer may replace the array as
+	 * it grows.
+	 */
+	public byte[] array() {
+		return buf;
+	}
+
+	/** Copies the whole bytes written into a new array */
+	public byte[] toByteArray() {
+		return Arrays.copyOfRange(buf, start, pos);
+	}
+
+	/**
+	 * Discards everything written, so the writer can be reused from the start
+	 * of its range. A growable writer keeps the array it has grown.
+	 */
+	public void reset() {
+		pos = start;
+		bitCount = 0;
+		currentByte = 0;
+	}
+
+	/* Makes room for n more bytes */
+	private void ensure(int n) {
+		if (n <= limit - pos)
+			return;
+		if (!growable)
+			throw new IndexOutOfBoundsException("output does not fit in "
+					+ (limit - start) + " bytes");
+		long needed = (long) pos + n;
+		if (needed > Integer.MAX_VALUE - 8)
+			throw new OutOfMemoryError("output too large for an array");
+		buf = Arrays.copyOf(buf, (int) Math.min(Integer.MAX_VALUE - 8, Math
+				.max(needed, (long) buf.length * 2)));
+		limit = buf.length;
+	}
+
+	public void writeBit(int bit) {
+		if (bit != 0 && bit != 1)
+			throw new IllegalArgumentException("A bit must be 0 or 1");
+
+		currentByte = currentByte << 1 | bit;
+		bitCount++;
+		if (bitCount == 8) {
+			ensure(1);
+			buf[pos++] = (byte) currentByte;
+			currentByte = 0;
+			bitCount = 0;
+		}
+	}
+
+	public void writeBits(int bits, int num) {
+		if ((num < 0) || (num > 32))
+			throw new IllegalArgumentException("Number of bits is out of range");
+
+		// at most 7 pending bits and 32 new ones fit in a long
+		long pending = (long) currentByte << num | bits
+				& (0xFFFFFFFFL >>> (32 - num));
+		int total = bitCount + num;
+		if (total >= 8) {
+			ensure(total >>> 3);
+			do {
+				total -= 8;
+				buf[pos++] = (byte) (pending >>> total);
+			} while (total >= 8);
+		}
+		currentByte = (int) pending & ((1 << total) - 1);
+		bitCount = total;
+	}
+
+	public void writeByte(byte nextByte) {
+		if (bitCount == 0) {
+			ensure(1);
+			buf[pos++] = nextByte;
+		} else
+			writeBits(nextByte, 8);
+	}
+
+	public void writeBytes(byte[] bytes) {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	public void writeBytes(byte[] bytes, int off, int len) {
+		if (off < 0 || len < 0 || off > bytes.length - len)
+			throw new IndexOutOfBoundsException();
+		if (bitCount != 0) {
+			for (int i = off; i < off + len; i++)
+				writeBits(bytes[i], 8);
+			return;
+		}
+		ensure(len);
+		System.arraycopy(bytes, off, buf, pos, len);
+		pos += len;
+	}
+
+	public void writeInt(int value) {
+		// Same 7-bit format as OutputStreamBitWriter
+		do {
+			int high = (value >>> 7) & 0x01ffffff;
+			byte b = (byte) (value & 0x7f);
+
+			if (high != 0) {
+				b = (byte) (b | 0x80);
+			}
+
+			writeByte(b);
+			value = high;
+		} while (value != 0);
+	}
+
+	public void flush() {
+		if (bitCount > 0)
+			writeBits(0, 8 - bitCount);
+	}
+
+}
@@ -0,0 +1,133 @@
+package edu.cmu.cs211.compression.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This implementation of BitReader reads the bytes between a buffer's
+ * position and its limit, directly from the buffer. A direct (off-heap)
+ * buffer is never copied to the heap.
+ * <p>
+ * The reader moves the buffer's position as it reads, so after the last read
+ * the position is just past the bytes consumed. The length is the number of
+ * bytes remaining when the reader was created, and a reset moves the position
+ * back to where it was then.
+ * <p>
+ * The reader is not thread-safe, and the buffer must not be used by anything
+ * else while the reader is.
+ */
+public class ByteBufferBitReader implements BitReader {
+
+	private final ByteBuffer buf;
+	private final int start;
+	private final int length;
+
+	// Number of bits left in the byte already read
+	private int bitsLeft = 0;
+	private int currentByte = 0;
+
+	/**
+	 * Creates a reader over the bytes remaining in buf.
+	 *
+	 * @throws NullPointerException
+	 *             if buf is null
+	 */
+	public ByteBufferBitReader(ByteBuffer buf) {
+		this.buf = buf;
+		this.start = buf.position();
+		this.length = buf.remaining();
+	}
+
+	public int readBit() {
+		if (bitsLeft == 0) {
+			if (!buf.hasRemaining())
+				return -1;
+			currentByte = buf.get() & 0xff;
+			bitsLeft = 8;
+		}
+		bitsLeft--;
+		return (currentByte >>> bitsLeft) & 1;
+	}
+
+	public int readBits(int num) {
+		if ((num < 0) || (num > 31)) {
+			throw new IllegalArgumentException("Number of bits is out of range");
+		}
+
+		int bits = 0;
+		while (num > 0) {
+			if (bitsLeft == 0) {
+				if (!buf.hasRemaining())
+					return -1;
+				currentByte = buf.get() & 0xff;
+				bitsLeft = 8;
+			}
+
+			int cbit = Math.min(num, bitsLeft);
+			bits = (bits << cbit)
+					| ((currentByte >>> (bitsLeft - cbit) & ((1 << cbit) - 1)));
+			num -= cbit;
+			bitsLeft -= cbit;
+		}
+
+		return bits;
+	}
+
+	public int readByte() {
+		if (bitsLeft == 0)
+			return buf.hasRemaining() ? buf.get() & 0xff : -1;
+
+		return readBits(8);
+	}
+
+	public int readBytes(byte[] b, int off, int len) {
+		if (off < 0 || len < 0 || off > b.length - len)
+			throw new IndexOutOfBoundsException();
+		if (len == 0)
+			return 0;
+
+		if (bitsLeft != 0) {
+			for (int i = 0; i < len; i++) {
+				int v = readByte();
+				if (v == -1)
+					return i == 0 ? -1 : i;
+				b[off + i] = (byte) v;
+			}
+			return len;
+		}
+
+		if (!buf.hasRemaining())
+			return -1;
+		int n = Math.min(len, buf.remaining());
+		buf.get(b, off, n);
+		return n;
+	}
+
+	public int readInt() throws IOException {
+		int ret = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = readByte();
+			if (b == -1)
+				throw new EOFException();
+
+			ret |= ((b & 0x7f) << shift);
+			shift += 7;
+		} while ((b & 0x80) == 0x80);
+
+		return ret;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public void reset() {
+		buf.position(start);
+		bitsLeft = 0;
+		currentByte = 0;
+	}
+}
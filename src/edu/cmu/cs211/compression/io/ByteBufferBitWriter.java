@@ -0,0 +1,121 @@
+package edu.cmu.cs211.compression.io;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * This implementation of BitWriter writes directly into a buffer, from its
+ * position up to its limit. A direct (off-heap) buffer is filled in place,
+ * with no heap array in between.
+ * <p>
+ * The buffer's position advances as whole bytes are written. Writing past
+ * the limit throws a BufferOverflowException.
+ * <p>
+ * The writer is not thread-safe, and the buffer must not be used by anything
+ * else while the writer is.
+ */
+public class ByteBufferBitWriter implements BitWriter {
+
+	private final ByteBuffer buf;
+	private final int start;
+
+	private int bitCount = 0;
+	private int currentByte = 0;
+
+	/**
+	 * Creates a writer into the space remaining in buf.
+	 *
+	 * @throws ReadOnlyBufferException
+	 *             if buf is read-only
+	 * @throws NullPointerException
+	 *             if buf is null
+	 */
+	public ByteBufferBitWriter(ByteBuffer buf) {
+		if (buf.isReadOnly())
+			throw new ReadOnlyBufferException();
+		this.buf = buf;
+		this.start = buf.position();
+	}
+
+	/** Returns the number of whole bytes written */
+	public int size() {
+		return buf.position() - start;
+	}
+
+	public void writeBit(int bit) {
+		if (bit != 0 && bit != 1)
+			throw new IllegalArgumentException("A bit must be 0 or 1");
+
+		currentByte = currentByte << 1 | bit;
+		bitCount++;
+		if (bitCount == 8) {
+			buf.put((byte) currentByte);
+			currentByte = 0;
+			bitCount = 0;
+		}
+	}
+
+	public void writeBits(int bits, int num) {
+		if ((num < 0) || (num > 32))
+			throw new IllegalArgumentException("Number of bits is out of range");
+
+		// at most 7 pending bits and 32 new ones fit in a long
+		long pending = (long) currentByte << num | bits
+				& (0xFFFFFFFFL >>> (32 - num));
+		int total = bitCount + num;
+		if (total >= 8) {
+			if (buf.remaining() < total >>> 3)
+				throw new BufferOverflowException();
+			do {
+				total -= 8;
+				buf.put((byte) (pending >>> total));
+			} while (total >= 8);
+		}
+		currentByte = (int) pending & ((1 << total) - 1);
+		bitCount = total;
+	}
+
+	public void writeByte(byte nextByte) {
+		if (bitCount == 0)
+			buf.put(nextByte);
+		else
+			writeBits(nextByte, 8);
+	}
+
+	public void writeBytes(byte[] bytes) {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	public void writeBytes(byte[] bytes, int off, int len) {
+		if (off < 0 || len < 0 || off > bytes.length - len)
+			throw new IndexOutOfBoundsException();
+		if (bitCount != 0) {
+			for (int i = off; i < off + len; i++)
+				writeBits(bytes[i], 8);
+			return;
+		}
+		buf.put(bytes, off, len);
+	}
+
+	public void writeInt(int value) {
+		// Same 7-bit format as OutputStreamBitWriter
+		do {
+			int high = (value >>> 7) & 0x01ffffff;
+			byte b = (byte) (value & 0x7f);
+
+			if (high != 0) {
+				b = (byte) (b | 0x80);
+			}
+
+			writeByte(b);
+			value = high;
+		} while (value != 0);
+	}
+
+	public void flush() {
+		if (bitCount > 0)
+			writeBits(0, 8 - bitCount);
+	}
+
+}
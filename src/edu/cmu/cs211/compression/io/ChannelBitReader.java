@@ -0,0 +1,226 @@
+package edu.cmu.cs211.compression.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * This implementation of BitReader operates on a channel.
+ * <p>
+ * Reads go through a large buffer, so the channel sees a few big reads rather
+ * than one call per byte, and no method takes a lock. That makes the reader a
+ * good fit for running many small jobs on virtual threads, which a
+ * synchronized stream would pin to their carrier.
+ * <p>
+ * A {@link SeekableByteChannel} (such as a FileChannel) supplies the length
+ * and reset through its size and position. Any other channel is read to the
+ * end when the reader is created and then served from memory.
+ * <p>
+ * The reader is not thread-safe.
+ */
+public class ChannelBitReader implements BitReader {
+
+	/** Default size of the read buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final ReadableByteChannel channel;
+	private final long start;
+	private final long length;
+	private ByteBuffer buffer;
+	private boolean eof;
+
+	// Number of bits left in the byte already read
+	private int bitsLeft = 0;
+	private int currentByte = 0;
+
+	/**
+	 * Creates a reader over the rest of the channel with the default buffer
+	 * size.
+	 */
+	public ChannelBitReader(ReadableByteChannel channel) throws IOException {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a reader over the rest of the channel.
+	 *
+	 * @param channel
+	 *            the channel to read; a seekable channel is read from its
+	 *            current position
+	 * @param bufferSize
+	 *            the size of the read buffer
+	 * @throws IOException
+	 *             if the channel cannot be read or measured
+	 * @throws IllegalArgumentException
+	 *             if bufferSize is less than 1
+	 */
+	public ChannelBitReader(ReadableByteChannel channel, int bufferSize)
+			throws IOException {
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("buffer size must be positive");
+
+		if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekable = (SeekableByteChannel) channel;
+			this.channel = channel;
+			this.start = seekable.position();
+			this.length = seekable.size() - start;
+			this.buffer = ByteBuffer.allocate(bufferSize);
+			buffer.flip();
+		} else {
+			// no way to measure or rewind it, so keep all of it
+			ByteBuffer all = ByteBuffer.allocate(bufferSize);
+			while (channel.read(all) >= 0) {
+				if (!all.hasRemaining()) {
+					ByteBuffer grown = ByteBuffer.allocate(all.capacity() * 2);
+					all.flip();
+					grown.put(all);
+					all = grown;
+				}
+			}
+			all.flip();
+			this.channel = null;
+			this.start = 0;
+			this.length = all.remaining();
+			this.buffer = all;
+			this.eof = true;
+		}
+	}
+
+	/* Refills the buffer; returns false at the end of the channel */
+	private boolean fill() throws IOException {
+		if (buffer.hasRemaining())
+			return true;
+		if (eof)
+			return false;
+		buffer.clear();
+		int n;
+		do {
+			n = channel.read(buffer);
+		} while (n == 0);
+		buffer.flip();
+		if (n < 0) {
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	private int nextByte() throws IOException {
+		if (!fill())
+			return -1;
+		return buffer.get() & 0xff;
+	}
+
+	public int readBit() throws IOException {
+		if (bitsLeft == 0) {
+			currentByte = nextByte();
+			if (currentByte == -1)
+				return -1;
+			bitsLeft = 8;
+		}
+		bitsLeft--;
+		return (currentByte >>> bitsLeft) & 1;
+	}
+
+	public int readBits(int num) throws IOException {
+		if ((num < 0) || (num > 31)) {
+			throw new IllegalArgumentException("Number of bits is out of range");
+		}
+
+		int bits = 0;
+		while (num > 0) {
+			if (bitsLeft == 0) {
+				currentByte = nextByte();
+				if (currentByte == -1)
+					return -1;
+				bitsLeft = 8;
+			}
+
+			int cbit = Math.min(num, bitsLeft);
+			bits = (bits << cbit)
+					| ((currentByte >>> (bitsLeft - cbit) & ((1 << cbit) - 1)));
+			num -= cbit;
+			bitsLeft -= cbit;
+		}
+
+		return bits;
+	}
+
+	public int readByte() throws IOException {
+		if (bitsLeft == 0)
+			return nextByte();
+
+		return readBits(8);
+	}
+
+	public int readBytes(byte[] buf, int start, int count) throws IOException {
+		if (start < 0 || count < 0 || start > buf.length - count)
+			throw new IndexOutOfBoundsException();
+		if (count == 0)
+			return 0;
+
+		if (bitsLeft != 0) {
+			for (int i = 0; i < count; i++) {
+				int b = readByte();
+				if (b == -1)
+					return i == 0 ? -1 : i;
+				buf[start + i] = (byte) b;
+			}
+			return count;
+		}
+
+		if (!fill())
+			return -1;
+		int n = Math.min(count, buffer.remaining());
+		buffer.get(buf, start, n);
+		// large reads bypass the buffer
+		if (n < count && !eof && count - n >= buffer.capacity()) {
+			int direct = channel.read(ByteBuffer.wrap(buf, start + n, count
+					- n));
+			if (direct < 0)
+				eof = true;
+			else
+				n += direct;
+		}
+		return n;
+	}
+
+	public int readInt() throws IOException {
+		int ret = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = readByte();
+			if (b == -1)
+				throw new EOFException();
+
+			ret |= ((b & 0x7f) << shift);
+			shift += 7;
+		} while ((b & 0x80) == 0x80);
+
+		return ret;
+	}
+
+	public int length() {
+		if (length > Integer.MAX_VALUE)
+			throw new RuntimeException(
+					"No support for 64 bit file IO. 640K ought to be enough for anybody.");
+		return (int) length;
+	}
+
+	public void reset() throws IOException {
+		bitsLeft = 0;
+		currentByte = 0;
+		if (channel == null) {
+			buffer.rewind();
+			return;
+		}
+		((SeekableByteChannel) channel).position(start);
+		buffer.clear();
+		buffer.flip();
+		eof = false;
+	}
+}
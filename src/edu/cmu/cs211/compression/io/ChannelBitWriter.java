@@ -0,0 +1,152 @@
+package edu.cmu.cs211.compression.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This implementation of BitWriter operates on a channel.
+ * <p>
+ * Output is collected in a large buffer and handed to the channel only when
+ * the buffer fills or on {@link #flush()}. No method takes a lock, so the
+ * writer does not pin virtual threads.
+ * <p>
+ * The writer is not thread-safe.
+ */
+public class ChannelBitWriter implements BitWriter {
+
+	/** Default size of the write buffer */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	private int bitCount = 0;
+	private int currentByte = 0;
+
+	/** Creates a writer with the default buffer size */
+	public ChannelBitWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a writer.
+	 *
+	 * @param channel
+	 *            the channel to write to
+	 * @param bufferSize
+	 *            the size of the write buffer
+	 * @throws IllegalArgumentException
+	 *             if bufferSize is less than 1
+	 * @throws NullPointerException
+	 *             if channel is null
+	 */
+	public ChannelBitWriter(WritableByteChannel channel, int bufferSize) {
+		if (channel == null)
+			throw new NullPointerException();
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("buffer size must be positive");
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	private void put(int b) throws IOException {
+		if (!buffer.hasRemaining())
+			drain();
+		buffer.put((byte) b);
+	}
+
+	/* Writes the whole buffer to the channel */
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	public void writeBit(int bit) throws IOException {
+		if (bit != 0 && bit != 1)
+			throw new IllegalArgumentException("A bit must be 0 or 1");
+
+		currentByte = currentByte << 1 | bit;
+		bitCount++;
+		if (bitCount == 8) {
+			put(currentByte);
+			currentByte = 0;
+			bitCount = 0;
+		}
+	}
+
+	public void writeBits(int bits, int num) throws IOException {
+		if ((num < 0) || (num > 32))
+			throw new IllegalArgumentException("Number of bits is out of range");
+
+		while (num > 0) {
+			int cbit = Math.min(num, (8 - bitCount));
+
+			currentByte = (currentByte << cbit)
+					| ((bits >>> (num - cbit)) & ((1 << cbit) - 1));
+
+			bitCount += cbit;
+			num -= cbit;
+
+			if (bitCount == 8) {
+				put(currentByte);
+				currentByte = 0;
+				bitCount = 0;
+			}
+		}
+	}
+
+	public void writeByte(byte nextByte) throws IOException {
+		if (bitCount == 0)
+			put(nextByte);
+		else
+			writeBits(nextByte, 8);
+	}
+
+	public void writeBytes(byte[] bytes) throws IOException {
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+	public void writeBytes(byte[] bytes, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > bytes.length - len)
+			throw new IndexOutOfBoundsException();
+		if (bitCount != 0) {
+			for (int i = off; i < off + len; i++)
+				writeByte(bytes[i]);
+			return;
+		}
+		if (len <= buffer.remaining()) {
+			buffer.put(bytes, off, len);
+			return;
+		}
+		// too big to buffer: write it straight through
+		drain();
+		ByteBuffer direct = ByteBuffer.wrap(bytes, off, len);
+		while (direct.hasRemaining())
+			channel.write(direct);
+	}
+
+	public void writeInt(int value) throws IOException {
+		// Same 7-bit format as OutputStreamBitWriter
+		do {
+			int high = (value >>> 7) & 0x01ffffff;
+			byte b = (byte) (value & 0x7f);
+
+			if (high != 0) {
+				b = (byte) (b | 0x80);
+			}
+
+			writeByte(b);
+			value = high;
+		} while (value != 0);
+	}
+
+	public void flush() throws IOException {
+		while (bitCount > 0)
+			writeBit(0);
+		drain();
+	}
+
+}
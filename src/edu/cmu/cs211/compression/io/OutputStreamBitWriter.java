@@ -88,6 +88,17 @@ public class OutputStreamBitWriter implements BitWriter {
 		}
 	}
 
+	public void writeBytes(byte[] bytes, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > bytes.length - len)
+			throw new IndexOutOfBoundsException();
+		if (bitCount == 0)
+			stream.write(bytes, off, len);
+		else {
+			for (int i = off; i < off + len; i++)
+				writeByte(bytes[i]);
+		}
+	}
+
 	public void writeInt(int value) throws IOException {
 		// Code was taken from Mono's BinaryWriter. For more about this format:
 		// http://msdn2.microsoft.com/en-US/library/system.io.binarywriter.write7bitencodedint.aspx
@@ -0,0 +1,229 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.container.ArchiveReader;
+import edu.cmu.cs211.compression.container.ArchiveWriter;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+import edu.cmu.cs211.compression.io.BitReader;
+import edu.cmu.cs211.compression.io.BitWriter;
+
+public class ArchiveTest {
+
+	private static final String[] NAMES = { "a.txt", "empty", "sub/b.txt",
+			"sub/deeper/c.txt", "z" };
+
+	private static byte[] contents(String name) {
+		int length = 100 + name.length() * 700;
+		return name.equals("empty") ? new byte[0] : TestUtil.letters(length,
+				length);
+	}
+
+	private static Path tree() throws IOException {
+		Path dir = Files.createTempDirectory("archive");
+		for (String name : NAMES) {
+			Path file = dir.resolve(name);
+			Files.createDirectories(file.getParent());
+			Files.write(file, contents(name));
+		}
+		Files.createDirectories(dir.resolve("sub/nothing"));
+		return dir;
+	}
+
+	private static void delete(Path dir) throws IOException {
+		List<Path> paths = new ArrayList<Path>();
+		Stream<Path> walk = Files.walk(dir);
+		try {
+			Iterator<Path> it = walk.iterator();
+			while (it.hasNext())
+				paths.add(it.next());
+		} finally {
+			walk.close();
+		}
+		Collections.reverse(paths);
+		for (Path p : paths)
+			Files.delete(p);
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		Compressor[] compressors = { new HuffmanCompressor(),
+				new BurrowsWheelerCompressor() };
+		for (Compressor c : compressors) {
+			Path dir = tree();
+			Path out = Files.createTempDirectory("extracted");
+			Path archive = Files.createTempFile("archive", ".tza");
+			try {
+				assertEquals(NAMES.length, new ArchiveWriter(c, 3).write(dir,
+						archive));
+				ArchiveReader reader = new ArchiveReader(c, archive);
+				try {
+					List<String> names = new ArrayList<String>();
+					for (ArchiveReader.Entry entry : reader.entries()) {
+						names.add(entry.getName());
+						assertArrayEquals(contents(entry.getName()), reader
+								.read(entry));
+						assertEquals(contents(entry.getName()).length, entry
+								.getLength());
+					}
+					assertEquals(Arrays.asList(NAMES), names);
+
+					reader.extract(out, 2);
+					for (String name : NAMES)
+						assertArrayEquals(contents(name), Files
+								.readAllBytes(out.resolve(name)));
+				} finally {
+					reader.close();
+				}
+			} finally {
+				delete(dir);
+				delete(out);
+				Files.delete(archive);
+			}
+		}
+	}
+
+	@Test
+	public void extractsOnlyTheNamedFiles() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		Path dir = tree();
+		Path out = Files.createTempDirectory("extracted");
+		Path archive = Files.createTempFile("archive", ".tza");
+		try {
+			new ArchiveWriter(c, 2).write(dir, archive);
+			ArchiveReader reader = new ArchiveReader(c, archive);
+			try {
+				reader.extract(out, Arrays.asList("sub/deeper/c.txt"), 2);
+				assertArrayEquals(contents("sub/deeper/c.txt"), Files
+						.readAllBytes(out.resolve("sub/deeper/c.txt")));
+				assertFalse(Files.exists(out.resolve("a.txt")));
+				assertFalse(Files.exists(out.resolve("sub/b.txt")));
+
+				try {
+					reader.extract(out, Arrays.asList("a.txt", "missing"), 2);
+					fail();
+				} catch (NoSuchFileException e) {
+					// nothing is extracted
+					assertFalse(Files.exists(out.resolve("a.txt")));
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			delete(dir);
+			delete(out);
+			Files.delete(archive);
+		}
+	}
+
+	@Test
+	public void corruptEntry() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		Path dir = tree();
+		Path archive = Files.createTempFile("archive", ".tza");
+		try {
+			new ArchiveWriter(c, 2).write(dir, archive);
+			byte[] b = Files.readAllBytes(archive);
+			ArchiveReader reader = new ArchiveReader(c, archive);
+			ArchiveReader.Entry entry = reader.entry("sub/b.txt");
+			reader.close();
+			// a byte in the middle of sub/b.txt; entries are stored in order
+			int offset = 0;
+			for (ArchiveReader.Entry e : reader.entries()) {
+				if (e == entry)
+					break;
+				offset += e.getCompressedLength();
+			}
+			b[offset + entry.getCompressedLength() / 2] ^= 0x10;
+			Files.write(archive, b);
+
+			reader = new ArchiveReader(c, archive);
+			try {
+				reader.read(reader.entry("sub/b.txt"));
+				fail();
+			} catch (IOException e) {
+				// expected
+			} finally {
+				reader.close();
+			}
+		} finally {
+			delete(dir);
+			Files.delete(archive);
+		}
+	}
+
+	@Test
+	public void decoderFailuresAreReportedAlike() throws Exception {
+		Path dir = tree();
+		Path out = Files.createTempDirectory("extracted");
+		Path archive = Files.createTempFile("archive", ".tza");
+		try {
+			new ArchiveWriter(new HuffmanCompressor(), 2).write(dir, archive);
+			// a decoder tripped up by a damaged entry
+			Compressor c = new HuffmanCompressor() {
+				@Override
+				public void expand(BitReader reader, BitWriter writer)
+						throws IOException {
+					throw new ArrayIndexOutOfBoundsException();
+				}
+
+				@Override
+				public void expand(BitReader reader, BitWriter writer,
+						CompressionContext context) throws IOException {
+					throw new ArrayIndexOutOfBoundsException();
+				}
+			};
+			ArchiveReader reader = new ArchiveReader(c, archive);
+			try {
+				try {
+					reader.read(reader.entry("a.txt"));
+					fail();
+				} catch (IOException e) {
+					assertEquals("corrupt entry a.txt", e.getMessage());
+				}
+				try {
+					reader.extract(out, Collections.singletonList("a.txt"), 2);
+					fail();
+				} catch (IOException e) {
+					assertEquals("corrupt entry a.txt", e.getMessage());
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			delete(dir);
+			delete(out);
+			Files.delete(archive);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void notAnArchive() throws Exception {
+		Path archive = Files.createTempFile("archive", ".tza");
+		try {
+			Files.write(archive, TestUtil.letters(100, 100));
+			new ArchiveReader(new HuffmanCompressor(), archive);
+		} finally {
+			Files.delete(archive);
+		}
+	}
+}
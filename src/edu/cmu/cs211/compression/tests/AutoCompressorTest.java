@@ -0,0 +1,117 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.container.AutoCompressor;
+
+public class AutoCompressorTest {
+
+	@Test
+	public void choosesByContent() {
+		byte[] text = TestUtil.words(100000, 1);
+		byte[] letters = TestUtil.letters(100000, 2);
+		byte[] random = TestUtil.random(100000, 3);
+		assertEquals(AutoCompressor.BURROWS_WHEELER, AutoCompressor
+				.chooseMethod(text, 0, text.length));
+		assertEquals(AutoCompressor.HUFFMAN, AutoCompressor.chooseMethod(
+				letters, 0, letters.length));
+		assertEquals(AutoCompressor.STORED, AutoCompressor.chooseMethod(
+				random, 0, random.length));
+		// a short block is sampled in full
+		assertEquals(AutoCompressor.STORED, AutoCompressor.chooseMethod(
+				random, 10, 500));
+	}
+
+	@Test
+	public void roundTripsMixedBlocks() throws Exception {
+		byte[] x = new byte[90000];
+		System.arraycopy(TestUtil.words(30000, 4), 0, x, 0, 30000);
+		System.arraycopy(TestUtil.random(30000, 5), 0, x, 30000, 30000);
+		System.arraycopy(TestUtil.letters(30000, 6), 0, x, 60000, 30000);
+		for (int blockSize : new int[] { 1, 1000, 30000, 1 << 20 }) {
+			AutoCompressor c = new AutoCompressor(blockSize);
+			byte[] small = blockSize == 1 ? TestUtil.words(500, 7) : x;
+			TestUtil.checkRoundTrip(c, small);
+			assertTrue(c.compress(small).length <= c
+					.maxCompressedLength(small.length));
+		}
+		TestUtil.checkRoundTrip(new AutoCompressor(), new byte[0]);
+	}
+
+	@Test
+	public void storesRandomBlocks() throws Exception {
+		byte[] x = TestUtil.random(100000, 8);
+		AutoCompressor c = new AutoCompressor(50000);
+		byte[] packed = c.compress(x);
+		// the block size, two block headers and the end marker
+		assertTrue(packed.length <= x.length + 3 + 2 * 4 + 1);
+		assertArrayEquals(x, c.expand(packed));
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownMethod() throws Exception {
+		AutoCompressor c = new AutoCompressor();
+		byte[] packed = c.compress(TestUtil.words(1000, 9));
+		// the method byte follows the three-byte block size and the
+		// two-byte length 1000
+		packed[5] = 7;
+		c.expand(packed);
+	}
+
+	@Test
+	public void anyBlockSizeExpandsAnyOther() throws Exception {
+		byte[] x = TestUtil.words(20000, 10);
+		byte[] packed = new AutoCompressor(1000).compress(x);
+		assertArrayEquals(x, new AutoCompressor(1 << 20).expand(packed));
+		packed = new AutoCompressor(1 << 20).compress(x);
+		assertArrayEquals(x, new AutoCompressor(1000).expand(packed));
+	}
+
+	@Test
+	public void blockLargerThanBlockSize() throws Exception {
+		AutoCompressor c = new AutoCompressor(1000);
+		byte[] packed = c.compress(TestUtil.words(1000, 11));
+		// the two-byte block size 1000 becomes 999
+		packed[0]--;
+		try {
+			c.expand(packed);
+			fail();
+		} catch (IOException e) {
+			assertEquals("corrupt block header", e.getMessage());
+		}
+	}
+
+	@Test
+	public void lengthsBeyondStreamAreRejected() throws Exception {
+		// a block size and a stored block of 2^31 - 17 bytes
+		byte[] huge = { (byte) 0xef, (byte) 0xff, (byte) 0xff, (byte) 0xff, 7 };
+		byte[][] streams = {
+				concat(huge, huge, new byte[] { AutoCompressor.STORED }),
+				concat(huge, huge, new byte[] { AutoCompressor.HUFFMAN },
+						new byte[] { (byte) 0xee, (byte) 0xff, (byte) 0xff,
+								(byte) 0xff, 7 }) };
+		for (byte[] stream : streams) {
+			try {
+				new AutoCompressor().expand(stream);
+				fail();
+			} catch (IOException e) {
+				assertEquals("corrupt block header", e.getMessage());
+			}
+		}
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts)
+			out.write(part, 0, part.length);
+		return out.toByteArray();
+	}
+}
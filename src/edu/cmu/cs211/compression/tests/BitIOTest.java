@@ -0,0 +1,188 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.io.BitWriter;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.ByteArrayBitWriter;
+import edu.cmu.cs211.compression.io.ByteBufferBitReader;
+import edu.cmu.cs211.compression.io.ByteBufferBitWriter;
+import edu.cmu.cs211.compression.io.ChannelBitReader;
+import edu.cmu.cs211.compression.io.ChannelBitWriter;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
+
+public class BitIOTest {
+
+	private static void writeMixed(BitWriter w) throws Exception {
+		w.writeBit(1);
+		w.writeBits(0x5a5, 11);
+		w.writeByte((byte) 0xc3);
+		w.writeInt(300);
+		w.writeBytes(new byte[] { 1, 2, 3, 4, 5 }, 1, 3);
+		w.flush();
+		w.writeBytes(new byte[] { 9, 8 });
+		w.writeInt(7);
+		w.flush();
+	}
+
+	@Test
+	public void channelWriterMatchesStreamWriter() throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writeMixed(new OutputStreamBitWriter(expected));
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		// a tiny buffer forces many drains
+		writeMixed(new ChannelBitWriter(Channels.newChannel(actual), 3));
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+	}
+
+	@Test
+	public void channelReaderReadsBack() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeMixed(new OutputStreamBitWriter(out));
+		ChannelBitReader r = new ChannelBitReader(Channels
+				.newChannel(new ByteArrayInputStream(out.toByteArray())), 2);
+
+		assertEquals(out.size(), r.length());
+		assertEquals(1, r.readBit());
+		assertEquals(0x5a5, r.readBits(11));
+		assertEquals(0xc3, r.readByte());
+		assertEquals(300, r.readInt());
+		byte[] b = new byte[3];
+		assertEquals(3, r.readBytes(b, 0, 3));
+		assertArrayEquals(new byte[] { 2, 3, 4 }, b);
+		r.readBits(4);
+		assertEquals(9, r.readByte());
+
+		r.reset();
+		assertEquals(1, r.readBit());
+	}
+
+	@Test
+	public void arrayWriterMatchesStreamWriter() throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writeMixed(new OutputStreamBitWriter(expected));
+
+		// a tiny initial array forces many grows
+		ByteArrayBitWriter grown = new ByteArrayBitWriter(1);
+		writeMixed(grown);
+		assertArrayEquals(expected.toByteArray(), grown.toByteArray());
+
+		byte[] dst = new byte[expected.size() + 4];
+		ByteArrayBitWriter fixed = new ByteArrayBitWriter(dst, 2, expected
+				.size());
+		writeMixed(fixed);
+		assertEquals(expected.size(), fixed.size());
+		assertArrayEquals(expected.toByteArray(), Arrays.copyOfRange(dst, 2,
+				2 + expected.size()));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void arrayWriterStopsAtItsRange() throws Exception {
+		ByteArrayBitWriter w = new ByteArrayBitWriter(new byte[4], 1, 2);
+		w.writeBits(0xabcdef, 24);
+	}
+
+	@Test
+	public void arrayReaderReadsBack() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(77);
+		writeMixed(new OutputStreamBitWriter(out));
+		ByteArrayBitReader r = new ByteArrayBitReader(out.toByteArray(), 1,
+				out.size() - 1);
+
+		assertEquals(out.size() - 1, r.length());
+		assertEquals(1, r.readBit());
+		assertEquals(0x5a5, r.readBits(11));
+		assertEquals(0xc3, r.readByte());
+		assertEquals(300, r.readInt());
+		byte[] b = new byte[3];
+		assertEquals(3, r.readBytes(b, 0, 3));
+		assertArrayEquals(new byte[] { 2, 3, 4 }, b);
+		r.readBits(4);
+		assertEquals(9, r.readByte());
+		assertEquals(8, r.readByte());
+		assertEquals(7, r.readInt());
+		assertEquals(-1, r.readBit());
+		assertEquals(-1, r.readBytes(b, 0, 3));
+
+		r.reset();
+		assertEquals(1, r.readBit());
+	}
+
+	@Test
+	public void bufferWriterAndReader() throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		writeMixed(new OutputStreamBitWriter(expected));
+
+		ByteBuffer buf = ByteBuffer.allocateDirect(expected.size() + 1);
+		buf.put((byte) 77);
+		ByteBufferBitWriter w = new ByteBufferBitWriter(buf);
+		writeMixed(w);
+		assertEquals(expected.size(), w.size());
+		byte[] written = new byte[expected.size()];
+		buf.flip().position(1);
+		buf.duplicate().get(written);
+		assertArrayEquals(expected.toByteArray(), written);
+
+		ByteBufferBitReader r = new ByteBufferBitReader(buf);
+		assertEquals(expected.size(), r.length());
+		assertEquals(1, r.readBit());
+		assertEquals(0x5a5, r.readBits(11));
+		assertEquals(0xc3, r.readByte());
+		assertEquals(300, r.readInt());
+		r.reset();
+		assertEquals(1, buf.position());
+		assertEquals(1, r.readBit());
+	}
+
+	@Test
+	public void roundTripThroughFileChannels() throws Exception {
+		byte[] input = new byte[200000];
+		Random r = new Random(2);
+		for (int i = 0; i < input.length; i++)
+			input[i] = (byte) ('a' + r.nextInt(8));
+		File raw = File.createTempFile("bitio", ".raw");
+		File packed = File.createTempFile("bitio", ".tez");
+		File unpacked = File.createTempFile("bitio", ".out");
+		try {
+			Files.write(raw.toPath(), input);
+			BurrowsWheelerCompressor bw = new BurrowsWheelerCompressor();
+
+			FileChannel in = FileChannel.open(raw.toPath());
+			FileChannel out = FileChannel.open(packed.toPath(),
+					StandardOpenOption.WRITE);
+			bw.compress(in, out);
+			in.close();
+			out.close();
+			assertArrayEquals(bw.compress(input), Files.readAllBytes(packed
+					.toPath()));
+
+			in = FileChannel.open(packed.toPath());
+			out = FileChannel.open(unpacked.toPath(), StandardOpenOption.WRITE);
+			bw.expand(in, out);
+			in.close();
+			out.close();
+			assertArrayEquals(input, Files.readAllBytes(unpacked.toPath()));
+		} finally {
+			raw.delete();
+			packed.delete();
+			unpacked.delete();
+		}
+	}
+}
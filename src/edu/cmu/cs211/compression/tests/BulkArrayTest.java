@@ -0,0 +1,132 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.container.SeekableCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+
+public class BulkArrayTest {
+
+	private static Compressor[] compressors() {
+		return new Compressor[] { new HuffmanCompressor(),
+				new HuffmanCompressor(100), new HuffmanCompressor(0, 700),
+				new HuffmanCompressor(100, 700, true),
+				new BurrowsWheelerCompressor(),
+				new BurrowsWheelerCompressor(900),
+				new SeekableCompressor(new HuffmanCompressor(50), 1000) };
+	}
+
+	private static byte[][] inputs() {
+		Random r = new Random(9);
+		byte[] text = new byte[5000];
+		for (int i = 0; i < text.length; i++)
+			text[i] = (byte) ('a' + r.nextInt(5));
+		byte[] noise = new byte[3000];
+		r.nextBytes(noise);
+		// a sample of one value followed by every other value
+		byte[] skewed = new byte[2000];
+		for (int i = 1500; i < skewed.length; i++)
+			skewed[i] = (byte) i;
+		return new byte[][] { {}, { 42 }, text, noise, skewed };
+	}
+
+	@Test
+	public void roundTripsAtOffsets() throws Exception {
+		for (Compressor c : compressors()) {
+			for (byte[] x : inputs()) {
+				byte[] src = new byte[x.length + 10];
+				System.arraycopy(x, 0, src, 3, x.length);
+				byte[] dst = new byte[c.maxCompressedLength(x.length) + 5];
+				int n = c.compress(src, 3, x.length, dst, 5);
+				assertArrayEquals(c.compress(x), Arrays.copyOfRange(dst, 5,
+						5 + n));
+
+				byte[] out = new byte[x.length + 1];
+				assertEquals(x.length, c.expand(dst, 5, n, out, 1));
+				assertArrayEquals(x, Arrays.copyOfRange(out, 1, out.length));
+			}
+		}
+	}
+
+	@Test
+	public void boundIsEnough() throws Exception {
+		CompressionContext context = new CompressionContext();
+		for (Compressor c : compressors()) {
+			for (byte[] x : inputs()) {
+				// exactly the bound must always be enough
+				byte[] dst = new byte[c.maxCompressedLength(x.length)];
+				int n = c.compress(x, 0, x.length, dst, 0, context);
+				assertTrue(n <= dst.length);
+			}
+		}
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void destinationTooSmall() throws Exception {
+		byte[] x = new byte[1000];
+		new Random(1).nextBytes(x);
+		new HuffmanCompressor().compress(x, 0, x.length, new byte[100], 0);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void badSourceRange() throws Exception {
+		new HuffmanCompressor().compress(new byte[10], 5, 6, new byte[1000], 0);
+	}
+
+	@Test
+	public void roundTripsThroughBuffers() throws Exception {
+		for (boolean direct : new boolean[] { false, true }) {
+			for (Compressor c : compressors()) {
+				for (byte[] x : inputs()) {
+					ByteBuffer src = allocate(x.length + 3, direct);
+					src.position(3);
+					src.put(x).position(3);
+					ByteBuffer dst = allocate(c.maxCompressedLength(x.length) + 2,
+							direct);
+					dst.position(2);
+					int n = c.compress(src, dst);
+					assertEquals(src.limit(), src.position());
+					assertEquals(2 + n, dst.position());
+					byte[] compressed = new byte[n];
+					dst.flip().position(2);
+					dst.duplicate().get(compressed);
+					assertArrayEquals(c.compress(x), compressed);
+
+					ByteBuffer out = allocate(x.length, direct);
+					assertEquals(x.length, c.expand(dst, out));
+					assertEquals(dst.limit(), dst.position());
+					byte[] expanded = new byte[x.length];
+					out.flip();
+					out.get(expanded);
+					assertArrayEquals(x, expanded);
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer allocate(int capacity, boolean direct) {
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer
+				.allocate(capacity);
+	}
+
+	@Test(expected = BufferOverflowException.class)
+	public void bufferTooSmall() throws Exception {
+		byte[] x = new byte[1000];
+		new Random(1).nextBytes(x);
+		ByteBuffer src = ByteBuffer.allocateDirect(x.length);
+		src.put(x).flip();
+		new HuffmanCompressor().compress(src, ByteBuffer.allocateDirect(100));
+	}
+}
@@ -1,9 +1,20 @@
 package edu.cmu.cs211.compression.tests;
 
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
 
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import edu.cmu.cs211.compression.CompressionContext;
 import edu.cmu.cs211.compression.bw.*;
 
 public class BurrowsWheelerCompressorTest {
@@ -189,4 +200,303 @@ public class BurrowsWheelerCompressorTest {
 		}
 	}
 
+	/*
+	 * Reference transformation: sorts the rotations with a plain comparator,
+	 * ordering identical rotations by index.
+	 */
+	private static byte[] referenceTransform(final byte[] input) {
+		final int n = input.length;
+		List<Integer> indices = new ArrayList<Integer>();
+		for (int i = 0; i < n; i++)
+			indices.add(i);
+		Collections.sort(indices, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				for (int k = 0; k < n; k++) {
+					int diff = input[(a + k) % n] - input[(b + k) % n];
+					if (diff != 0)
+						return diff;
+				}
+				return a - b;
+			}
+		});
+		byte[] out = new byte[n + 4];
+		int primary = indices.indexOf(0);
+		for (int i = 0; i < 4; i++)
+			out[i] = (byte) (primary >>> ((3 - i) * 8));
+		for (int i = 0; i < n; i++)
+			out[4 + i] = input[(indices.get(i) + n - 1) % n];
+		return out;
+	}
+
+	private static void checkAgainstReference(byte[] input) {
+		byte[] expected = referenceTransform(input);
+		assertArrayEquals(expected, new BurrowsWheelerTransformer().transform(input));
+		assertArrayEquals(expected, new BurrowsWheelerTransformer(true).transform(input));
+		assertArrayEquals(input, new BurrowsWheelerTransformer().invertTransform(expected));
+	}
+
+	@Test
+	public void testBWMatchesReference() throws Exception {
+		byte[] random = new byte[3000];
+		new Random(42).nextBytes(random);
+		checkAgainstReference(random);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			text.append("colorless green ideas sleep furiously ").append(i % 7);
+		checkAgainstReference(text.toString().getBytes("ASCII"));
+		checkAgainstReference(new byte[] { 5 });
+	}
+
+	@Test
+	public void testBWPeriodic() throws Exception {
+		// identical rotations; also forces the fallback sort
+		byte[] same = new byte[4000];
+		Arrays.fill(same, (byte) 'a');
+		checkAgainstReference(same);
+		checkAgainstReference("abababababab".getBytes("ASCII"));
+	}
+
+	@Test
+	public void testBWAroundBucketThreshold() throws Exception {
+		// inputs below 4096 bytes are sorted without buckets
+		checkAgainstReference(TestUtil.random(4095, 4095));
+		checkAgainstReference(TestUtil.random(4096, 4096));
+		// a run that is not periodic runs out of budget all the same
+		byte[] run = new byte[4000];
+		Arrays.fill(run, (byte) 'a');
+		run[3999] = 'b';
+		checkAgainstReference(run);
+	}
+
+	@Test
+	public void testBWParallelLarge() throws Exception {
+		byte[] input = new byte[1 << 18];
+		Random r = new Random(3);
+		for (int i = 0; i < input.length; i++)
+			input[i] = (byte) ('a' + r.nextInt(4));
+		byte[] sequential = new BurrowsWheelerTransformer().transform(input);
+		byte[] parallel = new BurrowsWheelerTransformer(true).transform(input);
+		assertArrayEquals(sequential, parallel);
+		assertArrayEquals(input, new BurrowsWheelerTransformer().invertTransform(parallel));
+	}
+
+	@Test
+	public void testBWMemoryBudget() throws Exception {
+		StringBuilder text = new StringBuilder();
+		Random r = new Random(5);
+		for (int i = 0; i < 3000; i++)
+			text.append("abcab".charAt(r.nextInt(5)));
+		byte[] input = text.toString().getBytes("ASCII");
+		byte[] expected = new BurrowsWheelerTransformer().transform(input);
+
+		// budgets from one bucket at a time down to single sub-buckets
+		for (long budget : new long[] { 4000, 400, 40, 4, 1 }) {
+			assertArrayEquals(expected,
+					new BurrowsWheelerTransformer(false, budget).transform(input));
+		}
+
+		byte[] same = new byte[300];
+		Arrays.fill(same, (byte) -3);
+		assertArrayEquals(new BurrowsWheelerTransformer().transform(same),
+				new BurrowsWheelerTransformer(false, 64).transform(same));
+	}
+
+	@Test(timeout = 20000)
+	public void testBWMemoryBudgetRepetitiveInput() throws Exception {
+		int n = 100000;
+		Random r = new Random(6);
+		byte[] runs = new byte[n];
+		for (int i = n / 2; i < n; i++)
+			runs[i] = (byte) ('a' + r.nextInt(20));
+		byte[] nearlyPeriodic = new byte[n];
+		for (int i = 0; i < n; i++)
+			nearlyPeriodic[i] = (byte) "abcde".charAt(i % 5);
+		nearlyPeriodic[n - 1] = 'z';
+		byte[] periodic = Arrays.copyOf(nearlyPeriodic, n);
+		periodic[n - 1] = 'e';
+		byte[] twice = new byte[n];
+		for (int i = 0; i < n / 2; i++)
+			twice[i] = twice[i + n / 2] = (byte) ('a' + r.nextInt(3));
+		byte[] noise = new byte[4 * n];
+		r.nextBytes(noise);
+
+		for (byte[] input : new byte[][] { runs, nearlyPeriodic, periodic, twice }) {
+			byte[] expected = new BurrowsWheelerTransformer().transform(input);
+			for (long budget : new long[] { 2 * n, n / 2 }) {
+				assertArrayEquals(expected, new BurrowsWheelerTransformer(
+						false, budget).transform(input));
+			}
+		}
+		assertArrayEquals(new BurrowsWheelerTransformer().transform(noise),
+				new BurrowsWheelerTransformer(false, 1 << 14).transform(noise));
+		byte[] zeros = new byte[n];
+		assertArrayEquals(new BurrowsWheelerTransformer().transform(zeros),
+				new BurrowsWheelerTransformer(false, 4096).transform(zeros));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBWInvertMissingHeader() throws Exception {
+		new BurrowsWheelerTransformer().invertTransform(new byte[] { 1, 2 });
+	}
+
+	@Test
+	public void empty() throws Exception {
+		TestUtil.checkRoundTrip(new BurrowsWheelerCompressor(), new byte[0]);
+	}
+
+	@Test
+	public void testDirectBuffers() throws Exception {
+		byte[] input = "colorless green ideas sleep furiously".getBytes("ASCII");
+		MoveToFrontTransformer mtf = new MoveToFrontTransformer();
+		BurrowsWheelerTransformer bw = new BurrowsWheelerTransformer();
+
+		ByteBuffer src = ByteBuffer.allocateDirect(input.length);
+		src.put(input).flip();
+		ByteBuffer transformed = ByteBuffer.allocateDirect(bw.maxTransformedLength(input.length));
+		assertEquals(input.length + 4, bw.transform(src, transformed));
+		transformed.flip();
+		byte[] heap = new byte[transformed.remaining()];
+		transformed.duplicate().get(heap);
+		assertArrayEquals(bw.transform(input), heap);
+
+		ByteBuffer moved = ByteBuffer.allocateDirect(transformed.remaining());
+		mtf.transform(transformed, moved);
+		moved.flip();
+		ByteBuffer restored = ByteBuffer.allocateDirect(moved.remaining());
+		mtf.invertTransform(moved, restored);
+		restored.flip();
+
+		ByteBuffer output = ByteBuffer.allocateDirect(input.length);
+		assertEquals(input.length, bw.invertTransform(restored, output));
+		assertEquals(0, restored.remaining());
+		output.flip();
+		byte[] result = new byte[output.remaining()];
+		output.get(result);
+		assertArrayEquals(input, result);
+
+		// a context keeps the table between calls
+		CompressionContext context = new CompressionContext();
+		for (int i = 0; i < 2; i++) {
+			ByteBuffer again = ByteBuffer.allocateDirect(input.length);
+			assertEquals(input.length, bw.invertTransform(ByteBuffer.wrap(heap),
+					again, context));
+			again.flip();
+			again.get(result);
+			assertArrayEquals(input, result);
+		}
+		assertEquals(input.length,
+				context.ints(CompressionContext.SORT, 0).length);
+	}
+
+	@Test(expected = BufferOverflowException.class)
+	public void testDirectBufferTooSmall() throws Exception {
+		byte[] transformed = new BurrowsWheelerTransformer().transform("banana".getBytes("ASCII"));
+		new BurrowsWheelerTransformer().invertTransform(ByteBuffer.wrap(transformed),
+				ByteBuffer.allocateDirect(3));
+	}
+
+	@Test
+	public void testBlocks() throws Exception {
+		byte[] x = new byte[10000];
+		Random r = new Random(7);
+		for (int i = 0; i < x.length; i++)
+			x[i] = (byte) ('a' + r.nextInt(4));
+		for (int blockSize : new int[] { 1, 100, 4096, 10000, 50000 }) {
+			TestUtil.checkRoundTrip(new BurrowsWheelerCompressor(blockSize), x);
+			TestUtil.checkRoundTrip(new BurrowsWheelerCompressor(blockSize, true), x);
+		}
+		TestUtil.checkRoundTrip(new BurrowsWheelerCompressor(100, true), new byte[0]);
+	}
+
+	@Test
+	public void testPipelinedMatchesSequential() throws Exception {
+		// letters, since random bytes would all go into stored frames
+		byte[] x = TestUtil.letters(100000, 3);
+		byte[] sequential = new BurrowsWheelerCompressor(8192).compress(x);
+		byte[] pipelined = new BurrowsWheelerCompressor(8192, true).compress(x);
+		assertArrayEquals(sequential, pipelined);
+		// the block size of the expander does not have to match
+		assertArrayEquals(x, new BurrowsWheelerCompressor(5, true).expand(sequential));
+	}
+
+	@Test
+	public void testAnyCompressorExpandsAnyFormat() throws Exception {
+		byte[] x = TestUtil.letters(30000, 8);
+		BurrowsWheelerCompressor[] compressors = {
+				new BurrowsWheelerCompressor(),
+				new BurrowsWheelerCompressor(4096),
+				new BurrowsWheelerCompressor(7000, true) };
+		for (BurrowsWheelerCompressor from : compressors) {
+			byte[] compressed = from.compress(x);
+			for (BurrowsWheelerCompressor to : compressors)
+				assertArrayEquals(x, to.expand(compressed));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownFormat() throws Exception {
+		byte[] compressed = new BurrowsWheelerCompressor(100).compress("banana"
+				.getBytes("ASCII"));
+		// the marker of value 7 in place of that of the frames
+		compressed[0] = (byte) 0x81;
+		compressed[1] = (byte) 0xc0;
+		compressed[2] = (byte) 0xe0;
+		new BurrowsWheelerCompressor().expand(compressed);
+	}
+
+	@Test
+	public void testBaselineStream() throws Exception {
+		// the output of "tez b" before streams had markers
+		byte[] baseline = { (byte) 0x80, 0x3c, (byte) 0xc6, 0x66, (byte) 0x88,
+				0x0f, 0x30, 0x20, 0x17, 0x01, 0x00, 0x73, (byte) 0x9c, 0x0e,
+				0x70, (byte) 0x9a, (byte) 0xa7, 0x43, (byte) 0xa9, 0x48,
+				(byte) 0x97, 0x11, 0x41, 0x3c, 0x57, (byte) 0x96, (byte) 0xdd,
+				(byte) 0xfb, (byte) 0xfc, 0x2d, (byte) 0xda, (byte) 0xf9,
+				(byte) 0x8e, (byte) 0x8a, (byte) 0xd3, (byte) 0xc0 };
+		byte[] text = "she sells sea shells by the sea shore".getBytes("ASCII");
+		assertArrayEquals(text, new BurrowsWheelerCompressor().expand(baseline));
+		assertArrayEquals(text, new BurrowsWheelerCompressor(1000, true)
+				.expand(baseline));
+	}
+
+	@Test(expected = IOException.class)
+	public void testPipelinedCorruptFrame() throws Exception {
+		byte[] x = new byte[20000];
+		new Random(5).nextBytes(x);
+		byte[] compressed = new BurrowsWheelerCompressor(1000, true).compress(x);
+		// after the marker, the first frame claims one more byte than it
+		// holds
+		compressed[3]++;
+		new BurrowsWheelerCompressor(1000, true).expand(compressed);
+	}
+
+	@Test
+	public void testFrameBeyondStream() throws Exception {
+		// a stored frame of 2^31 - 17 bytes, and a compressed one claiming as
+		// many with a one-byte payload
+		byte[][] streams = {
+				{ (byte) 0x80, 0x40, 0x20, (byte) 0xef, (byte) 0xff,
+						(byte) 0xff, (byte) 0xff, 7, 0 },
+				{ (byte) 0x80, 0x40, 0x20, (byte) 0xef, (byte) 0xff,
+						(byte) 0xff, (byte) 0xff, 7, 1, 0 } };
+		BurrowsWheelerCompressor[] compressors = {
+				new BurrowsWheelerCompressor(1000),
+				new BurrowsWheelerCompressor(1000, true) };
+		for (byte[] stream : streams) {
+			for (BurrowsWheelerCompressor c : compressors) {
+				try {
+					c.expand(stream);
+					fail();
+				} catch (IOException expected) {
+				}
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroBlockSize() {
+		new BurrowsWheelerCompressor(0);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+
+public class CompressionContextTest {
+
+	@Test
+	public void buffersAreReused() {
+		CompressionContext context = new CompressionContext();
+		byte[] first = context.bytes(CompressionContext.INPUT, 100);
+		assertTrue(first.length >= 100);
+		assertSame(first, context.bytes(CompressionContext.INPUT, 50));
+		assertNotSame(first, context.bytes(CompressionContext.INPUT, 1000));
+		assertTrue(context.ints(7, 10).length >= 10);
+	}
+
+	@Test
+	public void sameOutputAsWithoutContext() throws Exception {
+		Compressor[] compressors = new Compressor[] {
+				new BurrowsWheelerCompressor(), new HuffmanCompressor() };
+		CompressionContext context = new CompressionContext();
+		Random r = new Random(11);
+		// shrinking and growing inputs through one context
+		for (int size : new int[] { 2000, 10, 0, 5000, 1 }) {
+			byte[] input = new byte[size];
+			for (int i = 0; i < size; i++)
+				input[i] = (byte) ('a' + r.nextInt(6));
+			for (Compressor c : compressors) {
+				byte[] compressed = c.compress(input, context);
+				assertArrayEquals(c.compress(input), compressed);
+				assertArrayEquals(input, c.expand(compressed, context));
+			}
+		}
+	}
+
+	@Test
+	public void poolHandsOutReleasedContexts() {
+		CompressionContext.Pool pool = new CompressionContext.Pool(1);
+		CompressionContext a = pool.acquire();
+		CompressionContext b = pool.acquire();
+		assertNotSame(a, b);
+		pool.release(a);
+		pool.release(b);
+		assertSame(a, pool.acquire());
+	}
+}
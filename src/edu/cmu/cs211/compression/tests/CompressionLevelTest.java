@@ -0,0 +1,71 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionLevel;
+import edu.cmu.cs211.compression.Compressor;
+
+public class CompressionLevelTest {
+
+	@Test
+	public void everyLevelRoundTrips() throws Exception {
+		byte[] noise = TestUtil.random(20000, 1);
+		for (int level = CompressionLevel.MIN_LEVEL; level <= CompressionLevel.MAX_LEVEL; level++) {
+			Compressor c = CompressionLevel.compressor(level);
+			TestUtil.checkRoundTrip(c, new byte[0]);
+			TestUtil.checkRoundTrip(c, TestUtil.words(150000, 150000));
+			TestUtil.checkRoundTrip(c, noise);
+		}
+	}
+
+	@Test
+	public void sortingLevelsCompressTextBetter() throws Exception {
+		byte[] x = TestUtil.words(200000, 200000);
+		int huffman = CompressionLevel.compressor(2).compress(x).length;
+		int small = CompressionLevel.compressor(3).compress(x).length;
+		int whole = CompressionLevel.compressor(9).compress(x).length;
+		assertTrue(small < huffman);
+		assertTrue(whole <= small);
+	}
+
+	@Test
+	public void anyLevelExpandsAnyOther() throws Exception {
+		byte[] x = TestUtil.words(20000, 20000);
+		for (int from = CompressionLevel.MIN_LEVEL; from <= CompressionLevel.MAX_LEVEL; from++) {
+			Compressor c = CompressionLevel.compressor(from);
+			byte[] packed = c.compress(x);
+			byte[] direct = new byte[c.maxCompressedLength(x.length)];
+			int n = c.compress(x, 0, x.length, direct, 0);
+			assertArrayEquals(packed, Arrays.copyOf(direct, n));
+			assertEquals(from, packed[0]);
+			for (int to = CompressionLevel.MIN_LEVEL; to <= CompressionLevel.MAX_LEVEL; to++)
+				assertArrayEquals(x, CompressionLevel.compressor(to).expand(
+						packed));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownLevel() throws Exception {
+		Compressor c = CompressionLevel.compressor(5);
+		byte[] packed = c.compress(TestUtil.words(1000, 1000));
+		packed[0] = (byte) (CompressionLevel.MAX_LEVEL + 1);
+		c.expand(packed);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void levelTooLow() {
+		CompressionLevel.compressor(0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void levelTooHigh() {
+		CompressionLevel.compressor(10);
+	}
+}
@@ -0,0 +1,130 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.CompressionListener.Stage;
+import edu.cmu.cs211.compression.JfrCompressionListener;
+import edu.cmu.cs211.compression.StageMetrics;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+
+public class CompressionListenerTest {
+
+	@Test
+	public void noListener() {
+		CompressionContext context = new CompressionContext();
+		assertEquals(-1, context.startStage());
+		// ending an unstarted stage is harmless
+		context.endStage(Stage.BLOCK, -1, 0, 0);
+	}
+
+	@Test
+	public void blockedStages() throws Exception {
+		byte[] x = TestUtil.letters(10000, 10000);
+		for (boolean pipelined : new boolean[] { false, true }) {
+			BurrowsWheelerCompressor bw = new BurrowsWheelerCompressor(3000,
+					pipelined);
+			StageMetrics metrics = new StageMetrics();
+			CompressionContext context = new CompressionContext();
+			context.setListener(metrics);
+
+			byte[] compressed = bw.compress(x, context);
+			assertEquals(4, metrics.count(Stage.BLOCK));
+			assertEquals(4, metrics.count(Stage.BURROWS_WHEELER));
+			assertEquals(4, metrics.count(Stage.MOVE_TO_FRONT));
+			assertEquals(4, metrics.count(Stage.HISTOGRAM));
+			assertEquals(4, metrics.count(Stage.TREE_BUILD));
+			assertEquals(4, metrics.count(Stage.ENCODE));
+			assertEquals(x.length, metrics.bytesIn(Stage.BLOCK));
+			assertEquals(x.length, metrics.bytesIn(Stage.BURROWS_WHEELER));
+			assertEquals(x.length + 4 * 4, metrics.bytesOut(Stage.BURROWS_WHEELER));
+			assertTrue(metrics.bytesOut(Stage.BLOCK) > 0);
+
+			metrics.reset();
+			assertArrayEquals(x, bw.expand(compressed, context));
+			assertEquals(4, metrics.count(Stage.BLOCK));
+			assertEquals(4, metrics.count(Stage.DECODE));
+			assertEquals(4, metrics.count(Stage.INVERSE_MOVE_TO_FRONT));
+			assertEquals(4, metrics.count(Stage.INVERSE_BURROWS_WHEELER));
+			assertEquals(0, metrics.count(Stage.ENCODE));
+			assertEquals(x.length, metrics.bytesOut(Stage.BLOCK));
+		}
+	}
+
+	@Test
+	public void unendedStagesAreForgotten() {
+		StageMetrics metrics = new StageMetrics();
+		CompressionContext context = new CompressionContext();
+		context.setListener(metrics);
+		int outer = context.startStage();
+		// as if the inner stage threw before it could end
+		context.startStage();
+		context.endStage(Stage.BLOCK, outer, 1, 1);
+		assertEquals(1, metrics.count(Stage.BLOCK));
+		assertEquals(outer, context.startStage());
+	}
+
+	@Test
+	public void pooledContextsForgetStagesOfFailedJobs() throws Exception {
+		CompressionContext.Pool pool = new CompressionContext.Pool(1);
+		CompressionContext context = pool.acquire();
+		context.setListener(new StageMetrics());
+		byte[] compressed = new BurrowsWheelerCompressor(3000).compress(
+				TestUtil.letters(10000, 10000), context);
+		// after the marker, a first frame claiming 2999 bytes instead of 3000
+		// fails inside its block stage, after its payload has been read
+		assertEquals((byte) 0xb8, compressed[3]);
+		compressed[3] = (byte) 0xb7;
+		for (int i = 0; i < 3; i++) {
+			try {
+				new BurrowsWheelerCompressor(3000).expand(compressed, context);
+				fail();
+			} catch (IOException expected) {
+			}
+		}
+		assertTrue(context.startStage() > 0);
+		pool.release(context);
+		assertEquals(context, pool.acquire());
+		assertEquals(0, context.startStage());
+	}
+
+	@Test
+	public void flightRecorderEvents() throws Exception {
+		CompressionContext context = new CompressionContext();
+		context.setListener(new JfrCompressionListener());
+		File file = File.createTempFile("stages", ".jfr");
+		file.deleteOnExit();
+
+		Recording recording = new Recording();
+		recording.enable("edu.cmu.cs211.compression.Stage");
+		recording.start();
+		new HuffmanCompressor().compress(TestUtil.letters(1000, 1000), context);
+		recording.stop();
+		recording.dump(file.toPath());
+		recording.close();
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+		int encodes = 0;
+		for (RecordedEvent event : events) {
+			if (event.getString("stage").equals("ENCODE")) {
+				encodes++;
+				assertEquals(1000, event.getLong("bytesIn"));
+			}
+		}
+		assertEquals(1, encodes);
+	}
+}
@@ -0,0 +1,63 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionService;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+
+public class CompressionServiceTest {
+
+	@Test
+	public void roundTripsManyJobs() throws Exception {
+		BurrowsWheelerCompressor bw = new BurrowsWheelerCompressor();
+		CompressionService service = new CompressionService(bw, 3, 2);
+		Random r = new Random(9);
+		List<byte[]> inputs = new ArrayList<byte[]>();
+		List<CompletableFuture<byte[]>> futures = new ArrayList<CompletableFuture<byte[]>>();
+		for (int i = 0; i < 40; i++) {
+			byte[] input = new byte[r.nextInt(3000)];
+			for (int j = 0; j < input.length; j++)
+				input[j] = (byte) ('a' + r.nextInt(5));
+			inputs.add(input);
+			futures.add(i % 2 == 0 ? service.compress(input) : service
+					.compress(ByteBuffer.wrap(input)));
+		}
+		for (int i = 0; i < inputs.size(); i++) {
+			byte[] compressed = futures.get(i).get();
+			assertArrayEquals(bw.compress(inputs.get(i)), compressed);
+			assertArrayEquals(inputs.get(i), service.expand(compressed).get());
+		}
+		service.close();
+	}
+
+	@Test
+	public void failuresCompleteExceptionally() throws Exception {
+		CompressionService service = new CompressionService(
+				new BurrowsWheelerCompressor(), 1, 0);
+		try {
+			service.expand(new byte[] { 0 }).get();
+			assertTrue("corrupt input expanded", false);
+		} catch (ExecutionException expected) {
+		}
+		service.close();
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void closedServiceRejects() throws Exception {
+		CompressionService service = new CompressionService(
+				new BurrowsWheelerCompressor(), 1, 1);
+		service.close();
+		service.compress(new byte[1]);
+	}
+}
@@ -0,0 +1,50 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.DecodeCache;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+
+public class DecodeCacheTest {
+
+	@Test
+	public void cachesExpandedPayloads() throws Exception {
+		Compressor c = new BurrowsWheelerCompressor();
+		byte[] x = TestUtil.letters(5000, 1);
+		byte[] compressed = c.compress(x);
+
+		DecodeCache cache = new DecodeCache(1 << 20);
+		CompressionContext context = new CompressionContext();
+		context.setDecodeCache(cache);
+		byte[] first = c.expand(compressed, context);
+		first[0]++; // callers may scribble on the result
+		assertArrayEquals(x, c.expand(compressed, context));
+		assertEquals(1, cache.payloads().hits());
+		assertEquals(1, cache.payloads().misses());
+	}
+
+	@Test
+	public void cachesHuffmanCodes() throws Exception {
+		// same symbol statistics, different contents: same header, new payload
+		HuffmanCompressor c = new HuffmanCompressor(0, 0, true);
+		byte[] x = TestUtil.letters(5000, 2);
+		byte[] y = x.clone();
+		y[0] = x[1];
+		y[1] = x[0];
+
+		DecodeCache cache = new DecodeCache(1 << 20);
+		CompressionContext context = new CompressionContext();
+		context.setDecodeCache(cache);
+		assertArrayEquals(x, c.expand(c.compress(x), context));
+		assertArrayEquals(y, c.expand(c.compress(y), context));
+		assertEquals(1, cache.codes().hits());
+		assertEquals(0, cache.payloads().hits());
+	}
+}
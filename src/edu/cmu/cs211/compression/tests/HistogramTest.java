@@ -0,0 +1,67 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.util.Histogram;
+
+public class HistogramTest {
+
+	private static int[] naive(byte[] b, int off, int len) {
+		int[] freqs = new int[256];
+		for (int i = off; i < off + len; i++)
+			freqs[b[i] & 0xff]++;
+		return freqs;
+	}
+
+	@Test
+	public void matchesNaiveCount() {
+		byte[] x = new byte[1003];
+		new Random(42).nextBytes(x);
+		assertTrue(Arrays.equals(naive(x, 0, x.length), Histogram.count(x)));
+		assertTrue(Arrays.equals(naive(x, 5, 990), Histogram.count(x, 5, 990)));
+	}
+
+	@Test
+	public void repeatedBytes() {
+		byte[] x = new byte[777];
+		Arrays.fill(x, (byte) 0xfe);
+		assertEquals(777, Histogram.count(x)[0xfe]);
+	}
+
+	@Test
+	public void accumulates() {
+		byte[] x = "abcab".getBytes();
+		int[] freqs = new int[256];
+		Histogram.count(x, 0, x.length, freqs);
+		Histogram.count(x, 0, 2, freqs);
+		assertEquals(3, freqs['a']);
+		assertEquals(3, freqs['b']);
+		assertEquals(1, freqs['c']);
+	}
+
+	@Test
+	public void directBuffer() {
+		byte[] x = new byte[513];
+		new Random(1).nextBytes(x);
+		ByteBuffer buf = ByteBuffer.allocateDirect(x.length);
+		buf.put(x).flip();
+		buf.position(10);
+
+		int[] freqs = new int[256];
+		Histogram.count(buf, freqs);
+		assertTrue(Arrays.equals(naive(x, 10, x.length - 10), freqs));
+		assertEquals(10, buf.position());
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void badRange() {
+		Histogram.count(new byte[10], 8, 3);
+	}
+}
@@ -1,14 +1,30 @@
 package edu.cmu.cs211.compression.tests;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.PriorityQueue;
 import java.util.Random;
 import edu.cmu.cs211.compression.huffman.HuffmanCode;
+import edu.cmu.cs211.compression.huffman.HuffmanNode;
 import java.util.HashMap;
 
 import org.junit.Test;
 
+import edu.cmu.cs211.compression.CompressionContext;
 import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+import edu.cmu.cs211.compression.io.ByteArrayBitReader;
+import edu.cmu.cs211.compression.io.InputStreamBitReader;
+import edu.cmu.cs211.compression.io.OutputStreamBitWriter;
 
 public class HuffmanCodeTest {
 
@@ -74,4 +90,220 @@ public class HuffmanCodeTest {
 		}
 	}
 
+	@Test
+	public void sampled() throws Exception {
+		// the tail contains bytes that never occur in the sampled prefix
+		byte[] x = new byte[5000];
+		for (int i = 0; i < 4000; i++)
+			x[i] = (byte) ('a' + i % 7);
+		Random r = new Random(7);
+		for (int i = 4000; i < x.length; i++)
+			x[i] = (byte) r.nextInt();
+		TestUtil.checkRoundTrip(new HuffmanCompressor(256), x);
+	}
+
+	@Test
+	public void sampledLargerThanInput() throws Exception {
+		byte[] input = "mississippi".getBytes("ASCII");
+		TestUtil.checkRoundTrip(new HuffmanCompressor(1 << 20), input);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeSampleSize() {
+		new HuffmanCompressor(-1);
+	}
+
+	@Test
+	public void chunked() throws Exception {
+		byte[] x = new byte[100000];
+		Random r = new Random(11);
+		for (int i = 0; i < x.length; i++)
+			x[i] = (byte) ('a' + r.nextInt(5) * r.nextInt(5));
+		for (int chunkSize : new int[] { 1, 1000, 4096, 100000, 1 << 20 })
+			TestUtil.checkRoundTrip(new HuffmanCompressor(0, chunkSize), x);
+		TestUtil.checkRoundTrip(new HuffmanCompressor(0, 16), new byte[0]);
+		TestUtil.checkRoundTrip(new HuffmanCompressor(0, 16), new byte[] { 3 });
+	}
+
+	@Test
+	public void chunkSizeOfExpanderDoesNotMatter() throws Exception {
+		// letters, since random bytes would be stored rather than chunked
+		byte[] x = TestUtil.letters(20000, 13);
+		byte[] compressed = new HuffmanCompressor(0, 3000).compress(x);
+		assertTrue(Arrays.equals(x, new HuffmanCompressor(0, 7).expand(compressed)));
+	}
+
+	@Test
+	public void anyCompressorExpandsAnyLayout() throws Exception {
+		byte[] x = TestUtil.letters(30000, 19);
+		HuffmanCompressor[] compressors = { new HuffmanCompressor(),
+				new HuffmanCompressor(0, 4096),
+				new HuffmanCompressor(0, 0, true),
+				new HuffmanCompressor(0, 5000, true) };
+		for (HuffmanCompressor from : compressors) {
+			byte[] compressed = from.compress(x);
+			for (HuffmanCompressor to : compressors) {
+				assertArrayEquals(x, to.expand(compressed));
+				assertArrayEquals(x, to.expand(compressed,
+						new CompressionContext()));
+			}
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void unknownLayout() throws Exception {
+		byte[] code = header(new HuffmanCode(new int[] { 1, 2, 3, 4 }));
+		byte[] stream = Arrays.copyOf(code, code.length + 8);
+		// a layout marker of -3, a length of 1 and a codeword
+		byte[] layout = { (byte) 0xfd, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+				0x0f, 1 };
+		System.arraycopy(layout, 0, stream, code.length, layout.length);
+		new HuffmanCompressor().expand(stream);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeChunkSize() {
+		new HuffmanCompressor(0, -1);
+	}
+
+	@Test
+	public void interleaved() throws Exception {
+		// skewed enough that some codewords are longer than a table lookup
+		byte[] x = new byte[200003];
+		Random r = new Random(17);
+		for (int i = 0; i < x.length; i++)
+			x[i] = (byte) Integer.numberOfTrailingZeros(r.nextInt() | 1 << 30);
+		TestUtil.checkRoundTrip(new HuffmanCompressor(0, 0, true), x);
+		TestUtil.checkRoundTrip(new HuffmanCompressor(0, 10001, true), x);
+		for (int n = 0; n < 9; n++)
+			TestUtil.checkRoundTrip(new HuffmanCompressor(0, 0, true),
+					Arrays.copyOf("mississippi".getBytes("ASCII"), n));
+		TestUtil.checkRoundTrip(new HuffmanCompressor(0, 0, true), new byte[77]);
+	}
+
+	@Test
+	public void optimalTree() {
+		Random r = new Random(5);
+		for (int trial = 0; trial < 50; trial++) {
+			int[] freqs = new int[256];
+			HashMap<Byte, Integer> freqMap = new HashMap<Byte, Integer>();
+			PriorityQueue<Long> merges = new PriorityQueue<Long>();
+			int symbols = 1 + r.nextInt(256);
+			for (int i = 0; i < symbols; i++) {
+				freqs[i] = 1 + r.nextInt(trial % 2 == 0 ? 10 : 100000);
+				freqMap.put((byte) i, freqs[i]);
+				merges.add((long) freqs[i]);
+			}
+			// the cost of an optimal code is the sum of the weights of the merges
+			long optimal = 0;
+			while (merges.size() > 1) {
+				long merged = merges.poll() + merges.poll();
+				optimal += merged;
+				merges.add(merged);
+			}
+			assertEquals(optimal, cost(new HuffmanCode(freqs).getCodeTreeRoot(), 0));
+			assertEquals(optimal, cost(new HuffmanCode(freqMap).getCodeTreeRoot(), 0));
+		}
+	}
+
+	@Test
+	public void headerRoundTrip() throws Exception {
+		int[] freqs = new int[256];
+		Random r = new Random(8);
+		for (int i = 0; i < 200; i++)
+			freqs[r.nextInt(256)] += 1 + r.nextInt(1000);
+		HuffmanCode code = new HuffmanCode(freqs);
+		byte[] header = header(code);
+		HuffmanCode read = new HuffmanCode(new InputStreamBitReader(
+				new ByteArrayInputStream(header)));
+		assertArrayEquals(header, header(read));
+		assertArrayEquals(header, header(new HuffmanCode(read.getCodeTreeRoot())));
+	}
+
+	@Test
+	public void keepsGivenTree() {
+		HuffmanNode root = new HuffmanNode(new HuffmanNode((byte) 1),
+				new HuffmanNode((byte) 2));
+		assertSame(root, new HuffmanCode(root).getCodeTreeRoot());
+	}
+
+	@Test
+	public void deepCodewords() throws Exception {
+		// a chain of 100 leaves gives codewords longer than a long
+		HuffmanNode root = new HuffmanNode((byte) 0);
+		for (int i = 1; i < 100; i++)
+			root = new HuffmanNode(new HuffmanNode((byte) i), root);
+		HuffmanCode code = new HuffmanCode(root);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStreamBitWriter writer = new OutputStreamBitWriter(out);
+		for (int i = 0; i < 100; i++)
+			code.encode((byte) i, writer);
+		writer.flush();
+		InputStreamBitReader reader = new InputStreamBitReader(
+				new ByteArrayInputStream(out.toByteArray()));
+		for (int i = 0; i < 100; i++)
+			assertEquals(Byte.valueOf((byte) i), code.decode(reader));
+	}
+
+	@Test(expected = IOException.class)
+	public void truncatedHeader() throws Exception {
+		byte[] header = header(new HuffmanCode(new int[] { 1, 2, 3, 4 }));
+		new HuffmanCode(new InputStreamBitReader(new ByteArrayInputStream(
+				Arrays.copyOf(header, header.length - 1))));
+	}
+
+	@Test
+	public void lengthBeyondStreamIsRejected() throws Exception {
+		byte[] code = header(new HuffmanCode(new int[] { 1, 2, 3, 4 }));
+		byte[] stream = Arrays.copyOf(code, code.length + 8);
+		// a length of almost 2^31 bytes, followed by three bytes of codewords
+		byte[] length = { (byte) 0xf0, (byte) 0xff, (byte) 0xff, (byte) 0xff, 7 };
+		System.arraycopy(length, 0, stream, code.length, length.length);
+		CompressionContext context = new CompressionContext();
+		try {
+			new HuffmanCompressor().expand(new ByteArrayBitReader(stream),
+					context, CompressionContext.INPUT);
+			fail();
+		} catch (IOException expected) {
+		}
+		// rejected before the output array was allocated
+		assertEquals(0, context.bytes(CompressionContext.INPUT, 0).length);
+	}
+
+	@Test
+	public void chunksBeyondStreamAreRejected() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStreamBitWriter writer = new OutputStreamBitWriter(out);
+		new HuffmanCode(new int[] { 1, 2, 3, 4 }).writeHeader(writer);
+		// a length and chunk size of 16, and one chunk of almost 2^31 bytes
+		writer.writeInt(HuffmanCompressor.CHUNKED);
+		writer.writeInt(16);
+		writer.writeInt(16);
+		writer.writeInt(Integer.MAX_VALUE - 16);
+		writer.writeBytes(new byte[8]);
+		writer.flush();
+		try {
+			new HuffmanCompressor().expand(out.toByteArray());
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("invalid chunk length"));
+		}
+	}
+
+	private static byte[] header(HuffmanCode code) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		OutputStreamBitWriter writer = new OutputStreamBitWriter(out);
+		code.writeHeader(writer);
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	/* Returns the sum of frequency times depth over the leaves below node */
+	private static long cost(HuffmanNode node, int depth) {
+		if (node.isLeaf())
+			return (long) node.getFreq() * depth;
+		return cost(node.getLeft(), depth + 1) + cost(node.getRight(), depth + 1);
+	}
+
 }
@@ -0,0 +1,110 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.util.LongMinHeap;
+
+public class LongMinHeapTest {
+
+	private static long[] random(int n, Random r) {
+		long[] x = new long[n];
+		for (int i = 0; i < n; i++)
+			x[i] = r.nextInt(8) == 0 ? r.nextLong() : r.nextInt(100) - 50;
+		return x;
+	}
+
+	private static long[] drain(LongMinHeap heap) {
+		long[] out = new long[heap.size()];
+		for (int i = 0; i < out.length; i++)
+			out[i] = heap.poll();
+		assertTrue(heap.isEmpty());
+		return out;
+	}
+
+	@Test
+	public void pollsInOrder() {
+		Random r = new Random(3);
+		for (int arity : new int[] { 2, 3, 4, 8 }) {
+			for (int n : new int[] { 0, 1, 2, 5, 17, 1000 }) {
+				long[] x = random(n, r);
+				LongMinHeap heap = new LongMinHeap(0, arity);
+				for (long v : x)
+					heap.add(v);
+				assertEquals(n, heap.size());
+				long[] sorted = x.clone();
+				Arrays.sort(sorted);
+				assertArrayEquals(sorted, drain(heap));
+			}
+		}
+	}
+
+	@Test
+	public void heapify() {
+		Random r = new Random(4);
+		for (int arity : new int[] { 2, 4, 5 }) {
+			for (int n : new int[] { 0, 1, 2, 3, 4, 5, 6, 100, 1001 }) {
+				long[] x = random(n + 2, r);
+				LongMinHeap heap = new LongMinHeap(1, arity);
+				heap.add(Long.MIN_VALUE);
+				heap.heapify(x, 1, n);
+				long[] sorted = Arrays.copyOfRange(x, 1, n + 1);
+				Arrays.sort(sorted);
+				assertArrayEquals(sorted, drain(heap));
+			}
+		}
+	}
+
+	@Test
+	public void interleaved() {
+		Random r = new Random(5);
+		LongMinHeap heap = new LongMinHeap();
+		PriorityQueue<Long> expected = new PriorityQueue<Long>();
+		for (int i = 0; i < 10000; i++) {
+			int op = r.nextInt(3);
+			if (op == 0 && !expected.isEmpty()) {
+				assertEquals(expected.poll().longValue(), heap.poll());
+			} else if (op == 1 && !expected.isEmpty()) {
+				long v = r.nextInt(1000);
+				assertEquals(expected.poll().longValue(), heap.replaceTop(v));
+				expected.add(v);
+			} else {
+				long v = r.nextInt(1000);
+				heap.add(v);
+				expected.add(v);
+			}
+			assertEquals(expected.size(), heap.size());
+			if (!expected.isEmpty())
+				assertEquals(expected.peek().longValue(), heap.peek());
+		}
+	}
+
+	@Test
+	public void pack() {
+		long a = LongMinHeap.pack(-5, 7);
+		long b = LongMinHeap.pack(-5, -1);
+		long c = LongMinHeap.pack(3, 0);
+		assertTrue(a < b && b < c);
+		assertEquals(-5, LongMinHeap.priority(b));
+		assertEquals(-1, LongMinHeap.item(b));
+		assertEquals(7, LongMinHeap.item(a));
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void pollEmpty() {
+		new LongMinHeap().poll();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unaryHeap() {
+		new LongMinHeap(10, 1);
+	}
+}
@@ -0,0 +1,106 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.container.SeekableCompressor;
+import edu.cmu.cs211.compression.container.SeekableExpander;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+
+public class SeekableTest {
+
+	@Test
+	public void roundTrip() throws Exception {
+		Compressor[] compressors = { new HuffmanCompressor(),
+				new BurrowsWheelerCompressor() };
+		for (Compressor c : compressors) {
+			TestUtil.checkRoundTrip(new SeekableCompressor(c, 1000), TestUtil.letters(0, 0));
+			TestUtil.checkRoundTrip(new SeekableCompressor(c, 1000), TestUtil.letters(1, 1));
+			TestUtil.checkRoundTrip(new SeekableCompressor(c, 1000), TestUtil.letters(1000, 1000));
+			TestUtil.checkRoundTrip(new SeekableCompressor(c, 1000), TestUtil.letters(4321, 4321));
+		}
+	}
+
+	@Test
+	public void randomReads() throws Exception {
+		byte[] x = TestUtil.letters(50000, 50000);
+		Compressor[] compressors = { new HuffmanCompressor(),
+				new BurrowsWheelerCompressor() };
+		for (Compressor c : compressors) {
+			byte[] container = new SeekableCompressor(c, 4096).compress(x);
+			File file = File.createTempFile("seekable", ".tez");
+			file.deleteOnExit();
+			FileChannel out = FileChannel.open(file.toPath(),
+					StandardOpenOption.WRITE);
+			out.write(ByteBuffer.wrap(container));
+			out.close();
+
+			SeekableExpander expander = new SeekableExpander(c, file.toPath());
+			assertEquals(x.length, expander.length());
+			Random r = new Random(1);
+			for (int i = 0; i < 200; i++) {
+				int offset = r.nextInt(x.length);
+				byte[] dst = new byte[r.nextInt(10000)];
+				int n = expander.read(offset, dst);
+				assertEquals(Math.min(dst.length, x.length - offset), n);
+				assertArrayEquals(Arrays.copyOfRange(x, offset, offset + n),
+						Arrays.copyOf(dst, n));
+			}
+			assertEquals(-1, expander.read(x.length, new byte[1]));
+			expander.close();
+		}
+	}
+
+	@Test
+	public void corruptBlock() throws Exception {
+		byte[] x = TestUtil.letters(5000, 5000);
+		SeekableCompressor sc = new SeekableCompressor(new HuffmanCompressor(),
+				1000);
+		byte[] container = sc.compress(x);
+		// flip a bit in the middle of the first block
+		int firstBlock = new HuffmanCompressor().compress(Arrays.copyOf(x, 1000)).length;
+		container[firstBlock / 2] ^= 1;
+		try {
+			sc.expand(container);
+			fail("corruption not detected");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void checksumsCanBeSkipped() throws Exception {
+		byte[] x = TestUtil.letters(3000, 3000);
+		byte[] container = new SeekableCompressor(new HuffmanCompressor(), 1000)
+				.compress(x);
+		// damage the stored checksum of the second block
+		container[container.length - 32 - 12 + 8] ^= 1;
+		try {
+			new SeekableCompressor(new HuffmanCompressor(), 1000).expand(container);
+			fail("bad checksum not detected");
+		} catch (IOException e) {
+			// expected
+		}
+		assertArrayEquals(x, new SeekableCompressor(new HuffmanCompressor(),
+				1000, false).expand(container));
+	}
+
+	@Test(expected = IOException.class)
+	public void notAContainer() throws Exception {
+		new SeekableCompressor(new HuffmanCompressor()).expand(new HuffmanCompressor()
+				.compress(TestUtil.letters(100, 100)));
+	}
+}
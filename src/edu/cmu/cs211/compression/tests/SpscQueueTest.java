@@ -0,0 +1,98 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CancellationException;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.util.SpscQueue;
+
+public class SpscQueueTest {
+
+	@Test
+	public void boundedFifo() {
+		SpscQueue<Integer> q = new SpscQueue<Integer>(3);
+		assertTrue(q.offer(1));
+		assertTrue(q.offer(2));
+		assertTrue(q.offer(3));
+		assertFalse(q.offer(4));
+		assertEquals(3, q.size());
+		assertEquals(Integer.valueOf(1), q.poll());
+		assertTrue(q.offer(4));
+		assertEquals(Integer.valueOf(2), q.poll());
+		assertEquals(Integer.valueOf(3), q.poll());
+		assertEquals(Integer.valueOf(4), q.poll());
+		assertNull(q.poll());
+	}
+
+	@Test
+	public void handOff() throws Exception {
+		final SpscQueue<Integer> q = new SpscQueue<Integer>(2);
+		final int count = 100000;
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < count; i++)
+						q.put(i);
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		producer.start();
+		for (int i = 0; i < count; i++)
+			assertEquals(i, q.take().intValue());
+		producer.join();
+		assertNull(q.poll());
+	}
+
+	@Test(expected = CancellationException.class)
+	public void cancelledTake() throws Exception {
+		SpscQueue<Integer> q = new SpscQueue<Integer>(1);
+		q.cancel();
+		q.take();
+	}
+
+	@Test
+	public void parkedTakeIsWoken() throws Exception {
+		final SpscQueue<Integer> q = new SpscQueue<Integer>(1);
+		final CancellationException[] cancelled = new CancellationException[1];
+		Thread consumer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					q.take();
+					// parks until cancelled, since nothing more is offered
+					q.take();
+				} catch (CancellationException e) {
+					cancelled[0] = e;
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		consumer.start();
+		// long enough for the consumer to stop spinning and park
+		Thread.sleep(50);
+		q.put(1);
+		Thread.sleep(50);
+		q.cancel();
+		consumer.join(10000);
+		assertFalse(consumer.isAlive());
+		assertTrue(cancelled[0] != null);
+		assertEquals(0, q.size());
+	}
+
+	@Test(expected = NullPointerException.class)
+	public void nullElement() {
+		new SpscQueue<Integer>(1).offer(null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void zeroCapacity() {
+		new SpscQueue<Integer>(0);
+	}
+}
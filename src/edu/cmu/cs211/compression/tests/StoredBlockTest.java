@@ -0,0 +1,113 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.CompressionContext;
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.DecodeCache;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+import edu.cmu.cs211.compression.util.EntropyEstimator;
+
+public class StoredBlockTest {
+
+	@Test
+	public void estimatorTellsNoiseFromText() {
+		byte[] noise = TestUtil.random(100000, 1);
+		byte[] letters = TestUtil.letters(100000, 2);
+		assertTrue(EntropyEstimator.looksIncompressible(noise, 0, noise.length));
+		assertTrue(EntropyEstimator.bitsPerByte(noise, 0, noise.length) > 7.9);
+		assertFalse(EntropyEstimator.looksIncompressible(letters, 0,
+				letters.length));
+		assertTrue(Math.abs(EntropyEstimator.bitsPerByte(letters, 0,
+				letters.length)
+				- Math.log(6) / Math.log(2)) < 0.05);
+	}
+
+	@Test
+	public void huffmanStoresNoise() throws Exception {
+		byte[] x = TestUtil.random(50000, 3);
+		HuffmanCompressor[] compressors = { new HuffmanCompressor(),
+				new HuffmanCompressor(0, 7000),
+				new HuffmanCompressor(0, 7000, true) };
+		for (HuffmanCompressor c : compressors) {
+			byte[] packed = c.compress(x);
+			assertTrue(packed.length <= x.length
+					+ HuffmanCompressor.MAX_STORED_OVERHEAD);
+			assertTrue(packed.length <= c.maxCompressedLength(x.length));
+			assertArrayEquals(x, c.expand(packed));
+
+			CompressionContext context = new CompressionContext();
+			context.setDecodeCache(new DecodeCache(1 << 20));
+			assertArrayEquals(packed, c.compress(x, context));
+			assertArrayEquals(x, c.expand(packed, context));
+			assertArrayEquals(x, c.expand(packed, context));
+
+			ByteBuffer src = ByteBuffer.allocateDirect(x.length);
+			src.put(x).flip();
+			ByteBuffer dst = ByteBuffer.allocateDirect(c
+					.maxCompressedLength(x.length));
+			c.compress(src, dst);
+			dst.flip();
+			byte[] direct = new byte[dst.remaining()];
+			dst.get(direct);
+			assertArrayEquals(packed, direct);
+		}
+	}
+
+	@Test
+	public void huffmanStillCodesSkewedInput() throws Exception {
+		byte[] x = TestUtil.letters(50000, 4);
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] packed = c.compress(x);
+		assertTrue(packed.length < x.length / 2);
+		assertArrayEquals(x, c.expand(packed));
+		// a single byte cannot be coded shorter than it is
+		TestUtil.checkRoundTrip(c, new byte[] { 7 });
+	}
+
+	@Test
+	public void burrowsWheelerStoresNoiseBlocks() throws Exception {
+		byte[] x = new byte[60000];
+		System.arraycopy(TestUtil.letters(20000, 5), 0, x, 0, 20000);
+		System.arraycopy(TestUtil.random(20000, 6), 0, x, 20000, 20000);
+		System.arraycopy(TestUtil.letters(20000, 7), 0, x, 40000, 20000);
+		Compressor[] compressors = { new BurrowsWheelerCompressor(10000),
+				new BurrowsWheelerCompressor(10000, true) };
+		for (Compressor c : compressors) {
+			TestUtil.checkRoundTrip(c, x);
+
+			byte[] noise = TestUtil.random(60000, 8);
+			byte[] packed = c.compress(noise);
+			// the marker, six frame headers and the end marker
+			assertTrue(packed.length <= noise.length + 3 + 6 * 2 * 3 + 1);
+			assertArrayEquals(noise, c.expand(packed));
+			// after the marker and the varint lengths 10000 and 0, the noise
+			// as it is
+			assertArrayEquals(Arrays.copyOfRange(noise, 0, 100), Arrays
+					.copyOfRange(packed, 6, 106));
+		}
+	}
+
+	@Test
+	public void singleBlockOutputIsBounded() throws Exception {
+		byte[] noise = TestUtil.random(30000, 9);
+		BurrowsWheelerCompressor c = new BurrowsWheelerCompressor();
+		byte[] packed = c.compress(noise);
+		assertTrue(packed.length <= c.maxCompressedLength(noise.length));
+		// the marker, the varint length 30000 and the noise unsorted
+		assertArrayEquals(noise, Arrays.copyOfRange(packed, 6, packed.length));
+		assertArrayEquals(noise, c.expand(packed));
+
+		// a blocked compressor expands it too
+		assertArrayEquals(noise, new BurrowsWheelerCompressor(1000)
+				.expand(packed));
+	}
+}
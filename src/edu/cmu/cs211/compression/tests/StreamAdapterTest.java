@@ -0,0 +1,192 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.Compressor;
+import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.container.CompressingOutputStream;
+import edu.cmu.cs211.compression.container.ExpandingInputStream;
+import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
+
+public class StreamAdapterTest {
+
+	/* A stream that supports neither mark nor a known length */
+	private static InputStream forwardOnly(byte[] b) {
+		return new FilterInputStream(new ByteArrayInputStream(b)) {
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			@Override
+			public int available() {
+				return 0;
+			}
+		};
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[777];
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) > 0)
+			out.write(buf, 0, n);
+		return out.toByteArray();
+	}
+
+	private static byte[] compress(Compressor c, byte[] x, int blockSize)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingOutputStream s = new CompressingOutputStream(out, c,
+				blockSize);
+		// uneven writes straddle the block boundaries
+		int i = 0;
+		for (int step = 1; i < x.length; step = step * 3 % 1000 + 1) {
+			int n = Math.min(step, x.length - i);
+			s.write(x, i, n);
+			i += n;
+		}
+		s.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		Compressor[] compressors = { new HuffmanCompressor(),
+				new BurrowsWheelerCompressor() };
+		for (Compressor c : compressors) {
+			for (int length : new int[] { 0, 1, 999, 1000, 25000 }) {
+				byte[] x = TestUtil.letters(length, length);
+				for (int blockSize : new int[] { 1, 1000, 1 << 20 }) {
+					if (blockSize == 1 && length > 1000)
+						continue;
+					byte[] packed = compress(c, x, blockSize);
+					InputStream in = new ExpandingInputStream(
+							forwardOnly(packed), c);
+					assertArrayEquals(x, readAll(in));
+					assertEquals(-1, in.read());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void byteAtATime() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] x = TestUtil.letters(3000, 3000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingOutputStream s = new CompressingOutputStream(out, c, 512);
+		for (byte b : x)
+			s.write(b);
+		s.close();
+
+		InputStream in = new ExpandingInputStream(forwardOnly(out
+				.toByteArray()), c);
+		byte[] y = new byte[x.length];
+		for (int i = 0; i < y.length; i++)
+			y[i] = (byte) in.read();
+		assertEquals(-1, in.read());
+		assertArrayEquals(x, y);
+	}
+
+	@Test
+	public void flushMakesWrittenBytesReadable() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] x = TestUtil.letters(5000, 5000);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CompressingOutputStream s = new CompressingOutputStream(out, c);
+		s.write(x, 0, 1234);
+		s.flush();
+
+		InputStream in = new ExpandingInputStream(forwardOnly(out
+				.toByteArray()), c);
+		byte[] prefix = new byte[1234];
+		assertEquals(1234, in.read(prefix, 0, prefix.length));
+		assertArrayEquals(Arrays.copyOf(x, 1234), prefix);
+
+		s.write(x, 1234, x.length - 1234);
+		s.close();
+		in = new ExpandingInputStream(forwardOnly(out.toByteArray()), c);
+		assertEquals(300, in.skip(300));
+		assertArrayEquals(Arrays.copyOfRange(x, 300, x.length), readAll(in));
+	}
+
+	@Test
+	public void corruptFrame() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] packed = compress(c, TestUtil.letters(4000, 4000), 1000);
+		// a byte in the middle of the first frame's payload
+		packed[8 + 12 + 200] ^= 0x10;
+		try {
+			readAll(new ExpandingInputStream(forwardOnly(packed), c));
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void frameLargerThanBlockSize() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] packed = compress(c, TestUtil.letters(4000, 4000), 1000);
+		// the first frame claims 2^30 uncompressed bytes
+		packed[8] = 0x40;
+		try {
+			readAll(new ExpandingInputStream(forwardOnly(packed), c));
+			fail();
+		} catch (IOException e) {
+			assertEquals("corrupt frame header", e.getMessage());
+		}
+		packed = compress(c, TestUtil.letters(4000, 4000), 1000);
+		// and here 2^30 compressed bytes
+		packed[12] = 0x40;
+		try {
+			readAll(new ExpandingInputStream(forwardOnly(packed), c));
+			fail();
+		} catch (IOException e) {
+			assertEquals("corrupt frame header", e.getMessage());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void badBlockSize() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] packed = compress(c, TestUtil.letters(4000, 4000), 1000);
+		packed[4] = (byte) 0x80;
+		new ExpandingInputStream(forwardOnly(packed), c);
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncated() throws Exception {
+		HuffmanCompressor c = new HuffmanCompressor();
+		byte[] packed = compress(c, TestUtil.letters(4000, 4000), 1000);
+		readAll(new ExpandingInputStream(forwardOnly(Arrays.copyOf(packed,
+				packed.length - 4)), c));
+	}
+
+	@Test(expected = IOException.class)
+	public void badMagic() throws Exception {
+		new ExpandingInputStream(forwardOnly(new byte[] { 1, 2, 3, 4 }),
+				new HuffmanCompressor());
+	}
+
+	@Test(expected = IOException.class)
+	public void writeAfterFinish() throws Exception {
+		CompressingOutputStream s = new CompressingOutputStream(
+				new ByteArrayOutputStream(), new HuffmanCompressor());
+		s.finish();
+		s.write(1);
+	}
+}
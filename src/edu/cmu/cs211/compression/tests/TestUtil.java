@@ -3,6 +3,7 @@ package edu.cmu.cs211.compression.tests;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.Random;
 
 import edu.cmu.cs211.compression.Compressor;
 
@@ -22,4 +23,43 @@ public class TestUtil {
 		assertTrue("Round trip failed", Arrays.equals(bytes, decompressed));
 	}
 
+	private static final String[] WORDS = { "the ", "block ", "is ",
+			"sorted ", "and ", "coded ", "with ", "a ", "Huffman ", "tree ",
+			"of ", "its ", "bytes ", "\n" };
+
+	/**
+	 * Returns letters from a six-letter alphabet drawn independently, so only
+	 * their frequencies help compress them.
+	 */
+	public static byte[] letters(int length, long seed) {
+		byte[] x = new byte[length];
+		Random r = new Random(seed);
+		for (int i = 0; i < length; i++)
+			x[i] = (byte) ('a' + r.nextInt(6));
+		return x;
+	}
+
+	/**
+	 * Returns words from a small vocabulary, so each byte is predicted by the
+	 * ones before it.
+	 */
+	public static byte[] words(int length, long seed) {
+		byte[] x = new byte[length];
+		Random r = new Random(seed);
+		int i = 0;
+		while (i < length) {
+			String word = WORDS[r.nextInt(WORDS.length)];
+			for (int k = 0; k < word.length() && i < length; k++)
+				x[i++] = (byte) word.charAt(k);
+		}
+		return x;
+	}
+
+	/** Returns uniformly random bytes, which do not compress */
+	public static byte[] random(int length, long seed) {
+		byte[] x = new byte[length];
+		new Random(seed).nextBytes(x);
+		return x;
+	}
+
 }
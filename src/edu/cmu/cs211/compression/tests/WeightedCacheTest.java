@@ -0,0 +1,96 @@
+package edu.cmu.cs211.compression.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.cmu.cs211.compression.util.WeightedCache;
+
+public class WeightedCacheTest {
+
+	private static WeightedCache<Integer, String> cache(long maxWeight,
+			WeightedCache.Policy policy) {
+		return new WeightedCache<Integer, String>(maxWeight, policy,
+				new WeightedCache.Weigher<Integer, String>() {
+					public long weigh(Integer key, String value) {
+						return value.length();
+					}
+				});
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		WeightedCache<Integer, String> c = cache(10, WeightedCache.Policy.LRU);
+		c.put(1, "aaaa");
+		c.put(2, "bbbb");
+		c.get(1);
+		c.put(3, "cccc");
+		assertNull(c.get(2));
+		assertEquals("aaaa", c.get(1));
+		assertEquals("cccc", c.get(3));
+		assertEquals(8, c.weight());
+		assertEquals(1, c.evictions());
+		assertEquals(3, c.hits());
+		assertEquals(1, c.misses());
+	}
+
+	@Test
+	public void rejectsTooHeavy() {
+		WeightedCache<Integer, String> c = cache(3, WeightedCache.Policy.LRU);
+		assertFalse(c.put(1, "aaaa"));
+		assertEquals(0, c.size());
+		assertEquals(1, c.rejections());
+	}
+
+	@Test
+	public void tinyLfuKeepsHotEntries() {
+		WeightedCache<Integer, String> c = cache(10,
+				WeightedCache.Policy.TINY_LFU);
+		for (int i = 0; i < 10; i++) {
+			if (c.get(1) == null)
+				c.put(1, "hot!!");
+			if (c.get(2) == null)
+				c.put(2, "warm!");
+		}
+		// a scan of keys seen once does not displace them
+		for (int k = 100; k < 200; k++) {
+			if (c.get(k) == null)
+				assertFalse(c.put(k, "cold!"));
+		}
+		assertEquals("hot!!", c.get(1));
+		assertEquals("warm!", c.get(2));
+		assertTrue(c.rejections() >= 100);
+	}
+
+	@Test
+	public void rejectedPutChangesNothing() {
+		WeightedCache<Integer, String> c = cache(10,
+				WeightedCache.Policy.TINY_LFU);
+		for (int i = 0; i < 5; i++) {
+			c.get(1);
+			c.get(2);
+		}
+		assertTrue(c.put(3, "cc"));
+		assertTrue(c.put(1, "aaaa"));
+		assertTrue(c.put(2, "bbbb"));
+
+		// a cold entry that would need 3 and then 1 evicted is turned away
+		// at 1, so 3 must not have been evicted either
+		c.get(4);
+		assertFalse(c.put(4, "dddddd"));
+		assertEquals(3, c.size());
+		assertEquals(10, c.weight());
+		assertEquals("cc", c.get(3));
+
+		// nor does a rejected value for a cached key drop the old one
+		assertFalse(c.put(2, "bbbbbbbbbbbb"));
+		assertEquals(3, c.size());
+		assertEquals(10, c.weight());
+		assertEquals("bbbb", c.get(2));
+		assertEquals(0, c.evictions());
+		assertEquals(2, c.rejections());
+	}
+}
@@ -1,8 +1,13 @@
 package edu.cmu.cs211.compression;
 
 import java.io.File;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 import edu.cmu.cs211.compression.bw.BurrowsWheelerCompressor;
+import edu.cmu.cs211.compression.container.ArchiveReader;
+import edu.cmu.cs211.compression.container.ArchiveWriter;
+import edu.cmu.cs211.compression.container.AutoCompressor;
 import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
 
 /**
@@ -14,8 +19,20 @@ import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
  * <ul>
  * <li><b>h</b> - Huffman</li>
  * <li><b>b</b> - Burrows-Wheeler</li>
+ * <li><b>auto</b> - stored, Huffman or Burrows-Wheeler, chosen for every
+ * block by sampling it</li>
+ * <li><b>1</b> to <b>9</b> - a {@link CompressionLevel}, from fastest to
+ * smallest; any level expands what any other level compressed</li>
  * </ul>
  * MODE is one of c or x for compress or expand.
+ * <p>
+ * Directories are handled as archives, with one file compressed per core:
+ * <ul>
+ * <li><tt>java tez TYPE a directory archive</tt> - archive a directory</li>
+ * <li><tt>java tez TYPE u archive directory [name ...]</tt> - unpack an
+ * archive, or only the named files</li>
+ * <li><tt>java tez TYPE l archive</tt> - list the files of an archive</li>
+ * </ul>
  * 
  * <p>
  * An example is: <tt>java tez b c foo bar</tt>
@@ -24,6 +41,10 @@ import edu.cmu.cs211.compression.huffman.HuffmanCompressor;
 public class tez {
 
 	public static void main(String args[]) throws Exception {
+		if (args.length >= 3 && isArchiveMode(args[1])) {
+			archive(loadCompressor(args[0]), args);
+			return;
+		}
 		if (args.length != 4) {
 			System.out.println("java tez TYPE MODE input output");
 			return;
@@ -44,11 +65,50 @@ public class tez {
 		}
 	}
 
+	private static boolean isArchiveMode(String arg) {
+		return arg.equals("a") || arg.equals("u") || arg.equals("l");
+	}
+
+	private static void archive(Compressor compressor, String args[])
+			throws Exception {
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args[1].equals("a")) {
+			if (args.length != 4)
+				throw new RuntimeException("Usage: java tez TYPE a directory archive");
+			new ArchiveWriter(compressor, threads).write(Paths.get(args[2]),
+					Paths.get(args[3]));
+			return;
+		}
+
+		ArchiveReader reader = new ArchiveReader(compressor, Paths.get(args[2]));
+		try {
+			if (args[1].equals("l")) {
+				for (ArchiveReader.Entry entry : reader.entries())
+					System.out.println(entry.getLength() + "\t"
+							+ entry.getCompressedLength() + "\t" + entry);
+			} else if (args.length == 4) {
+				reader.extract(Paths.get(args[3]), threads);
+			} else if (args.length > 4) {
+				reader.extract(Paths.get(args[3]), Arrays.asList(args).subList(
+						4, args.length), threads);
+			} else {
+				throw new RuntimeException("Usage: java tez TYPE u archive directory [name ...]");
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
 	private static Compressor loadCompressor(String arg) {
 		if (arg.equals("h"))
 			return new HuffmanCompressor();
 		if (arg.equals("b"))
 			return new BurrowsWheelerCompressor();
+		if (arg.equals("auto"))
+			return new AutoCompressor();
+		if (arg.length() == 1 && arg.charAt(0) >= '0' + CompressionLevel.MIN_LEVEL
+				&& arg.charAt(0) <= '0' + CompressionLevel.MAX_LEVEL)
+			return CompressionLevel.compressor(arg.charAt(0) - '0');
 		else
 			throw new RuntimeException("Invalid compression type");
 	}
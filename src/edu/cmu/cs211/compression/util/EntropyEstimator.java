@@ -0,0 +1,151 @@
+package edu.cmu.cs211.compression.util;
+
+/**
+ * Cheap estimates of how well a block of bytes will compress, taken from a
+ * few small samples of the block instead of the whole of it.
+ * <p>
+ * Two figures are estimated. The <em>order-0 entropy</em> is the number of
+ * bits per byte an ideal code for the byte frequencies would need, which is
+ * about what Huffman coding alone reaches. The <em>repeat ratio</em> is the
+ * fraction of bytes that are the same byte that last followed the same three
+ * preceding bytes. It is near zero for random or already compressed data and
+ * high for text and other data whose bytes depend on their context, which is
+ * the redundancy a Burrows-Wheeler transform exposes and Huffman coding alone
+ * cannot use.
+ */
+public final class EntropyEstimator {
+
+	/** Number of samples taken from a block */
+	public static final int SAMPLES = 4;
+
+	/** Number of bytes in each sample */
+	public static final int SAMPLE_SIZE = 4096;
+
+	/** Estimated bits per byte above which a block may be incompressible */
+	private static final double INCOMPRESSIBLE_BITS_PER_BYTE = 7.5;
+
+	/** Repeat ratio below which a block may be incompressible */
+	private static final double INCOMPRESSIBLE_REPEAT_RATIO = 0.1;
+
+	/** Number of bits hashing a three-byte context */
+	private static final int HASH_BITS = 12;
+
+	private EntropyEstimator() {
+	}
+
+	/**
+	 * Returns whether <tt>b[off..off+len)</tt> looks like random or already
+	 * compressed data: its bytes are spread almost evenly over all values and
+	 * hardly ever predicted by the bytes before them. Neither Huffman coding
+	 * nor a Burrows-Wheeler transform would shrink such a block.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range within b
+	 */
+	public static boolean looksIncompressible(byte[] b, int off, int len) {
+		return repeatRatio(b, off, len) < INCOMPRESSIBLE_REPEAT_RATIO
+				&& bitsPerByte(b, off, len) > INCOMPRESSIBLE_BITS_PER_BYTE;
+	}
+
+	/**
+	 * Returns the estimated order-0 entropy of <tt>b[off..off+len)</tt> in
+	 * bits per byte, from 0 to 8. A block no longer than {@link #SAMPLES}
+	 * samples is counted in full.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range within b
+	 */
+	public static double bitsPerByte(byte[] b, int off, int len) {
+		checkRange(b.length, off, len);
+		int[] freqs = new int[256];
+		int counted = 0;
+		for (int s = 0; s < samples(len); s++) {
+			int start = sampleStart(off, len, s);
+			int n = sampleLength(len);
+			Histogram.count(b, start, n, freqs);
+			counted += n;
+		}
+		return bitsPerByte(freqs, counted);
+	}
+
+	/**
+	 * Returns the order-0 entropy of a histogram in bits per byte, from 0 to
+	 * 8. A histogram of a few thousand bytes understates the entropy of the
+	 * data it was drawn from, most of all for data close to random, so the
+	 * Miller-Madow correction for the number of byte values seen is added.
+	 *
+	 * @param freqs
+	 *            the frequency of each byte value
+	 * @param total
+	 *            the sum of the frequencies
+	 */
+	public static double bitsPerByte(int[] freqs, int total) {
+		if (total == 0)
+			return 0;
+		double bits = 0;
+		int seen = 0;
+		for (int f : freqs) {
+			if (f != 0) {
+				bits -= f * Math.log((double) f / total);
+				seen++;
+			}
+		}
+		bits = (bits + (seen - 1) / 2.0) / Math.log(2) / total;
+		return Math.min(bits, 8);
+	}
+
+	/**
+	 * Returns the estimated fraction of bytes in <tt>b[off..off+len)</tt>
+	 * that repeat the byte which last followed the same three bytes, from 0
+	 * to 1. Short blocks are read in full, as by
+	 * {@link #bitsPerByte(byte[], int, int)}. Contexts are hashed, so
+	 * unrelated contexts occasionally share a prediction.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range within b
+	 */
+	public static double repeatRatio(byte[] b, int off, int len) {
+		checkRange(b.length, off, len);
+		// the byte that last followed each hashed context, plus one; 0 if none
+		short[] next = new short[1 << HASH_BITS];
+		int predicted = 0;
+		int tried = 0;
+		for (int s = 0; s < samples(len); s++) {
+			int start = sampleStart(off, len, s);
+			int end = start + sampleLength(len);
+			for (int i = start + 3; i < end; i++) {
+				int context = (b[i - 3] & 0xff) << 16 | (b[i - 2] & 0xff) << 8
+						| b[i - 1] & 0xff;
+				int h = context * 0x9E3779B1 >>> 32 - HASH_BITS;
+				int value = (b[i] & 0xff) + 1;
+				if (next[h] == value)
+					predicted++;
+				next[h] = (short) value;
+				tried++;
+			}
+		}
+		return tried == 0 ? 0 : (double) predicted / tried;
+	}
+
+	/* Number of samples taken from a block of len bytes */
+	private static int samples(int len) {
+		return len <= SAMPLES * SAMPLE_SIZE ? 1 : SAMPLES;
+	}
+
+	/* Length of each sample of a block of len bytes */
+	private static int sampleLength(int len) {
+		return len <= SAMPLES * SAMPLE_SIZE ? len : SAMPLE_SIZE;
+	}
+
+	/* Start of sample s, the samples spread evenly over the block */
+	private static int sampleStart(int off, int len, int s) {
+		if (len <= SAMPLES * SAMPLE_SIZE)
+			return off;
+		return off + (int) ((long) (len - SAMPLE_SIZE) * s / (SAMPLES - 1));
+	}
+
+	private static void checkRange(int length, int off, int len) {
+		if (off < 0 || len < 0 || off > length - len)
+			throw new IndexOutOfBoundsException();
+	}
+}
@@ -0,0 +1,134 @@
+package edu.cmu.cs211.compression.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Counts byte frequencies in bulk.
+ * <p>
+ * A straightforward <tt>freq[b & 0xff]++</tt> loop stalls whenever the same
+ * byte value repeats, because each increment has to wait for the previous
+ * store to the same counter. The methods here spread consecutive bytes over
+ * four independent counter tables and merge them at the end, so runs of equal
+ * bytes no longer serialize on a single memory location.
+ * <p>
+ * All counting methods <em>add</em> to the given frequency array, so a
+ * histogram can be built up over several buffers.
+ */
+public final class Histogram {
+
+	/** Number of interleaved counter tables */
+	private static final int TABLES = 4;
+
+	private Histogram() {
+	}
+
+	/**
+	 * Returns the frequency of each byte value (indexed by the unsigned value)
+	 * in the whole array.
+	 * 
+	 * @throws NullPointerException
+	 *             if b is null
+	 */
+	public static int[] count(byte[] b) {
+		int[] freqs = new int[256];
+		count(b, 0, b.length, freqs);
+		return freqs;
+	}
+
+	/**
+	 * Returns the frequency of each byte value in <tt>b[off..off+len)</tt>.
+	 * 
+	 * @throws NullPointerException
+	 *             if b is null
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range within b
+	 */
+	public static int[] count(byte[] b, int off, int len) {
+		int[] freqs = new int[256];
+		count(b, off, len, freqs);
+		return freqs;
+	}
+
+	/**
+	 * Adds the frequency of each byte value in <tt>b[off..off+len)</tt> to
+	 * freqs.
+	 * 
+	 * @param freqs
+	 *            an array of at least 256 counters
+	 * @throws NullPointerException
+	 *             if b or freqs is null
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range within b
+	 * @throws IllegalArgumentException
+	 *             if freqs has fewer than 256 entries
+	 */
+	public static void count(byte[] b, int off, int len, int[] freqs) {
+		checkRange(b.length, off, len);
+		checkFreqs(freqs);
+
+		int[] t = new int[TABLES * 256];
+		int end = off + len;
+		int i = off;
+		for (; i + 3 < end; i += 4) {
+			t[b[i] & 0xff]++;
+			t[256 + (b[i + 1] & 0xff)]++;
+			t[512 + (b[i + 2] & 0xff)]++;
+			t[768 + (b[i + 3] & 0xff)]++;
+		}
+		for (; i < end; i++)
+			t[b[i] & 0xff]++;
+
+		merge(t, freqs);
+	}
+
+	/**
+	 * Adds the frequency of each byte value between the buffer's position and
+	 * its limit to freqs. The buffer's position is not changed.
+	 * 
+	 * @param freqs
+	 *            an array of at least 256 counters
+	 * @throws NullPointerException
+	 *             if buf or freqs is null
+	 * @throws IllegalArgumentException
+	 *             if freqs has fewer than 256 entries
+	 */
+	public static void count(ByteBuffer buf, int[] freqs) {
+		if (buf.hasArray()) {
+			count(buf.array(), buf.arrayOffset() + buf.position(), buf
+					.remaining(), freqs);
+			return;
+		}
+		checkFreqs(freqs);
+
+		int[] t = new int[TABLES * 256];
+		int end = buf.limit();
+		int i = buf.position();
+		for (; i + 3 < end; i += 4) {
+			t[buf.get(i) & 0xff]++;
+			t[256 + (buf.get(i + 1) & 0xff)]++;
+			t[512 + (buf.get(i + 2) & 0xff)]++;
+			t[768 + (buf.get(i + 3) & 0xff)]++;
+		}
+		for (; i < end; i++)
+			t[buf.get(i) & 0xff]++;
+
+		merge(t, freqs);
+	}
+
+	private static void merge(int[] t, int[] freqs) {
+		for (int v = 0; v < 256; v++)
+			freqs[v] += t[v] + t[256 + v] + t[512 + v] + t[768 + v];
+	}
+
+	private static void checkRange(int length, int off, int len) {
+		if (off < 0 || len < 0 || off > length - len)
+			throw new IndexOutOfBoundsException("range [" + off + ", " + off
+					+ " + " + len + ") out of bounds for length " + length);
+	}
+
+	private static void checkFreqs(int[] freqs) {
+		if (freqs.length < 256)
+			throw new IllegalArgumentException(
+					"frequency array needs 256 entries");
+	}
+}
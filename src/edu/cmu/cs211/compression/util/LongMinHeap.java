@@ -0,0 +1,212 @@
+package edu.cmu.cs211.compression.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A priority queue of primitive longs, smallest first.
+ * <p>
+ * Unlike {@link MyPriorityQueue}, the elements are stored unboxed in one
+ * <tt>long[]</tt> and compared with <tt>&lt;</tt>, so there are no
+ * comparator calls and no references to follow. To queue items by a
+ * priority, pack the priority and an item index into one long with
+ * {@link #pack(int, int)}; the packed longs order by priority first and
+ * index second.
+ * <p>
+ * The heap is <em>d</em>-ary: each node has <tt>arity</tt> children stored
+ * next to each other. A wider heap is shallower, so adding is cheaper, and
+ * removing compares more children per level but touches fewer levels. With
+ * the default arity of 4 the children of a node share a cache line.
+ * <p>
+ * {@link #heapify} replaces the contents with an array of elements in linear
+ * time, which is faster than adding them one at a time.
+ * <p>
+ * <strong>This class is not synchronized.</strong>
+ */
+public final class LongMinHeap {
+
+	/** Arity used by the constructors that do not take one */
+	public static final int DEFAULT_ARITY = 4;
+
+	private static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+	private final int arity;
+	private long[] heap;
+	private int size;
+
+	/** Creates an empty 4-ary heap */
+	public LongMinHeap() {
+		this(DEFAULT_INITIAL_CAPACITY, DEFAULT_ARITY);
+	}
+
+	/**
+	 * Creates an empty heap.
+	 *
+	 * @param initialCapacity
+	 *            the number of elements the heap holds before it grows
+	 * @param arity
+	 *            the number of children of each node
+	 * @throws IllegalArgumentException
+	 *             if initialCapacity is negative or arity is less than 2
+	 */
+	public LongMinHeap(int initialCapacity, int arity) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("capacity must be >= 0");
+		if (arity < 2)
+			throw new IllegalArgumentException("arity must be >= 2");
+		this.arity = arity;
+		this.heap = new long[initialCapacity];
+	}
+
+	/**
+	 * Packs a priority and an item into one long. Packed longs compare by
+	 * priority, then by item as an unsigned int.
+	 */
+	public static long pack(int priority, int item) {
+		return (long) priority << 32 | item & 0xFFFFFFFFL;
+	}
+
+	/** Returns the priority of a long made by {@link #pack} */
+	public static int priority(long packed) {
+		return (int) (packed >> 32);
+	}
+
+	/** Returns the item of a long made by {@link #pack} */
+	public static int item(long packed) {
+		return (int) packed;
+	}
+
+	/** Returns the number of children of each node */
+	public int arity() {
+		return arity;
+	}
+
+	/** Returns the number of elements in the heap */
+	public int size() {
+		return size;
+	}
+
+	/** Returns whether the heap is empty */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Removes every element */
+	public void clear() {
+		size = 0;
+	}
+
+	/** Adds an element */
+	public void add(long value) {
+		if (size == heap.length)
+			heap = Arrays.copyOf(heap, Math.max(DEFAULT_INITIAL_CAPACITY,
+					size + (size >> 1)));
+		siftUp(size++, value);
+	}
+
+	/**
+	 * Returns the smallest element without removing it.
+	 *
+	 * @throws NoSuchElementException
+	 *             if the heap is empty
+	 */
+	public long peek() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		return heap[0];
+	}
+
+	/**
+	 * Removes and returns the smallest element.
+	 *
+	 * @throws NoSuchElementException
+	 *             if the heap is empty
+	 */
+	public long poll() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		long min = heap[0];
+		long last = heap[--size];
+		if (size > 0)
+			siftDown(0, last);
+		return min;
+	}
+
+	/**
+	 * Removes the smallest element and adds value, with one sift instead of
+	 * the two of a poll followed by an add.
+	 *
+	 * @return the element removed
+	 * @throws NoSuchElementException
+	 *             if the heap is empty
+	 */
+	public long replaceTop(long value) {
+		if (size == 0)
+			throw new NoSuchElementException();
+		long min = heap[0];
+		siftDown(0, value);
+		return min;
+	}
+
+	/**
+	 * Replaces the contents of the heap with <tt>values[off..off+len)</tt>,
+	 * ordering them in linear time.
+	 *
+	 * @throws IndexOutOfBoundsException
+	 *             if off and len do not describe a range of values
+	 */
+	public void heapify(long[] values, int off, int len) {
+		if (off < 0 || len < 0 || off > values.length - len)
+			throw new IndexOutOfBoundsException();
+		if (heap.length < len)
+			heap = new long[len];
+		System.arraycopy(values, off, heap, 0, len);
+		size = len;
+		// sift down every node that has a child, the deepest first
+		for (int i = (len - 2) / arity; i >= 0 && len > 1; i--)
+			siftDown(i, heap[i]);
+	}
+
+	/** Copies the elements, in heap order, into a new array */
+	public long[] toArray() {
+		return Arrays.copyOf(heap, size);
+	}
+
+	/* Moves value up from the hole at i to where it belongs */
+	private void siftUp(int i, long value) {
+		while (i > 0) {
+			int parent = (i - 1) / arity;
+			long p = heap[parent];
+			if (p <= value)
+				break;
+			heap[i] = p;
+			i = parent;
+		}
+		heap[i] = value;
+	}
+
+	/* Moves value down from the hole at i to where it belongs */
+	private void siftDown(int i, long value) {
+		int n = size;
+		while (true) {
+			int first = i * arity + 1;
+			if (first >= n)
+				break;
+			int last = Math.min(first + arity, n);
+			int min = first;
+			long minValue = heap[first];
+			for (int c = first + 1; c < last; c++) {
+				long v = heap[c];
+				if (v < minValue) {
+					min = c;
+					minValue = v;
+				}
+			}
+			if (value <= minValue)
+				break;
+			heap[i] = minValue;
+			i = min;
+		}
+		heap[i] = value;
+	}
+}
@@ -0,0 +1,175 @@
+package edu.cmu.cs211.compression.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue for exactly one producer thread and one consumer thread.
+ * <p>
+ * The queue is a ring of slots with a head counter owned by the consumer and a
+ * tail counter owned by the producer. Each side only ever writes its own
+ * counter, so {@link #offer} and {@link #poll} need no lock and no
+ * compare-and-set. {@link #put} and {@link #take} wait for room or for an
+ * element by spinning briefly and then parking until the other side unparks
+ * them, which suits stages that hand over large blocks of work at a time: a
+ * waiting stage costs nothing until its handoff arrives.
+ * <p>
+ * A side about to park publishes its thread and then checks the queue once
+ * more; the other side publishes its counter and then checks for a parked
+ * thread. Both counters and both threads are volatile, so at least one of
+ * the two sees the other and no wakeup is lost.
+ * <p>
+ * Using the queue from more than one producer or more than one consumer at a
+ * time corrupts it. Null elements are not permitted.
+ *
+ * @param <E>
+ *            the type of elements held in this queue
+ */
+public final class SpscQueue<E> {
+
+	private static final int SPINS = 100;
+
+	private final Object[] slots;
+	private final int mask;
+	private final int capacity;
+
+	/** Index of the next element to take; written only by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/** Index of the next free slot; written only by the producer */
+	private final AtomicLong tail = new AtomicLong();
+
+	/** The producer while it is parked in {@link #put}, or null */
+	private volatile Thread waitingProducer;
+	/** The consumer while it is parked in {@link #take}, or null */
+	private volatile Thread waitingConsumer;
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Creates a queue holding at most capacity elements.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if capacity is less than 1 or greater than 2^30
+	 */
+	public SpscQueue(int capacity) {
+		if (capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity out of range");
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		this.slots = new Object[size];
+		this.mask = size - 1;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Adds an element if there is room. Called by the producer only.
+	 *
+	 * @return whether the element was added
+	 * @throws NullPointerException
+	 *             if e is null
+	 */
+	public boolean offer(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		long t = tail.get();
+		if (t - head.get() >= capacity)
+			return false;
+		slots[(int) t & mask] = e;
+		// publishes the slot before the new tail, and the tail before the check
+		tail.set(t + 1);
+		LockSupport.unpark(waitingConsumer);
+		return true;
+	}
+
+	/**
+	 * Removes the oldest element. Called by the consumer only.
+	 *
+	 * @return the element, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if (h == tail.get())
+			return null;
+		int i = (int) h & mask;
+		E e = (E) slots[i];
+		slots[i] = null;
+		head.set(h + 1);
+		LockSupport.unpark(waitingProducer);
+		return e;
+	}
+
+	/**
+	 * Adds an element, waiting for room if the queue is full. Called by the
+	 * producer only.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws CancellationException
+	 *             if the queue is or becomes cancelled while waiting
+	 */
+	public void put(E e) throws InterruptedException {
+		for (int waits = 0; !offer(e); waits++) {
+			checkWait();
+			if (waits < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			waitingProducer = Thread.currentThread();
+			if (!cancelled && tail.get() - head.get() >= capacity)
+				LockSupport.park(this);
+			waitingProducer = null;
+		}
+	}
+
+	/**
+	 * Removes the oldest element, waiting for one if the queue is empty.
+	 * Called by the consumer only.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 * @throws CancellationException
+	 *             if the queue is or becomes cancelled while waiting
+	 */
+	public E take() throws InterruptedException {
+		E e;
+		for (int waits = 0; (e = poll()) == null; waits++) {
+			checkWait();
+			if (waits < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			waitingConsumer = Thread.currentThread();
+			if (!cancelled && head.get() == tail.get())
+				LockSupport.park(this);
+			waitingConsumer = null;
+		}
+		return e;
+	}
+
+	/**
+	 * Makes every current and future wait in {@link #put} or {@link #take}
+	 * throw a CancellationException. Elements already queued can still be
+	 * polled. May be called from any thread.
+	 */
+	public void cancel() {
+		cancelled = true;
+		LockSupport.unpark(waitingProducer);
+		LockSupport.unpark(waitingConsumer);
+	}
+
+	/** Returns the number of elements in the queue */
+	public int size() {
+		long h = head.get();
+		return (int) (tail.get() - h);
+	}
+
+	private void checkWait() throws InterruptedException {
+		if (cancelled)
+			throw new CancellationException();
+		if (Thread.interrupted())
+			throw new InterruptedException();
+	}
+}
@@ -0,0 +1,245 @@
+package edu.cmu.cs211.compression.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache bounded by the total weight of its entries rather than their
+ * number, where the weight of an entry is usually its size in bytes.
+ * <p>
+ * Entries are kept in least-recently-used order, and the least recently used
+ * entries are evicted to make room. With the {@link Policy#TINY_LFU} policy a
+ * new entry must also be requested more often than the entry it would evict,
+ * as estimated by a small frequency sketch; otherwise it is not cached at
+ * all. That keeps a stream of one-off entries from flushing out a hot working
+ * set, which plain LRU cannot do.
+ * <p>
+ * The cache counts hits, misses, evictions and rejected entries. This class is
+ * thread-safe.
+ *
+ * @param <K>
+ *            the type of keys
+ * @param <V>
+ *            the type of values
+ */
+public final class WeightedCache<K, V> {
+
+	/** How the cache decides which entries to keep */
+	public enum Policy {
+		/** Always admit, evict the least recently used entries */
+		LRU,
+		/** Admit only entries requested more often than the LRU victim */
+		TINY_LFU
+	}
+
+	/** Computes the weight of an entry */
+	public interface Weigher<K, V> {
+		long weigh(K key, V value);
+	}
+
+	private final long maxWeight;
+	private final Policy policy;
+	private final Weigher<? super K, ? super V> weigher;
+
+	private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(
+			16, 0.75f, true);
+	private final FrequencySketch sketch;
+	private long weight;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long rejections;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxWeight
+	 *            the largest total weight the cache holds
+	 * @param policy
+	 *            the admission and eviction policy
+	 * @param weigher
+	 *            computes the weight of each entry when it is added
+	 * @throws IllegalArgumentException
+	 *             if maxWeight is negative
+	 * @throws NullPointerException
+	 *             if policy or weigher is null
+	 */
+	public WeightedCache(long maxWeight, Policy policy,
+			Weigher<? super K, ? super V> weigher) {
+		if (policy == null || weigher == null)
+			throw new NullPointerException();
+		if (maxWeight < 0)
+			throw new IllegalArgumentException("max weight must be >= 0");
+		this.maxWeight = maxWeight;
+		this.policy = policy;
+		this.weigher = weigher;
+		this.sketch = policy == Policy.TINY_LFU ? new FrequencySketch() : null;
+	}
+
+	/**
+	 * Returns the value cached for key, or null if there is none. Counts as a
+	 * hit or a miss.
+	 */
+	public synchronized V get(K key) {
+		if (sketch != null)
+			sketch.increment(key.hashCode());
+		Entry<V> entry = map.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Caches value under key, replacing any value already there, unless the
+	 * entry is heavier than the whole cache or the policy rejects it. The
+	 * least recently used entries that would have to make room are chosen
+	 * first and only evicted once the entry is admitted, so a rejected entry
+	 * leaves the cache as it was, including any value already under key.
+	 *
+	 * @return whether the value was cached
+	 * @throws NullPointerException
+	 *             if key or value is null
+	 */
+	public synchronized boolean put(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		long w = weigher.weigh(key, value);
+		if (w > maxWeight) {
+			rejections++;
+			return false;
+		}
+
+		// the entry replaced is the most recently used one from here on
+		Entry<V> old = map.get(key);
+		long excess = weight - (old != null ? old.weight : 0) + w - maxWeight;
+		int frequency = sketch != null ? sketch.frequency(key.hashCode()) : 0;
+		int victims = 0;
+		Iterator<Map.Entry<K, Entry<V>>> lru = map.entrySet().iterator();
+		while (excess > 0) {
+			Map.Entry<K, Entry<V>> victim = lru.next();
+			if (sketch != null
+					&& frequency <= sketch.frequency(victim.getKey().hashCode())) {
+				rejections++;
+				return false;
+			}
+			excess -= victim.getValue().weight;
+			victims++;
+		}
+
+		if (old != null) {
+			map.remove(key);
+			weight -= old.weight;
+		}
+		lru = map.entrySet().iterator();
+		for (int i = 0; i < victims; i++) {
+			weight -= lru.next().getValue().weight;
+			lru.remove();
+			evictions++;
+		}
+		map.put(key, new Entry<V>(value, w));
+		weight += w;
+		return true;
+	}
+
+	/** Removes every entry; the counters are kept */
+	public synchronized void clear() {
+		map.clear();
+		weight = 0;
+	}
+
+	/** Returns the number of cached entries */
+	public synchronized int size() {
+		return map.size();
+	}
+
+	/** Returns the total weight of the cached entries */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	/** Returns the number of lookups that found a value */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/** Returns the number of lookups that found nothing */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/** Returns the number of entries evicted to make room */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/** Returns the number of entries that were not admitted */
+	public synchronized long rejections() {
+		return rejections;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "WeightedCache[" + policy + ", " + map.size() + " entries, "
+				+ weight + "/" + maxWeight + ", hits=" + hits + ", misses="
+				+ misses + ", evictions=" + evictions + ", rejections="
+				+ rejections + "]";
+	}
+
+	private static final class Entry<V> {
+		final V value;
+		final long weight;
+
+		Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * A count-min sketch of recent request frequencies: four rows of small
+	 * counters, each row indexed by a different hash of the key. The estimate
+	 * is the smallest of the four counters. All counters are halved after a
+	 * fixed number of increments, so old popularity fades.
+	 */
+	private static final class FrequencySketch {
+		private static final int WIDTH = 1 << 12;
+		private static final int MAX_COUNT = 15;
+		private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b,
+				0xc2b2ae35, 0x27d4eb2f };
+
+		private final byte[][] counts = new byte[SEEDS.length][WIDTH];
+		private int increments;
+
+		void increment(int hash) {
+			for (int row = 0; row < SEEDS.length; row++) {
+				int i = index(hash, row);
+				if (counts[row][i] < MAX_COUNT)
+					counts[row][i]++;
+			}
+			if (++increments == 10 * WIDTH) {
+				for (byte[] row : counts) {
+					for (int i = 0; i < row.length; i++)
+						row[i] >>= 1;
+				}
+				increments = 0;
+			}
+		}
+
+		int frequency(int hash) {
+			int min = MAX_COUNT;
+			for (int row = 0; row < SEEDS.length; row++)
+				min = Math.min(min, counts[row][index(hash, row)]);
+			return min;
+		}
+
+		private static int index(int hash, int row) {
+			int h = hash * SEEDS[row];
+			return (h ^ h >>> 16) & (WIDTH - 1);
+		}
+	}
+}